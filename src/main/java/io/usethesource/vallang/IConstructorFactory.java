@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang;
+
+import java.util.Map;
+
+import io.usethesource.vallang.exceptions.FactTypeUseException;
+import io.usethesource.vallang.exceptions.IllegalConstructorApplicationException;
+import io.usethesource.vallang.exceptions.UnexpectedChildTypeException;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.type.TypeFactory;
+
+/**
+ * Creates values of a single constructor type. A factory is obtained once from 
+ * {@link IValueFactory#constructorFactory(Type, boolean)} and can then be used to create many values,
+ * without repeating the work that {@link IValueFactory#constructor(Type, IValue...)} does on every call.
+ * <br/>
+ * A trusted factory does not check the children and takes ownership of the arrays passed to it,
+ * so these arrays should not be modified afterwards.
+ */
+public interface IConstructorFactory {
+  
+  /**
+   * @return the constructor type of all values made by this factory
+   */
+  public Type getConstructorType();
+
+  /**
+   * Make a constructor value.
+   * 
+   * @param children
+   *            an array or variable length argument list of children
+   * @return a new constructor value
+   * @throws FactTypeUseException
+   *             if the factory is not trusted and the children do not fit the constructor type
+   */
+  public IConstructor make(IValue... children) throws FactTypeUseException;
+
+  /**
+   * Make a constructor value with keyword parameters.
+   * 
+   * @param children
+   *            an array of children
+   * @param kwParams 
+   *            keyword parameters, may be null
+   * @return a new constructor value
+   * @throws FactTypeUseException
+   *             if the factory is not trusted and the children do not fit the constructor type
+   */
+  public IConstructor make(IValue[] children, Map<String, IValue> kwParams) throws FactTypeUseException;
+
+  /**
+   * Constructor factory that resolves the field types of the constructor once, checks the children 
+   * against them (unless trusted) and delegates the construction to a value factory. 
+   * Value factories with specialized representations override {@link #build(IValue[])}.
+   */
+  public static class Default implements IConstructorFactory {
+    protected final Type constructorType;
+    protected final boolean trusted;
+    private final IValueFactory vf;
+    private final Type[] fieldTypes;
+
+    public Default(IValueFactory vf, Type constructorType, boolean trusted) {
+      this.vf = vf;
+      this.constructorType = constructorType;
+      this.trusted = trusted;
+      
+      Type fields = constructorType.getFieldTypes();
+      this.fieldTypes = new Type[fields.getArity()];
+      for (int i = 0; i < fieldTypes.length; i++) {
+        fieldTypes[i] = fields.getFieldType(i);
+      }
+    }
+
+    @Override
+    public Type getConstructorType() {
+      return constructorType;
+    }
+
+    @Override
+    public IConstructor make(IValue... children) throws FactTypeUseException {
+      if (!trusted) {
+        check(children);
+      }
+      else {
+        assert children.length == fieldTypes.length;
+      }
+      
+      return build(children);
+    }
+
+    @Override
+    public IConstructor make(IValue[] children, Map<String, IValue> kwParams) throws FactTypeUseException {
+      IConstructor result = make(children);
+      
+      if (kwParams != null && !kwParams.isEmpty()) {
+        return result.asWithKeywordParameters().setParameters(kwParams);
+      }
+      
+      return result;
+    }
+
+    /**
+     * Constructs the value from children that fit the constructor type.
+     */
+    protected IConstructor build(IValue[] children) {
+      return vf.constructor(constructorType, children);
+    }
+
+    private void check(IValue[] children) {
+      if (children.length != fieldTypes.length) {
+        throw new IllegalConstructorApplicationException(constructorType, TypeFactory.getInstance().tupleType(children));
+      }
+
+      for (int i = 0; i < fieldTypes.length; i++) {
+        Type childType = children[i].getType();
+        if (!childType.isSubtypeOf(fieldTypes[i])) {
+          throw new UnexpectedChildTypeException(fieldTypes[i], childType);
+        }
+      }
+    }
+  }
+}
@@ -91,6 +91,14 @@ public interface IInteger extends INumber {
      */
     public byte[] getTwosComplementRepresentation();
     
+    /**
+     * @return the number of bits of the minimal two's complement representation of this
+     * integer, excluding the sign bit, like {@link java.math.BigInteger#bitLength()}
+     */
+    default int bitLength() {
+        return new java.math.BigInteger(getTwosComplementRepresentation()).bitLength();
+    }
+    
     /**
      * Converts this IInteger to an int. Only the lower
      * 32 bits are used so the resulting int may be
@@ -115,7 +115,49 @@ public interface IList extends IListAlgebra<IList>, Iterable<IValue>, IValue {
      * @return true iff e is an element of the list
      */
     public boolean contains(IValue e);
-    
+
+    /**
+     * @param e
+     * @return the index of the first element which is equal to e, or -1 if there is none
+     */
+    public default int indexOf(IValue e) {
+        int i = 0;
+        for (IValue v : this) {
+            if (v.isEqual(e)) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @param e
+     * @return the index of the last element which is equal to e, or -1 if there is none
+     */
+    public default int lastIndexOf(IValue e) {
+        for (int i = length() - 1; i >= 0; i--) {
+            if (get(i).isEqual(e)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param e
+     * @return the number of elements which are equal to e
+     */
+    public default int occurrences(IValue e) {
+        int count = 0;
+        for (IValue v : this) {
+            if (v.isEqual(e)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     /**
      * Removes the first occurrence of an element, i.e. the
      * element with the lowest index that is present in the list,
@@ -498,6 +498,20 @@ public interface IValueFactory {
   public IConstructor constructor(Type constructor, IValue[] children, Map<String, IValue> kwParams)
       throws FactTypeUseException;
 
+  /**
+   * Prepares the creation of many values of the same constructor type. 
+   * 
+   * @param constructor
+   *            the constructor to use
+   * @param trusted
+   *            if true the children are not checked against the field types of the constructor, 
+   *            and the arrays of children are not copied
+   * @return a factory for values of the given constructor type
+   */
+  public default IConstructorFactory constructorFactory(Type constructor, boolean trusted) {
+    return new IConstructorFactory.Default(this, constructor, trusted);
+  }
+
 	/**
 	 * Construct an empty unmodifiable set. If the element type is a tuple type,
 	 * this will actually construct a relation.
@@ -66,17 +66,17 @@ public abstract class AbstractDefaultWithKeywordParameters<T extends IValue> imp
 
 	@Override
 	public IValue getParameter(String label) throws FactTypeUseException {
-		return parameters.get(label);
+		return internalGetParameters().get(label);
 	}
 
 	@Override
 	public T setParameter(String label, IValue newValue) throws FactTypeUseException {
-		return wrap(content, parameters.__put(label, newValue));
+		return wrap(content, internalGetParameters().__put(label, newValue));
 	}
 	
 	@Override
 	public T unsetParameter(String label) {
-		io.usethesource.capsule.Map.Immutable<String, IValue> removed = parameters.__remove(label);
+		io.usethesource.capsule.Map.Immutable<String, IValue> removed = internalGetParameters().__remove(label);
 		
 		if (removed.size() == 0) {
 			return content;
@@ -92,22 +92,22 @@ public abstract class AbstractDefaultWithKeywordParameters<T extends IValue> imp
 
 	@Override
 	public boolean hasParameter(String label) throws FactTypeUseException {
-		return parameters.containsKey(label);
+		return internalGetParameters().containsKey(label);
 	}
 
 	@Override
 	public boolean hasParameters() {
-		return parameters.size() > 0;
+		return internalGetParameters().size() > 0;
 	}
 
 	@Override
 	public Set<String> getParameterNames() {
-		return parameters.keySet();
+		return internalGetParameters().keySet();
 	}
 
 	@Override
 	public Map<String,IValue> getParameters() {
-		return Collections.unmodifiableMap(parameters);
+		return Collections.unmodifiableMap(internalGetParameters());
 	}
 
 	@Override
@@ -122,11 +122,11 @@ public abstract class AbstractDefaultWithKeywordParameters<T extends IValue> imp
 			return false;
 		}
 
-		if (parameters.size() != o.parameters.size()) {
+		if (internalGetParameters().size() != o.internalGetParameters().size()) {
 			return false;
 		}
 
-		for (String key : parameters.keySet()) {
+		for (String key : internalGetParameters().keySet()) {
 			if (!getParameter(key).equals(o.getParameter(key))) {
 				return false;
 			}
@@ -143,11 +143,11 @@ public abstract class AbstractDefaultWithKeywordParameters<T extends IValue> imp
 
 		AbstractDefaultWithKeywordParameters<? extends IValue> o = (AbstractDefaultWithKeywordParameters<?>) other;
 
-		if (parameters.size() != o.parameters.size()) {
+		if (internalGetParameters().size() != o.internalGetParameters().size()) {
 			return false;
 		}
 
-		for (String key : parameters.keySet()) {
+		for (String key : internalGetParameters().keySet()) {
 			// TODO: isEqual should become equals when annotations have been removed.
 			IValue parameter = getParameter(key);
 			if (parameter == null && o.getParameter(key) != null) {
@@ -167,7 +167,9 @@ public abstract class AbstractDefaultWithKeywordParameters<T extends IValue> imp
 	}
 	
 	/**
-	 * This method is only to be used by internal methods, such as testing and fast iterators
+	 * This method is only to be used by internal methods, such as testing and fast iterators.
+	 * Subclasses which store their parameters in another form override this method and 
+	 * construct this view with null parameters.
 	 */
 	public io.usethesource.capsule.Map.Immutable<String, IValue> internalGetParameters() {
 	    return parameters;
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import io.usethesource.vallang.ISet;
+import io.usethesource.vallang.ITuple;
+import io.usethesource.vallang.IValue;
+
+/**
+ * A relation of which the tuples are stored as rows of codes, and are only created when they are asked
+ * for. Subclasses find the row of a tuple and decode a row; lookup, iteration, equality and hashing
+ * are defined on top of that.
+ */
+/*package*/ abstract class AbstractEncodedRelation extends AbstractSet {
+  private int hashCode = 0;
+
+  /**
+   * @return the row of the tuple which is equivalent (see {@link IValue#isEqual(IValue)}) to the given
+   *         element, or -1 if there is none
+   */
+  protected abstract int rowOf(IValue element);
+
+  /**
+   * @return the tuple stored in the given row
+   */
+  protected abstract ITuple tuple(int row);
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean contains(IValue element) {
+    return rowOf(element) >= 0;
+  }
+
+  @Override
+  public Iterator<IValue> iterator() {
+    final int size = size();
+
+    return new Iterator<IValue>() {
+      private int row = 0;
+
+      @Override
+      public boolean hasNext() {
+        return row < size;
+      }
+
+      @Override
+      public IValue next() {
+        if (row >= size) {
+          throw new NoSuchElementException();
+        }
+        return tuple(row++);
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == this) {
+      return true;
+    }
+    if (!(other instanceof ISet)) {
+      return false;
+    }
+
+    final ISet that = (ISet) other;
+    if (getType() != that.getType() || that.size() != size()) {
+      return false;
+    }
+
+    // rows are found by equivalence, so the tuple itself is compared as well, like the other sets do
+    for (IValue elem : that) {
+      final int row = rowOf(elem);
+      if (row < 0 || !tuple(row).equals(elem)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isEqual(IValue other) {
+    if (other == this) {
+      return true;
+    }
+    if (!(other instanceof ISet) || ((ISet) other).size() != size()) {
+      return false;
+    }
+
+    for (IValue elem : (ISet) other) {
+      if (!contains(elem)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    if (hashCode == 0) {
+      // the sum of the element hashes, see java.util.Set#hashCode()
+      int hash = 0;
+      for (IValue elem : this) {
+        hash += elem.hashCode();
+      }
+      hashCode = hash;
+    }
+    return hashCode;
+  }
+}
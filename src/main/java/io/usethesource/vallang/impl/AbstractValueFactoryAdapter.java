@@ -6,6 +6,7 @@ import java.util.Map;
 
 import io.usethesource.vallang.IBool;
 import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IConstructorFactory;
 import io.usethesource.vallang.IDateTime;
 import io.usethesource.vallang.IInteger;
 import io.usethesource.vallang.IList;
@@ -55,6 +56,10 @@ public /*abstract*/ class AbstractValueFactoryAdapter implements IValueFactory {
 		return adapted.constructor(constructor, children);
 	}
 
+	public IConstructorFactory constructorFactory(Type constructor, boolean trusted) {
+		return adapted.constructorFactory(constructor, trusted);
+	}
+
 	public IDateTime date(int year, int month, int day) {
 		return adapted.date(year, month, day);
 	}
@@ -11,12 +11,9 @@
  *******************************************************************************/
 package io.usethesource.vallang.impl;
 
-import static io.usethesource.vallang.util.EqualityUtils.KEYWORD_PARAMETER_COMPARATOR;
-
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 
 import io.usethesource.vallang.IConstructor;
 import io.usethesource.vallang.IValue;
@@ -28,15 +25,141 @@ import io.usethesource.vallang.exceptions.FactTypeUseException;
 import io.usethesource.vallang.impl.func.ConstructorFunctions;
 import io.usethesource.vallang.io.StandardTextWriter;
 import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.util.EqualityUtils;
 import io.usethesource.vallang.visitors.IValueVisitor;
 
+import io.usethesource.capsule.util.EqualityComparator;
+import io.usethesource.capsule.util.collection.AbstractSpecialisedImmutableMap;
+
+/**
+ * A constructor with keyword parameters. The names of the parameters are laid out by a
+ * {@link KeywordParameterLayout} which is shared by all constructors of the same type, 
+ * such that every instance only stores a flat array of values. Parameters which do not fit
+ * in the layout are kept in an extra map.
+ */
 public class ConstructorWithKeywordParametersFacade implements IConstructor {
+	private static final IValue[] NO_VALUES = new IValue[0];
+	
 	protected final IConstructor content;
-	protected final io.usethesource.capsule.Map.Immutable<String, IValue> parameters;
+	private final KeywordParameterLayout layout;
+	private final IValue[] values;
+	private final io.usethesource.capsule.Map.Immutable<String, IValue> extra; // null if all parameters are in the layout
 	
 	public ConstructorWithKeywordParametersFacade(final IConstructor content, final io.usethesource.capsule.Map.Immutable<String, IValue> parameters) {
 		this.content = content;
-		this.parameters = parameters;
+		
+		// lay out the names in a canonical order, to share layouts with other instances
+		String[] names = parameters.keySet().toArray(new String[parameters.size()]);
+		Arrays.sort(names);
+		
+		KeywordParameterLayout layout = KeywordParameterLayout.of(content.getUninstantiatedConstructorType());
+		int slots = Math.min(names.length, KeywordParameterLayout.MAX_SLOTS);
+		IValue[] values = new IValue[slots];
+		
+		for (int i = 0; i < slots; i++) {
+			layout = layout.with(names[i]);
+			values[i] = parameters.get(names[i]);
+		}
+		
+		io.usethesource.capsule.Map.Immutable<String, IValue> extra = null;
+		if (slots < names.length) {
+			extra = parameters;
+			for (int i = 0; i < slots; i++) {
+				extra = extra.__remove(names[i]);
+			}
+		}
+		
+		this.layout = layout;
+		this.values = values;
+		this.extra = extra;
+	}
+	
+	private ConstructorWithKeywordParametersFacade(final IConstructor content, KeywordParameterLayout layout, IValue[] values, io.usethesource.capsule.Map.Immutable<String, IValue> extra) {
+		this.content = content;
+		this.layout = layout;
+		this.values = values;
+		this.extra = extra;
+	}
+	
+	/**
+	 * Adds a single keyword parameter to a constructor without any, without going through an
+	 * intermediate map.
+	 */
+	public static IConstructor withParameter(final IConstructor content, String label, IValue value) {
+		KeywordParameterLayout layout = KeywordParameterLayout.of(content.getUninstantiatedConstructorType()).with(label);
+		return new ConstructorWithKeywordParametersFacade(content, layout, new IValue[] { value }, null);
+	}
+	
+	private IValue getParameter(String label) {
+		int slot = layout.indexOf(label);
+		
+		if (slot != -1) {
+			return values[slot];
+		}
+		
+		return extra == null ? null : extra.get(label);
+	}
+	
+	private int parameterCount() {
+		return values.length + (extra == null ? 0 : extra.size());
+	}
+	
+	private ConstructorWithKeywordParametersFacade putParameter(String label, IValue value) {
+		int slot = layout.indexOf(label);
+		
+		if (slot != -1) {
+			IValue[] newValues = values.clone();
+			newValues[slot] = value;
+			return new ConstructorWithKeywordParametersFacade(content, layout, newValues, extra);
+		}
+		
+		KeywordParameterLayout next = extra == null ? layout.with(label) : null;
+		
+		if (next != null) {
+			IValue[] newValues = Arrays.copyOf(values, values.length + 1);
+			newValues[values.length] = value;
+			return new ConstructorWithKeywordParametersFacade(content, next, newValues, null);
+		}
+		
+		io.usethesource.capsule.Map.Immutable<String, IValue> newExtra = extra == null ? AbstractSpecialisedImmutableMap.<String, IValue>mapOf() : extra;
+		return new ConstructorWithKeywordParametersFacade(content, layout, values, newExtra.__put(label, value));
+	}
+	
+	/**
+	 * @return all parameters in a single (newly allocated) map
+	 */
+	private io.usethesource.capsule.Map.Immutable<String, IValue> toMap() {
+		io.usethesource.capsule.Map.Immutable<String, IValue> result = extra == null ? AbstractSpecialisedImmutableMap.<String, IValue>mapOf() : extra;
+		
+		for (int i = 0; i < values.length; i++) {
+			result = result.__put(layout.name(i), values[i]);
+		}
+		
+		return result;
+	}
+	
+	private boolean equalParameters(ConstructorWithKeywordParametersFacade other, EqualityComparator<Object> cmp) {
+		if (parameterCount() != other.parameterCount()) {
+			return false;
+		}
+		
+		for (int i = 0; i < values.length; i++) {
+			IValue otherValue = other.getParameter(layout.name(i));
+			if (otherValue == null || !cmp.equals(values[i], otherValue)) {
+				return false;
+			}
+		}
+		
+		if (extra != null) {
+			for (Map.Entry<String, IValue> entry : extra.entrySet()) {
+				IValue otherValue = other.getParameter(entry.getKey());
+				if (otherValue == null || !cmp.equals(entry.getValue(), otherValue)) {
+					return false;
+				}
+			}
+		}
+		
+		return true;
 	}
 	
 	public Type getType() {
@@ -53,7 +176,7 @@ public class ConstructorWithKeywordParametersFacade implements IConstructor {
 	
 	public IConstructor set(int i, IValue newChild) throws IndexOutOfBoundsException {
 		IConstructor newContent = content.set(i, newChild);
-		return new ConstructorWithKeywordParametersFacade(newContent, parameters); // TODO: introduce wrap() here as well
+		return new ConstructorWithKeywordParametersFacade(newContent, layout, values, extra); // TODO: introduce wrap() here as well
 	}
 
 	public int arity() {
@@ -89,7 +212,7 @@ public class ConstructorWithKeywordParametersFacade implements IConstructor {
 			ConstructorWithKeywordParametersFacade other = (ConstructorWithKeywordParametersFacade) o;
 		
 			return content.equals(other.content) &&
-					parameters.equals(other.parameters);
+					equalParameters(other, (a, b) -> a.equals(b));
 		}
 		
 		return false;
@@ -102,7 +225,7 @@ public class ConstructorWithKeywordParametersFacade implements IConstructor {
 			  IConstructor oc = ((IConstructor)other);
 			  if (content.isEqual(oc) && oc.mayHaveKeywordParameters()) {
 				  IWithKeywordParameters<? extends IConstructor> ocw = oc.asWithKeywordParameters();
-				  return ocw.getParameters().equals(parameters);
+				  return ocw.getParameters().equals(toMap());
 			  }
 			  else {
 				  return false;
@@ -115,7 +238,7 @@ public class ConstructorWithKeywordParametersFacade implements IConstructor {
 
 	  ConstructorWithKeywordParametersFacade o = (ConstructorWithKeywordParametersFacade) other;
 
-	  return content.isEqual(o.content) && KEYWORD_PARAMETER_COMPARATOR.equals(parameters, o.parameters);
+	  return content.isEqual(o.content) && equalParameters(o, EqualityUtils.getEquivalenceComparator());
 	}
 
 	@Override
@@ -133,7 +256,18 @@ public class ConstructorWithKeywordParametersFacade implements IConstructor {
 	
 	@Override
 	public int hashCode() {
-		return 131 + 3 * content.hashCode() + 101 * parameters.hashCode();
+		// the same as the hash code of the map of all parameters, independent of the layout
+		int parametersHash = 0;
+		for (int i = 0; i < values.length; i++) {
+			parametersHash += layout.name(i).hashCode() ^ values[i].hashCode();
+		}
+		if (extra != null) {
+			for (Map.Entry<String, IValue> entry : extra.entrySet()) {
+				parametersHash += entry.getKey().hashCode() ^ entry.getValue().hashCode();
+			}
+		}
+		
+		return 131 + 3 * content.hashCode() + 101 * parametersHash;
 	}
 	
 	@Override
@@ -153,25 +287,35 @@ public class ConstructorWithKeywordParametersFacade implements IConstructor {
 	
 	@Override
 	public IWithKeywordParameters<? extends IConstructor> asWithKeywordParameters() {
-	  return new AbstractDefaultWithKeywordParameters<IConstructor>(content, parameters) {
+	  return new AbstractDefaultWithKeywordParameters<IConstructor>(content, null) {
       @Override
       protected IConstructor wrap(IConstructor content, io.usethesource.capsule.Map.Immutable<String, IValue> parameters) {
         return new ConstructorWithKeywordParametersFacade(content, parameters);
       }
       
       @Override
-      public boolean hasParameters() {
-        return parameters != null && parameters.size() > 0;
+      public IValue getParameter(String label) {
+        return ConstructorWithKeywordParametersFacade.this.getParameter(label);
       }
       
       @Override
-      public Set<String> getParameterNames() {
-        return parameters.keySet();		
+      public IConstructor setParameter(String label, IValue newValue) {
+        return putParameter(label, newValue);
+      }
+      
+      @Override
+      public boolean hasParameter(String label) {
+        return ConstructorWithKeywordParametersFacade.this.getParameter(label) != null;
+      }
+      
+      @Override
+      public boolean hasParameters() {
+        return parameterCount() > 0;
       }
       
       @Override
-      public Map<String, IValue> getParameters() {
-        return Collections.unmodifiableMap(parameters);
+      public io.usethesource.capsule.Map.Immutable<String, IValue> internalGetParameters() {
+        return toMap();
       }
     };
 	}
@@ -193,7 +337,7 @@ public class ConstructorWithKeywordParametersFacade implements IConstructor {
 
   @Override
   public IConstructor set(String label, IValue newChild) throws FactTypeUseException {
-    return new ConstructorWithKeywordParametersFacade(content.set(label, newChild), parameters);
+    return new ConstructorWithKeywordParametersFacade(content.set(label, newChild), layout, values, extra);
   }
 
   @Override
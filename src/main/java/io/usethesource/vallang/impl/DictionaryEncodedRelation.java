@@ -0,0 +1,422 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import io.usethesource.vallang.ISet;
+import io.usethesource.vallang.ISetRelation;
+import io.usethesource.vallang.ISetWriter;
+import io.usethesource.vallang.ITuple;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.type.Type;
+
+/**
+ * An immutable relation which stores every column as an array of int codes into a dictionary of the
+ * distinct values of that column. For relations of which the columns have few distinct values, such as
+ * facts extracted from a code base (kinds, modifiers, names), this takes a fraction of the memory of
+ * a set of tuples, and tuples are only created when they are iterated over.
+ * <br/>
+ * Composition of two such relations joins on the codes: the values of the joined columns are matched
+ * once per distinct value instead of once per tuple, and the result shares the dictionaries of its
+ * operands. Projection and indexing also work on the codes. All other operations are delegated to the
+ * value factory and produce ordinary sets.
+ */
+public final class DictionaryEncodedRelation extends AbstractEncodedRelation {
+  private static final int MAX_TABLE_SIZE = 1 << 30;
+
+  private final IValueFactory vf;
+  private final ValueDictionary[] dictionaries;
+  private final int[][] columns;
+  private final int size;
+  private final Type type;
+  private final int[] table;
+  private volatile int[][] firstColumnGroups;
+
+  /**
+   * @param columns the codes of the tuples, which may contain duplicates; the arrays may be longer than
+   *        the number of tuples, and are compacted in place
+   * @param type the type of the relation, or null to compute it from the codes
+   */
+  private DictionaryEncodedRelation(IValueFactory vf, ValueDictionary[] dictionaries, int[][] columns,
+      int rows, Type type) {
+    this.vf = vf;
+    this.dictionaries = dictionaries;
+    this.columns = columns;
+
+    // a hash table of the tuples, for contains and to remove duplicates
+    this.table = new int[tableSize(rows)];
+
+    int unique = 0;
+    for (int row = 0; row < rows; row++) {
+      if (unique != row) {
+        for (int[] column : columns) {
+          column[unique] = column[row];
+        }
+      }
+      if (insertRow(unique)) {
+        unique++;
+      }
+    }
+
+    this.size = unique;
+    this.type = type != null ? type : computeType();
+  }
+
+  /**
+   * @return a power of two which is at least twice the number of rows, such that the hash table of
+   *         the rows is at most half full
+   * @throws IllegalArgumentException if such a table does not fit in an array
+   */
+  private static int tableSize(int rows) {
+    final long size = Math.max(2L, Long.highestOneBit(Math.max(1L, rows) - 1) << 2);
+    if (size > MAX_TABLE_SIZE) {
+      throw new IllegalArgumentException("A dictionary-encoded relation holds at most "
+          + (MAX_TABLE_SIZE >>> 1) + " tuples (including duplicates while it is built), not " + rows);
+    }
+    return (int) size;
+  }
+
+  /**
+   * Encodes the columns of a relation.
+   *
+   * @throws io.usethesource.vallang.exceptions.IllegalOperationException if the set is not a relation
+   */
+  public static DictionaryEncodedRelation of(IValueFactory vf, ISet relation) {
+    if (relation instanceof DictionaryEncodedRelation) {
+      return (DictionaryEncodedRelation) relation;
+    }
+
+    if (!relation.isEmpty()) {
+      validateIsRelation(relation);
+    }
+
+    final int arity = relation.isEmpty() ? 0 : relation.getElementType().getArity();
+    final ValueDictionary[] dictionaries = new ValueDictionary[arity];
+    final int[][] columns = new int[arity][relation.size()];
+
+    for (int field = 0; field < arity; field++) {
+      dictionaries[field] = new ValueDictionary();
+    }
+
+    int row = 0;
+    for (IValue elem : relation) {
+      final ITuple tuple = (ITuple) elem;
+      for (int field = 0; field < arity; field++) {
+        columns[field][row] = dictionaries[field].intern(tuple.get(field));
+      }
+      row++;
+    }
+
+    return new DictionaryEncodedRelation(vf, dictionaries, columns, row, relation.getType());
+  }
+
+  private Type computeType() {
+    if (size == 0) {
+      return getTypeFactory().setType(getTypeFactory().voidType());
+    }
+
+    final Type[] fieldTypes = new Type[columns.length];
+    for (int field = 0; field < columns.length; field++) {
+      final BitSet seen = new BitSet(dictionaries[field].size());
+      Type lub = getTypeFactory().voidType();
+
+      for (int row = 0; row < size; row++) {
+        final int code = columns[field][row];
+        if (!seen.get(code)) {
+          seen.set(code);
+          lub = lub.lub(dictionaries[field].valueOf(code).getType());
+        }
+      }
+      fieldTypes[field] = lub;
+    }
+
+    return getTypeFactory().setType(getTypeFactory().tupleType(fieldTypes));
+  }
+
+  private static int hash(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private int hashRow(int row) {
+    int hash = 0;
+    for (int[] column : columns) {
+      hash = 31 * hash + column[row];
+    }
+    return hash(hash);
+  }
+
+  private int hashCodes(int[] codes) {
+    int hash = 0;
+    for (int code : codes) {
+      hash = 31 * hash + code;
+    }
+    return hash(hash);
+  }
+
+  private boolean rowEquals(int row, int other) {
+    for (int[] column : columns) {
+      if (column[row] != column[other]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean rowEquals(int row, int[] codes) {
+    for (int field = 0; field < codes.length; field++) {
+      if (columns[field][row] != codes[field]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return false if an equal row is in the table already
+   */
+  private boolean insertRow(int row) {
+    final int mask = table.length - 1;
+
+    for (int slot = hashRow(row) & mask;; slot = (slot + 1) & mask) {
+      if (table[slot] == 0) {
+        table[slot] = row + 1;
+        return true;
+      }
+      if (rowEquals(table[slot] - 1, row)) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * @return the row with the given codes, or -1 if there is none
+   */
+  private int findRow(int[] codes) {
+    final int mask = table.length - 1;
+
+    for (int slot = hashCodes(codes) & mask;; slot = (slot + 1) & mask) {
+      if (table[slot] == 0) {
+        return -1;
+      }
+      if (rowEquals(table[slot] - 1, codes)) {
+        return table[slot] - 1;
+      }
+    }
+  }
+
+  /**
+   * @return the rows grouped by the code of their first field: the rows with code c are
+   *         <code>order[start[c]]</code> up to <code>order[start[c + 1]]</code>; computed on first
+   *         use, and published through a volatile field since relations are shared between threads
+   */
+  private int[][] firstColumnGroups() {
+    int[][] groups = firstColumnGroups;
+    if (groups == null) {
+      final int[] start = new int[dictionaries[0].size() + 1];
+      final int[] order = new int[size];
+
+      for (int row = 0; row < size; row++) {
+        start[columns[0][row] + 1]++;
+      }
+      for (int code = 0; code < dictionaries[0].size(); code++) {
+        start[code + 1] += start[code];
+      }
+
+      final int[] next = Arrays.copyOf(start, start.length - 1);
+      for (int row = 0; row < size; row++) {
+        order[next[columns[0][row]]++] = row;
+      }
+
+      firstColumnGroups = groups = new int[][] { start, order };
+    }
+    return groups;
+  }
+
+  @Override
+  protected ITuple tuple(int row) {
+    final IValue[] fields = new IValue[columns.length];
+    for (int field = 0; field < columns.length; field++) {
+      fields[field] = dictionaries[field].valueOf(columns[field][row]);
+    }
+    return vf.tuple(fields);
+  }
+
+  /**
+   * @return the number of distinct values in the given column
+   */
+  public int distinctValues(int field) {
+    return dictionaries[field].size();
+  }
+
+  @Override
+  protected IValueFactory getValueFactory() {
+    return vf;
+  }
+
+  @Override
+  public Type getType() {
+    return type;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  protected int rowOf(IValue element) {
+    if (size == 0 || !(element instanceof ITuple) || ((ITuple) element).arity() != columns.length) {
+      return -1;
+    }
+
+    final ITuple tuple = (ITuple) element;
+    final int[] codes = new int[columns.length];
+    for (int field = 0; field < columns.length; field++) {
+      codes[field] = dictionaries[field].codeOf(tuple.get(field));
+      if (codes[field] < 0) {
+        return -1;
+      }
+    }
+
+    return findRow(codes);
+  }
+
+  @Override
+  public ISetRelation<ISet> asRelation() {
+    validateIsRelation(this);
+
+    return new DefaultRelationViewOnSet(vf, this) {
+      @Override
+      public ISet compose(ISetRelation<ISet> rel2) {
+        final ISet that = rel2.asSet();
+
+        if (columns.length == 2 && that instanceof DictionaryEncodedRelation
+            && ((DictionaryEncodedRelation) that).columns.length == 2) {
+          return composeCodes((DictionaryEncodedRelation) that);
+        }
+
+        return super.compose(rel2);
+      }
+
+      @Override
+      public ISet index(IValue key) {
+        if (size == 0) {
+          return vf.set();
+        }
+
+        final int code = dictionaries[0].codeOf(key);
+        if (code < 0) {
+          return vf.set();
+        }
+
+        final int[][] groups = firstColumnGroups();
+        final int[] rest = new int[columns.length - 1];
+        for (int i = 0; i < rest.length; i++) {
+          rest[i] = i + 1;
+        }
+
+        return projectRows(Arrays.copyOfRange(groups[1], groups[0][code], groups[0][code + 1]), rest);
+      }
+
+      @Override
+      public ISet project(int... fieldIndexes) {
+        return projectRows(null, fieldIndexes);
+      }
+
+      @Override
+      public ISet domain() {
+        return projectRows(null, 0);
+      }
+
+      @Override
+      public ISet range() {
+        return projectRows(null, columns.length - 1);
+      }
+    };
+  }
+
+  /**
+   * Joins the second column of this relation with the first column of the other one. The dictionary
+   * codes of the joined columns are translated once per distinct value, after which the join itself
+   * only compares ints.
+   */
+  private ISet composeCodes(DictionaryEncodedRelation that) {
+    final ValueDictionary middle = dictionaries[1];
+    final int[] translate = new int[middle.size()];
+    for (int code = 0; code < translate.length; code++) {
+      translate[code] = that.dictionaries[0].codeOf(middle.valueOf(code));
+    }
+
+    final int[][] groups = that.firstColumnGroups();
+    int[] left = new int[size];
+    int[] right = new int[size];
+    int rows = 0;
+
+    for (int row = 0; row < size; row++) {
+      final int code = translate[columns[1][row]];
+      if (code < 0) {
+        continue;
+      }
+
+      for (int i = groups[0][code]; i < groups[0][code + 1]; i++) {
+        if (rows == left.length) {
+          left = Arrays.copyOf(left, rows << 1);
+          right = Arrays.copyOf(right, rows << 1);
+        }
+        left[rows] = columns[0][row];
+        right[rows] = that.columns[1][groups[1][i]];
+        rows++;
+      }
+    }
+
+    return new DictionaryEncodedRelation(vf, new ValueDictionary[] { dictionaries[0], that.dictionaries[1] },
+        new int[][] { left, right }, rows, null);
+  }
+
+  /**
+   * @param rows the rows to project, or null for all rows
+   */
+  private ISet projectRows(int[] rows, int... fieldIndexes) {
+    if (size == 0) {
+      return vf.set();
+    }
+
+    final int count = rows == null ? size : rows.length;
+
+    if (fieldIndexes.length == 1) {
+      final ValueDictionary dictionary = dictionaries[fieldIndexes[0]];
+      final int[] column = columns[fieldIndexes[0]];
+      final BitSet seen = new BitSet(dictionary.size());
+      final ISetWriter w = vf.setWriter();
+
+      for (int i = 0; i < count; i++) {
+        final int code = column[rows == null ? i : rows[i]];
+        if (!seen.get(code)) {
+          seen.set(code);
+          w.insert(dictionary.valueOf(code));
+        }
+      }
+      return w.done();
+    }
+
+    final ValueDictionary[] projectedDictionaries = new ValueDictionary[fieldIndexes.length];
+    final int[][] projectedColumns = new int[fieldIndexes.length][count];
+
+    for (int field = 0; field < fieldIndexes.length; field++) {
+      projectedDictionaries[field] = dictionaries[fieldIndexes[field]];
+      for (int i = 0; i < count; i++) {
+        projectedColumns[field][i] = columns[fieldIndexes[field]][rows == null ? i : rows[i]];
+      }
+    }
+
+    return new DictionaryEncodedRelation(vf, projectedDictionaries, projectedColumns, count, null);
+  }
+}
@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.usethesource.vallang.ISet;
+import io.usethesource.vallang.ISetWriter;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.exceptions.UnexpectedElementTypeException;
+import io.usethesource.vallang.type.Type;
+
+/**
+ * A set of source locations which answers queries about the files and the ranges of its
+ * elements without scanning all of them. The locations are grouped by file, and the locations
+ * with an offset and a length in each file are kept in an interval tree, such that locations
+ * inside, overlapping or enclosing a given range are found in logarithmic time (plus the size
+ * of the answer).
+ * <br/>
+ * The index is built on the first query; all other operations are delegated to the wrapped set.
+ * The offsets of a location cover the half-open range [offset, offset + length).
+ */
+public final class IndexedSourceLocationSet extends AbstractSet {
+  private final IValueFactory vf;
+  private final ISet content;
+  private volatile Map<ISourceLocation, FileIndex> index;
+
+  private IndexedSourceLocationSet(IValueFactory vf, ISet content) {
+    this.vf = vf;
+    this.content = content;
+  }
+
+  /**
+   * Wraps a set of source locations with an index.
+   *
+   * @throws UnexpectedElementTypeException if the set contains other values than source locations
+   */
+  public static IndexedSourceLocationSet of(IValueFactory vf, ISet locations) {
+    if (locations instanceof IndexedSourceLocationSet) {
+      return (IndexedSourceLocationSet) locations;
+    }
+
+    Type locType = getTypeFactory().sourceLocationType();
+    if (!locations.getElementType().isSubtypeOf(locType)) {
+      throw new UnexpectedElementTypeException(locType, locations.getElementType());
+    }
+
+    return new IndexedSourceLocationSet(vf, locations);
+  }
+
+  /**
+   * @return all locations which point into the file of the given location
+   */
+  public ISet inFile(ISourceLocation file) {
+    FileIndex fileIndex = getIndex().get(file.top());
+    if (fileIndex == null) {
+      return empty();
+    }
+
+    ISetWriter w = vf.setWriter();
+    w.insertAll(fileIndex.whole);
+    w.insert(fileIndex.locs);
+    return wrap(w.done());
+  }
+
+  /**
+   * @return all locations which lie within the given region (including the region itself)
+   */
+  public ISet containedIn(ISourceLocation region) {
+    if (!region.hasOffsetLength()) {
+      return inFile(region);
+    }
+
+    FileIndex fileIndex = getIndex().get(region.top());
+    if (fileIndex == null) {
+      return empty();
+    }
+
+    ISetWriter w = vf.setWriter();
+    fileIndex.containedIn(region.getOffset(), region.getOffset() + region.getLength(), w);
+    return wrap(w.done());
+  }
+
+  /**
+   * @return all locations which share at least one character with the given region, and
+   * all locations without an offset which denote the whole file of the region
+   */
+  public ISet overlapping(ISourceLocation region) {
+    FileIndex fileIndex = getIndex().get(region.top());
+    if (fileIndex == null) {
+      return empty();
+    }
+
+    ISetWriter w = vf.setWriter();
+    w.insertAll(fileIndex.whole);
+
+    if (region.hasOffsetLength()) {
+      int begin = region.getOffset();
+      fileIndex.search(0, fileIndex.size(), begin + region.getLength() - 1, begin + 1, w);
+    }
+    else {
+      w.insert(fileIndex.locs);
+    }
+
+    return wrap(w.done());
+  }
+
+  /**
+   * @return all locations which enclose the given region (including the region itself)
+   */
+  public ISet enclosing(ISourceLocation region) {
+    FileIndex fileIndex = getIndex().get(region.top());
+    if (fileIndex == null) {
+      return empty();
+    }
+
+    ISetWriter w = vf.setWriter();
+    w.insertAll(fileIndex.whole);
+
+    if (region.hasOffsetLength()) {
+      int begin = region.getOffset();
+      fileIndex.search(0, fileIndex.size(), begin, begin + region.getLength(), w);
+    }
+
+    return wrap(w.done());
+  }
+
+  /**
+   * @return all locations which enclose the given offset in the file of the given location
+   */
+  public ISet enclosing(ISourceLocation file, int offset) {
+    return enclosing(vf.sourceLocation(file, offset, 0));
+  }
+
+  private Map<ISourceLocation, FileIndex> getIndex() {
+    Map<ISourceLocation, FileIndex> result = index;
+
+    if (result == null) {
+      Map<ISourceLocation, List<ISourceLocation>> byFile = new HashMap<>();
+      for (IValue elem : content) {
+        ISourceLocation loc = (ISourceLocation) elem;
+        byFile.computeIfAbsent(loc.top(), k -> new ArrayList<>()).add(loc);
+      }
+
+      result = new HashMap<>(byFile.size() * 2);
+      for (Map.Entry<ISourceLocation, List<ISourceLocation>> entry : byFile.entrySet()) {
+        result.put(entry.getKey(), new FileIndex(entry.getValue()));
+      }
+
+      index = result;
+    }
+
+    return result;
+  }
+
+  private ISet empty() {
+    return wrap(vf.set());
+  }
+
+  private ISet wrap(ISet result) {
+    if (result.getElementType().isSubtypeOf(getTypeFactory().sourceLocationType())) {
+      return new IndexedSourceLocationSet(vf, result);
+    }
+    return result;
+  }
+
+  /**
+   * The locations of a single file. Locations with offsets are sorted on their begin offset, and
+   * form an implicit balanced binary tree in which every node (the middle of a range of the arrays)
+   * knows the largest end offset in its range.
+   */
+  private static final class FileIndex {
+    private final List<ISourceLocation> whole = new ArrayList<>();
+    private final ISourceLocation[] locs;
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] maxEnds;
+
+    FileIndex(List<ISourceLocation> locations) {
+      List<ISourceLocation> ranges = new ArrayList<>(locations.size());
+      for (ISourceLocation loc : locations) {
+        if (loc.hasOffsetLength()) {
+          ranges.add(loc);
+        }
+        else {
+          whole.add(loc);
+        }
+      }
+
+      locs = ranges.toArray(new ISourceLocation[ranges.size()]);
+      Arrays.sort(locs, Comparator.comparingInt(ISourceLocation::getOffset));
+
+      begins = new int[locs.length];
+      ends = new int[locs.length];
+      for (int i = 0; i < locs.length; i++) {
+        begins[i] = locs[i].getOffset();
+        ends[i] = begins[i] + locs[i].getLength();
+      }
+
+      maxEnds = new int[locs.length];
+      computeMaxEnds(0, locs.length);
+    }
+
+    int size() {
+      return locs.length;
+    }
+
+    private int computeMaxEnds(int lo, int hi) {
+      if (lo >= hi) {
+        return Integer.MIN_VALUE;
+      }
+
+      int mid = (lo + hi) >>> 1;
+      int max = Math.max(ends[mid], Math.max(computeMaxEnds(lo, mid), computeMaxEnds(mid + 1, hi)));
+      maxEnds[mid] = max;
+      return max;
+    }
+
+    /**
+     * Collects all locations in [lo, hi) which begin at or before maxBegin and end at or after minEnd.
+     */
+    void search(int lo, int hi, int maxBegin, int minEnd, ISetWriter w) {
+      if (lo >= hi) {
+        return;
+      }
+
+      int mid = (lo + hi) >>> 1;
+      if (maxEnds[mid] < minEnd) {
+        return; // nothing in this range ends late enough
+      }
+
+      search(lo, mid, maxBegin, minEnd, w);
+
+      if (begins[mid] <= maxBegin) {
+        if (ends[mid] >= minEnd) {
+          w.insert(locs[mid]);
+        }
+        search(mid + 1, hi, maxBegin, minEnd, w);
+      }
+    }
+
+    /**
+     * Collects all locations within [begin, end).
+     */
+    void containedIn(int begin, int end, ISetWriter w) {
+      int lo = 0;
+      int hi = begins.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (begins[mid] < begin) {
+          lo = mid + 1;
+        }
+        else {
+          hi = mid;
+        }
+      }
+
+      for (int i = lo; i < begins.length && begins[i] <= end; i++) {
+        if (ends[i] <= end) {
+          w.insert(locs[i]);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected IValueFactory getValueFactory() {
+    return vf;
+  }
+
+  @Override
+  public Type getType() {
+    return content.getType();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return content.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return content.size();
+  }
+
+  @Override
+  public boolean contains(IValue element) {
+    return content.contains(element);
+  }
+
+  @Override
+  public Iterator<IValue> iterator() {
+    return content.iterator();
+  }
+
+  @Override
+  public ISet insert(IValue element) {
+    return wrap(content.insert(element));
+  }
+
+  @Override
+  public ISet delete(IValue element) {
+    return wrap(content.delete(element));
+  }
+
+  @Override
+  public ISet union(ISet that) {
+    return wrap(content.union(unwrap(that)));
+  }
+
+  @Override
+  public ISet intersect(ISet that) {
+    return wrap(content.intersect(unwrap(that)));
+  }
+
+  @Override
+  public ISet subtract(ISet that) {
+    return wrap(content.subtract(unwrap(that)));
+  }
+
+  @Override
+  public ISet product(ISet that) {
+    return content.product(unwrap(that));
+  }
+
+  @Override
+  public boolean isSubsetOf(ISet that) {
+    return content.isSubsetOf(unwrap(that));
+  }
+
+  private static ISet unwrap(ISet set) {
+    return set instanceof IndexedSourceLocationSet ? ((IndexedSourceLocationSet) set).content : set;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof ISet && content.equals(unwrap((ISet) other));
+  }
+
+  @Override
+  public boolean isEqual(IValue other) {
+    return other instanceof ISet && content.isEqual(unwrap((ISet) other));
+  }
+
+  @Override
+  public boolean match(IValue other) {
+    return other instanceof ISet && content.match(unwrap((ISet) other));
+  }
+
+  @Override
+  public int hashCode() {
+    return content.hashCode();
+  }
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+
+import io.usethesource.vallang.type.Type;
+
+/**
+ * The layout of the keyword parameters of a constructor: an ordered list of names
+ * shared by all values of the same constructor type that had the same parameters set
+ * in the same order. The values themselves live in a flat array indexed by the slots
+ * of the layout (see {@link ConstructorWithKeywordParametersFacade}).
+ * <p>
+ * Layouts form a transition tree per (uninstantiated) constructor type, rooted in the
+ * empty layout; adding a name to a layout always yields the same shared child layout.
+ * Layouts are limited to {@link #MAX_SLOTS} names, beyond which values have to keep
+ * their parameters in a map.
+ */
+final class KeywordParameterLayout {
+    static final int MAX_SLOTS = 8;
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final LoadingCache<Type, KeywordParameterLayout> ROOTS = Caffeine.newBuilder()
+            .weakKeys()
+            .build(t -> new KeywordParameterLayout(NO_NAMES));
+
+    private final String[] names;
+    private final ConcurrentMap<String, KeywordParameterLayout> transitions = new ConcurrentHashMap<>(2);
+
+    private KeywordParameterLayout(String[] names) {
+        this.names = names;
+    }
+
+    /**
+     * @return the empty layout shared by all values of the given constructor type
+     */
+    static KeywordParameterLayout of(Type constructorType) {
+        return ROOTS.get(constructorType);
+    }
+
+    /**
+     * @return the slot of the given name, or -1 if it is not part of this layout
+     */
+    int indexOf(String name) {
+        final String[] names = this.names;
+
+        for (int i = 0; i < names.length; i++) {
+            // names are nearly always the same literal, so try identity first
+            if (names[i] == name) {
+                return i;
+            }
+        }
+
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the shared layout with one more slot for the given name (which must not be
+     * part of this layout yet), or null if this layout is already full
+     */
+    KeywordParameterLayout with(String name) {
+        if (names.length == MAX_SLOTS) {
+            return null;
+        }
+
+        return transitions.computeIfAbsent(name, n -> {
+            String[] extended = new String[names.length + 1];
+            System.arraycopy(names, 0, extended, 0, names.length);
+            extended[names.length] = n;
+            return new KeywordParameterLayout(extended);
+        });
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String name(int slot) {
+        return names[slot];
+    }
+}
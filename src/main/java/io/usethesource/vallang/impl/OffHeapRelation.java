@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+import io.usethesource.vallang.IInteger;
+import io.usethesource.vallang.ISet;
+import io.usethesource.vallang.ISetRelation;
+import io.usethesource.vallang.ISetWriter;
+import io.usethesource.vallang.ITuple;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.type.Type;
+
+/**
+ * An immutable relation of which the tuples are stored outside of the Java heap, in direct byte
+ * buffers, such that a very large relation costs the garbage collector a handful of objects instead of
+ * several objects per tuple. Every field of a tuple is encoded as a <code>long</code>: integers of
+ * which the two's complement fits in {@value #SMALL_BITS} bits are stored as such, and all other values are replaced by their code in a dictionary of
+ * the distinct values of the relation (which does stay on the heap).
+ * <br/>
+ * The encoded tuples are sorted, so <code>contains</code> and <code>index</code> are binary searches,
+ * and iteration and projection only create the tuples and values which are asked for. All other
+ * operations are delegated to the value factory and produce ordinary sets. The buffers are freed when
+ * the relation is garbage collected.
+ */
+public final class OffHeapRelation extends AbstractEncodedRelation {
+  private static final int MAX_CHUNK_BYTES = 1 << 30;
+  private static final int SMALL_BITS = 56;
+
+  private final IValueFactory vf;
+  private final Type type;
+  private final int arity;
+  private final int size;
+  private final int chunkShift;
+  private final LongBuffer[] chunks;
+  private final ValueDictionary dictionary;
+
+  private OffHeapRelation(IValueFactory vf, ISet relation) {
+    this.vf = vf;
+    this.type = relation.getType();
+    this.arity = relation.isEmpty() ? 0 : relation.getElementType().getArity();
+    this.size = relation.size();
+    this.dictionary = new ValueDictionary();
+
+    // rows per chunk is a power of two, such that a chunk is at most MAX_CHUNK_BYTES large
+    final int rowBytes = Math.max(1, arity) * Long.BYTES;
+    this.chunkShift = 31 - Integer.numberOfLeadingZeros(MAX_CHUNK_BYTES / rowBytes);
+
+    final int chunkRows = 1 << chunkShift;
+    this.chunks = new LongBuffer[(size + chunkRows - 1) >>> chunkShift];
+    for (int i = 0; i < chunks.length; i++) {
+      final int rows = Math.min(chunkRows, size - (i << chunkShift));
+      chunks[i] = ByteBuffer.allocateDirect(rows * rowBytes).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    int row = 0;
+    for (IValue elem : relation) {
+      final ITuple tuple = (ITuple) elem;
+      for (int field = 0; field < arity; field++) {
+        put(row, field, intern(tuple.get(field)));
+      }
+      row++;
+    }
+
+    sort(0, size);
+  }
+
+  /**
+   * Copies a relation out of the heap.
+   *
+   * @throws io.usethesource.vallang.exceptions.IllegalOperationException if the set is not a relation
+   */
+  public static OffHeapRelation of(IValueFactory vf, ISet relation) {
+    if (relation instanceof OffHeapRelation) {
+      return (OffHeapRelation) relation;
+    }
+
+    if (!relation.isEmpty()) {
+      validateIsRelation(relation);
+    }
+
+    return new OffHeapRelation(vf, relation);
+  }
+
+  private long code(int row, int field) {
+    return chunks[row >>> chunkShift].get(((row & ((1 << chunkShift) - 1)) * arity) + field);
+  }
+
+  private void put(int row, int field, long code) {
+    chunks[row >>> chunkShift].put(((row & ((1 << chunkShift) - 1)) * arity) + field, code);
+  }
+
+  private static boolean isSmall(IValue value) {
+    // the bit length excludes the sign bit
+    return value instanceof IInteger && ((IInteger) value).bitLength() < SMALL_BITS;
+  }
+
+  private long intern(IValue value) {
+    if (isSmall(value)) {
+      return (((IInteger) value).longValue() << 1) | 1L;
+    }
+    return ((long) dictionary.intern(value)) << 1;
+  }
+
+  /**
+   * @return the code of the value, without adding it to the dictionary; see {@link #isAbsent(long)}
+   *         for values which do not occur in the relation
+   */
+  private long encode(IValue value) {
+    if (isSmall(value)) {
+      return (((IInteger) value).longValue() << 1) | 1L;
+    }
+    return ((long) dictionary.codeOf(value)) << 1;
+  }
+
+  private static boolean isAbsent(long code) {
+    return code < 0 && (code & 1L) == 0;
+  }
+
+  private IValue decode(long code) {
+    if ((code & 1L) != 0) {
+      return vf.integer(code >> 1);
+    }
+    return dictionary.valueOf((int) (code >>> 1));
+  }
+
+  @Override
+  protected ITuple tuple(int row) {
+    final IValue[] fields = new IValue[arity];
+    for (int field = 0; field < arity; field++) {
+      fields[field] = decode(code(row, field));
+    }
+    return vf.tuple(fields);
+  }
+
+  private int compareRows(int a, int b) {
+    for (int field = 0; field < arity; field++) {
+      final int result = Long.compare(code(a, field), code(b, field));
+      if (result != 0) {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+  private int compareRow(int row, long[] codes, int fields) {
+    for (int field = 0; field < fields; field++) {
+      final int result = Long.compare(code(row, field), codes[field]);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+  private void swap(int a, int b) {
+    for (int field = 0; field < arity; field++) {
+      final long tmp = code(a, field);
+      put(a, field, code(b, field));
+      put(b, field, tmp);
+    }
+  }
+
+  /**
+   * Sorts the rows in [from, to) in place: a quicksort with a median of three pivot, which recurses
+   * into the smaller part only, and an insertion sort for short ranges.
+   */
+  private void sort(int from, int to) {
+    while (to - from > 16) {
+      final int mid = (from + to) >>> 1;
+      if (compareRows(mid, from) < 0) {
+        swap(mid, from);
+      }
+      if (compareRows(to - 1, from) < 0) {
+        swap(to - 1, from);
+      }
+      if (compareRows(to - 1, mid) < 0) {
+        swap(to - 1, mid);
+      }
+      // the pivot is moved to the end of the range
+      swap(mid, to - 1);
+
+      int store = from;
+      for (int i = from; i < to - 1; i++) {
+        if (compareRows(i, to - 1) < 0) {
+          swap(i, store++);
+        }
+      }
+      swap(store, to - 1);
+
+      if (store - from < to - store - 1) {
+        sort(from, store);
+        from = store + 1;
+      } else {
+        sort(store + 1, to);
+        to = store;
+      }
+    }
+
+    for (int i = from + 1; i < to; i++) {
+      for (int j = i; j > from && compareRows(j, j - 1) < 0; j--) {
+        swap(j, j - 1);
+      }
+    }
+  }
+
+  /**
+   * @return the first row of which the first fields are not less than the given codes
+   */
+  private int lowerBound(long[] codes, int fields) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (compareRow(mid, codes, fields) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the first row of which the first fields are greater than the given codes
+   */
+  private int upperBound(long[] codes, int fields) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (compareRow(mid, codes, fields) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the number of distinct values other than small integers in the relation
+   */
+  public int dictionarySize() {
+    return dictionary.size();
+  }
+
+  @Override
+  protected IValueFactory getValueFactory() {
+    return vf;
+  }
+
+  @Override
+  public Type getType() {
+    return type;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  protected int rowOf(IValue element) {
+    if (size == 0 || !(element instanceof ITuple) || ((ITuple) element).arity() != arity) {
+      return -1;
+    }
+
+    final ITuple tuple = (ITuple) element;
+    final long[] codes = new long[arity];
+    for (int field = 0; field < arity; field++) {
+      codes[field] = encode(tuple.get(field));
+      if (isAbsent(codes[field])) {
+        return -1;
+      }
+    }
+
+    final int row = lowerBound(codes, arity);
+    return row < size && compareRow(row, codes, arity) == 0 ? row : -1;
+  }
+
+  @Override
+  public ISetRelation<ISet> asRelation() {
+    validateIsRelation(this);
+
+    return new DefaultRelationViewOnSet(vf, this) {
+      @Override
+      public ISet index(IValue key) {
+        final long code = encode(key);
+        if (isAbsent(code)) {
+          return vf.set();
+        }
+
+        final long[] codes = new long[] { code };
+        final int from = lowerBound(codes, 1);
+        final int to = upperBound(codes, 1);
+
+        final int[] rest = new int[arity - 1];
+        for (int i = 0; i < rest.length; i++) {
+          rest[i] = i + 1;
+        }
+        return projectRows(from, to, rest);
+      }
+
+      @Override
+      public ISet project(int... fieldIndexes) {
+        return projectRows(0, size, fieldIndexes);
+      }
+
+      @Override
+      public ISet domain() {
+        return projectRows(0, size, 0);
+      }
+
+      @Override
+      public ISet range() {
+        return projectRows(0, size, arity - 1);
+      }
+    };
+  }
+
+  private ISet projectRows(int from, int to, int... fieldIndexes) {
+    final ISetWriter w = vf.setWriter();
+
+    for (int row = from; row < to; row++) {
+      if (fieldIndexes.length == 1) {
+        w.insert(decode(code(row, fieldIndexes[0])));
+      } else {
+        final IValue[] fields = new IValue[fieldIndexes.length];
+        for (int i = 0; i < fieldIndexes.length; i++) {
+          fields[i] = decode(code(row, fieldIndexes[i]));
+        }
+        w.insert(vf.tuple(fields));
+      }
+    }
+
+    return w.done();
+  }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.usethesource.capsule.Map;
+import io.usethesource.capsule.util.EqualityComparator;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.util.EqualityUtils;
+
+/**
+ * Numbers the distinct (in the sense of {@link IValue#isEqual(IValue)}) values stored in a
+ * compactly encoded collection, such that the collection can store and compare int codes instead of
+ * references. Codes are handed out consecutively from 0, in the order in which the values are added.
+ * <br/>
+ * A dictionary is filled while its collection is built and only read afterwards.
+ */
+/*package*/ final class ValueDictionary {
+  private static final EqualityComparator<Object> EQUIVALENCE = EqualityUtils.getEquivalenceComparator();
+
+  private final List<IValue> values = new ArrayList<>();
+  private final Map.Transient<IValue, Integer> codes = Map.Transient.of();
+
+  /**
+   * @return the code of the value, which is added to the dictionary if it is new
+   */
+  public int intern(IValue value) {
+    Integer code = codes.getEquivalent(value, EQUIVALENCE);
+
+    if (code == null) {
+      code = values.size();
+      values.add(value);
+      codes.__putEquivalent(value, code, EQUIVALENCE);
+    }
+
+    return code;
+  }
+
+  /**
+   * @return the code of the value, or -1 if it is not in the dictionary
+   */
+  public int codeOf(IValue value) {
+    Integer code = codes.getEquivalent(value, EQUIVALENCE);
+    return code == null ? -1 : code;
+  }
+
+  public IValue valueOf(int code) {
+    return values.get(code);
+  }
+
+  public int size() {
+    return values.size();
+  }
+}
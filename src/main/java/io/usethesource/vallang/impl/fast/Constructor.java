@@ -16,13 +16,16 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Function;
 
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 
 import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IConstructorFactory;
 import io.usethesource.vallang.IList;
 import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
 import io.usethesource.vallang.IWithKeywordParameters;
 import io.usethesource.vallang.exceptions.FactTypeUseException;
 import io.usethesource.vallang.impl.AbstractDefaultAnnotatable;
@@ -164,6 +167,11 @@ import io.usethesource.capsule.util.collection.AbstractSpecialisedImmutableMap;
 	          return new ConstructorWithKeywordParametersFacade(content, parameters);
 	        }
 
+	        @Override
+	        public IConstructor setParameter(String label, IValue newValue) {
+	            return ConstructorWithKeywordParametersFacade.withParameter(content, label, newValue);
+	        }
+
 	        @Override
 	        public boolean hasParameters() {
 	            return false;
@@ -870,6 +878,46 @@ import io.usethesource.capsule.util.collection.AbstractSpecialisedImmutableMap;
 	    }
 	}
 
+	/*package*/ static IConstructorFactory newFactory(IValueFactory vf, Type constructorType, boolean trusted) {
+	    return new Factory(vf, constructorType, trusted);
+	}
+	
+	/**
+	 * Selects the specialized class for the arity of the constructor once, instead of for every new value.
+	 */
+	private static final class Factory extends IConstructorFactory.Default {
+	    private final Function<IValue[], IConstructor> maker;
+	    
+	    public Factory(IValueFactory vf, Type constructorType, boolean trusted) {
+	        super(vf, constructorType, trusted);
+	        
+	        if (constructorType.isParameterized()) {
+	            maker = trusted ? c -> new TypeParameterizedConstructorN(constructorType, c) : c -> new TypeParameterizedConstructorN(constructorType, c.clone());
+	            return;
+	        }
+	        
+	        switch (constructorType.getArity()) {
+	            case 0: 
+	                IConstructor singleton = EMPTY_CONSTRUCTOR_SINGLETONS.get(constructorType);
+	                maker = c -> singleton;
+	                break;
+	            case 1: maker = c -> new Constructor1(constructorType, c[0]); break;
+	            case 2: maker = c -> new Constructor2(constructorType, c[0], c[1]); break;
+	            case 3: maker = c -> new Constructor3(constructorType, c[0], c[1], c[2]); break;
+	            case 4: maker = c -> new Constructor4(constructorType, c[0], c[1], c[2], c[3]); break;
+	            case 5: maker = c -> new Constructor5(constructorType, c[0], c[1], c[2], c[3], c[4]); break;
+	            case 6: maker = c -> new Constructor6(constructorType, c[0], c[1], c[2], c[3], c[4], c[5]); break;
+	            case 7: maker = c -> new Constructor7(constructorType, c[0], c[1], c[2], c[3], c[4], c[5], c[6]); break;
+	            default: maker = trusted ? c -> new ConstructorN(constructorType, c) : c -> new ConstructorN(constructorType, c.clone());
+	        }
+	    }
+	    
+	    @Override
+	    protected IConstructor build(IValue[] children) {
+	        return maker.apply(children);
+	    }
+	}
+
 	/*package*/ static IConstructor newConstructor(Type constructorType, IValue[] children, Map<String,IValue> kwParams) {
 	  IConstructor r = newConstructor(constructorType, children);
 
@@ -46,6 +46,9 @@ import io.usethesource.vallang.impl.func.ListFunctions;
 
 	protected int hashCode = 0;
 
+	private static final int MIN_INDEXED_LENGTH = 32;
+	private PositionIndex positions = null;
+
 	/*package*/ static IList newList(Type elementType, ShareableValuesList data) {
 		return new List(elementType, data);
 	}
@@ -93,7 +96,47 @@ import io.usethesource.vallang.impl.func.ListFunctions;
 	}
 	
 	public boolean contains(IValue element){
-		return data.contains(element);
+		PositionIndex index = positionIndex();
+		return index != null ? index.contains(element) : data.contains(element);
+	}
+
+	@Override
+	public int indexOf(IValue element){
+		PositionIndex index = positionIndex();
+		return index != null ? index.indexOf(element) : IList.super.indexOf(element);
+	}
+
+	@Override
+	public int lastIndexOf(IValue element){
+		PositionIndex index = positionIndex();
+		return index != null ? index.lastIndexOf(element) : IList.super.lastIndexOf(element);
+	}
+
+	@Override
+	public int occurrences(IValue element){
+		PositionIndex index = positionIndex();
+		return index != null ? index.occurrences(element) : IList.super.occurrences(element);
+	}
+
+	/**
+	 * Lookups in long lists are answered by an index, which is built by the second lookup
+	 * such that lists which are searched only once do not pay for it.
+	 * 
+	 * @return the index, or null if the list should be searched linearly
+	 */
+	private PositionIndex positionIndex(){
+		if (data.size() < MIN_INDEXED_LENGTH) return null;
+		
+		PositionIndex index = positions;
+		if (index == null) {
+			positions = PositionIndex.PENDING;
+			return null;
+		}
+		if (index == PositionIndex.PENDING) {
+			index = new PositionIndex(data);
+			positions = index;
+		}
+		return index;
 	}
 
 	public Iterator<IValue> iterator(){
@@ -363,38 +406,11 @@ import io.usethesource.vallang.impl.func.ListFunctions;
 	}
 
 	public IList intersect(IList other) {
-		IListWriter w = ValueFactory.getInstance().listWriter();
-
-		if(other instanceof List){
-			List o = (List) other;
-
-			for(IValue v : data){
-				if(o.data.contains(v)){
-					w.append(v);
-				}
-			}
-
-			return w.done();
-		}
-		IList o = (IList) other;
-
-		for(IValue v : data){
-			if(o.contains(v)){
-				w.append(v);
-			}
-		}
-		return w.done();
+		return ListFunctions.intersect(ValueFactory.getInstance(), this, other);
 	}
 	
 	public IList subtract(IList lst) {
-		IListWriter w = ValueFactory.getInstance().listWriter();
-		for (IValue v: this.data) {
-			if (lst.contains(v)) {
-				lst = lst.delete(v);
-			} else
-				w.append(v);
-		}
-		return w.done();
+		return ListFunctions.subtract(ValueFactory.getInstance(), this, lst);
 	}
 
 	public boolean isSubListOf(IList lst) {
@@ -710,16 +726,7 @@ class SubList extends AbstractValue implements IList {
 
 	@Override
 	public IList subtract(IList lst) {
-		IListWriter w = ValueFactory.getInstance().listWriter();
-		int end = offset + length;
-		for(int i = offset; i < end; i++){
-			IValue v = base.get(i);
-			if (lst.contains(v)) {
-				lst = lst.delete(v);
-			} else
-				w.append(v);
-		}
-		return w.done();
+		return ListFunctions.subtract(ValueFactory.getInstance(), this, lst);
 	}
 }
 
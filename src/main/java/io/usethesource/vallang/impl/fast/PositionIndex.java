@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl.fast;
+
+import io.usethesource.capsule.Map;
+import io.usethesource.capsule.util.EqualityComparator;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.impl.util.collections.ShareableValuesList;
+import io.usethesource.vallang.util.EqualityUtils;
+
+/**
+ * Maps the (isEqual-distinct) elements of an immutable list to their first and last position and their
+ * number of occurrences, such that membership tests and position lookups take constant time.
+ *
+ * @see List#contains(IValue)
+ */
+/*package*/ final class PositionIndex {
+	private static final EqualityComparator<Object> EQUIVALENCE = EqualityUtils.getEquivalenceComparator();
+
+	private static final int FIRST = 0;
+	private static final int LAST = 1;
+	private static final int COUNT = 2;
+
+	/**
+	 * Marks a list which has been searched once, but is not indexed yet.
+	 */
+	/*package*/ static final PositionIndex PENDING = new PositionIndex(new ShareableValuesList());
+
+	private final Map.Immutable<IValue, int[]> positions;
+
+	/*package*/ PositionIndex(ShareableValuesList data) {
+		Map.Transient<IValue, int[]> tmp = Map.Transient.of();
+
+		for (int i = 0; i < data.size(); i++) {
+			IValue elem = data.get(i);
+			int[] entry = tmp.getEquivalent(elem, EQUIVALENCE);
+
+			if (entry == null) {
+				tmp.__putEquivalent(elem, new int[] { i, i, 1 }, EQUIVALENCE);
+			}
+			else {
+				entry[LAST] = i;
+				entry[COUNT]++;
+			}
+		}
+
+		this.positions = tmp.freeze();
+	}
+
+	public boolean contains(IValue elem) {
+		return positions.getEquivalent(elem, EQUIVALENCE) != null;
+	}
+
+	public int indexOf(IValue elem) {
+		int[] entry = positions.getEquivalent(elem, EQUIVALENCE);
+		return entry == null ? -1 : entry[FIRST];
+	}
+
+	public int lastIndexOf(IValue elem) {
+		int[] entry = positions.getEquivalent(elem, EQUIVALENCE);
+		return entry == null ? -1 : entry[LAST];
+	}
+
+	public int occurrences(IValue elem) {
+		int[] entry = positions.getEquivalent(elem, EQUIVALENCE);
+		return entry == null ? 0 : entry[COUNT];
+	}
+}
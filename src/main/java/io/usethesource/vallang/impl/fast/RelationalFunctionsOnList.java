@@ -12,7 +12,6 @@
 package io.usethesource.vallang.impl.fast;
 
 import java.util.HashSet;
-import java.util.function.Function;
 
 import io.usethesource.vallang.IList;
 import io.usethesource.vallang.ITuple;
@@ -21,8 +20,14 @@ import io.usethesource.vallang.IValueFactory;
 import io.usethesource.vallang.exceptions.IllegalOperationException;
 import io.usethesource.vallang.type.TypeFactory;
 import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.impl.func.FirstColumnIndex;
+import io.usethesource.vallang.impl.func.ListFunctions;
 import io.usethesource.vallang.impl.util.collections.ShareableValuesHashSet;
 import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.util.EqualityUtils;
+
+import io.usethesource.capsule.Map;
+import io.usethesource.capsule.util.EqualityComparator;
 
 public class RelationalFunctionsOnList {
 		
@@ -101,14 +106,16 @@ public class RelationalFunctionsOnList {
 		Type tupleType = typeFactory.tupleType(newTupleFieldTypes);
 
 		IListWriter w = new ListWriter(tupleType);
+		EqualityComparator<Object> equivalence = EqualityUtils.getEquivalenceComparator();
+		Map.Transient<IValue, java.util.List<IValue>> index = ListFunctions.indexOnFirstField(rel2);
 
 		for (IValue v1 : rel1) {
 			ITuple tuple1 = (ITuple) v1;
-			for (IValue t2 : rel2) {
-				ITuple tuple2 = (ITuple) t2;
-				
-				if (tuple1.get(1).isEqual(tuple2.get(0))) {
-						w.append(Tuple.newTuple(tuple1.get(0), tuple2.get(1)));
+			java.util.List<IValue> matches = index.getEquivalent(tuple1.get(1), equivalence);
+			
+			if (matches != null) {
+				for (IValue right : matches) {
+					w.append(Tuple.newTuple(tuple1.get(0), right));
 				}
 			}
 		}
@@ -121,21 +128,22 @@ public class RelationalFunctionsOnList {
 
 		int prevCount = 0;
 
-		ShareableValuesHashSet addedTuples = new ShareableValuesHashSet();
+		// all tuples in tmp, such that new tuples are recognized without scanning tmp
+		ShareableValuesHashSet knownTuples = new ShareableValuesHashSet();
+		for (IValue t : tmp) {
+			knownTuples.add(t);
+		}
+		
 		while (prevCount != tmp.length()) {
 			prevCount = tmp.length();
 			IList tcomp = compose(tmp, tmp);
 			IListWriter w = List.createListWriter(resultType.getElementType());
 			for(IValue t1 : tcomp){
-				if(!tmp.contains(t1)){
-					if(!addedTuples.contains(t1)){
-						addedTuples.add(t1);
-						w.append(t1);
-					}
+				if(knownTuples.add(t1)){
+					w.append(t1);
 				}
 			}
 			tmp = tmp.concat(w.done());
-			addedTuples.clear();
 		}
 		return tmp;
 	}
@@ -179,26 +187,8 @@ public class RelationalFunctionsOnList {
 	}
 	
     public static IList index(IList list1, IValue key) {
-        int valueArity = list1.getElementType().getArity() - 1;
-        Function<ITuple, IValue> mapper;
-        if (valueArity == 0) {
-            mapper = t -> t.get(1);
-        }
-        else {
-            int[] newTupleIndex = new int[valueArity];
-            for (int k = 1; k <= valueArity; k++) {
-                newTupleIndex[k - 1] =  k;
-            }
-            mapper = t -> t.select(newTupleIndex);
-        }
-        
         IListWriter result = List.createListWriter();
-        for (IValue r : list1) {
-            ITuple tup = (ITuple)r;
-            if (tup.get(0).isEqual(key)) {
-                result.append(mapper.apply(tup));
-            }
-        }
+        result.appendAll(FirstColumnIndex.lookup(list1, key));
         return result.done();
     }
 	
@@ -223,6 +223,9 @@ import io.usethesource.vallang.visitors.IValueVisitor;
 			}
 			return data.equals(otherSet.data);
 		}
+		else if (o instanceof ISet) {
+			return SetFunctions.equals(ValueFactory.getInstance(), this, o);
+		}
 		
 		return false;
 	}
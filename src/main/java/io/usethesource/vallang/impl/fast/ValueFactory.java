@@ -17,6 +17,7 @@ package io.usethesource.vallang.impl.fast;
 import java.util.Map;
 
 import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IConstructorFactory;
 import io.usethesource.vallang.IList;
 import io.usethesource.vallang.IListWriter;
 import io.usethesource.vallang.IMap;
@@ -186,6 +187,11 @@ public class ValueFactory extends AbstractPrimitiveValueFactory implements IValu
     return Constructor.newConstructor(constructorType, children.clone(), kwParams);
   }
 	
+	@Override
+	public IConstructorFactory constructorFactory(Type constructorType, boolean trusted) {
+		return Constructor.newFactory(this, constructorType, trusted);
+	}
+	
 	@Override
 	public IConstructor constructor(Type constructorType,
 			Map<String, IValue> annotations, IValue... children)
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl.func;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.usethesource.capsule.Map;
+import io.usethesource.capsule.util.EqualityComparator;
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.ISet;
+import io.usethesource.vallang.ITuple;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.util.EqualityUtils;
+
+/**
+ * Maps the values in the first column of a list or set relation to the rest of their tuples, such that
+ * repeated calls of <code>index(key)</code> on the same relation take time in the size of their result
+ * instead of the size of the relation.
+ * <br/>
+ * Relations are immutable, so an index never has to be invalidated. It is attached to its relation
+ * (by identity) in a weak cache, and is built by the second lookup in a relation with at least
+ * {@value #MIN_INDEXED_SIZE} tuples, such that relations which are looked up only once do not pay for
+ * it; smaller relations are simply scanned.
+ */
+public final class FirstColumnIndex {
+    private static final int MIN_INDEXED_SIZE = 16;
+    private static final Cache<IValue, FirstColumnIndex> INDEXES = Caffeine.newBuilder().weakKeys().build();
+    private static final EqualityComparator<Object> EQUIVALENCE = EqualityUtils.getEquivalenceComparator();
+
+    /**
+     * Marks a relation which has been looked up once, but is not indexed yet.
+     */
+    private static final FirstColumnIndex PENDING = new FirstColumnIndex(Collections.emptyList(), t -> t);
+
+    private final Map.Immutable<IValue, List<IValue>> index;
+
+    private FirstColumnIndex(Iterable<IValue> relation, Function<ITuple, IValue> rest) {
+        Map.Transient<IValue, List<IValue>> tmp = Map.Transient.of();
+
+        for (IValue v : relation) {
+            ITuple tuple = (ITuple) v;
+            List<IValue> values = tmp.getEquivalent(tuple.get(0), EQUIVALENCE);
+
+            if (values == null) {
+                values = new ArrayList<>(1);
+                tmp.__putEquivalent(tuple.get(0), values, EQUIVALENCE);
+            }
+
+            values.add(rest.apply(tuple));
+        }
+
+        this.index = tmp.freeze();
+    }
+
+    /**
+     * @return the rest of the tuples of a list relation which have the key in their first column, in the order of the list
+     */
+    public static Iterable<IValue> lookup(IList relation, IValue key) {
+        return lookup(relation, relation.length(), relation.getElementType().getArity(), key);
+    }
+
+    /**
+     * @return the rest of the tuples of a set relation which have the key in their first column
+     */
+    public static Iterable<IValue> lookup(ISet relation, IValue key) {
+        return lookup(relation, relation.size(), relation.getElementType().getArity(), key);
+    }
+
+    private static <R extends IValue & Iterable<IValue>> Iterable<IValue> lookup(R relation, int size, int arity, IValue key) {
+        Function<ITuple, IValue> rest = rest(arity);
+
+        if (size < MIN_INDEXED_SIZE) {
+            return scan(relation, rest, key);
+        }
+
+        FirstColumnIndex index = INDEXES.getIfPresent(relation);
+        if (index == null) {
+            INDEXES.put(relation, PENDING);
+            return scan(relation, rest, key);
+        }
+        if (index == PENDING) {
+            index = new FirstColumnIndex(relation, rest);
+            INDEXES.put(relation, index);
+        }
+
+        List<IValue> result = index.index.getEquivalent(key, EQUIVALENCE);
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    private static List<IValue> scan(Iterable<IValue> relation, Function<ITuple, IValue> rest, IValue key) {
+        List<IValue> result = new ArrayList<>();
+        for (IValue v : relation) {
+            ITuple tuple = (ITuple) v;
+            if (tuple.get(0).isEqual(key)) {
+                result.add(rest.apply(tuple));
+            }
+        }
+        return result;
+    }
+
+    private static Function<ITuple, IValue> rest(int arity) {
+        int valueArity = arity - 1;
+
+        if (valueArity == 1) {
+            return t -> t.get(1);
+        }
+
+        int[] newTupleIndex = new int[valueArity];
+        for (int k = 1; k <= valueArity; k++) {
+            newTupleIndex[k - 1] = k;
+        }
+        return t -> t.select(newTupleIndex);
+    }
+}
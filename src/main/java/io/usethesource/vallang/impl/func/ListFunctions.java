@@ -17,9 +17,10 @@
  *******************************************************************************/
 package io.usethesource.vallang.impl.func;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
-import java.util.function.Function;
 
 import io.usethesource.vallang.IList;
 import io.usethesource.vallang.IListWriter;
@@ -31,6 +32,10 @@ import io.usethesource.vallang.exceptions.IllegalOperationException;
 import io.usethesource.vallang.impl.util.collections.ShareableValuesHashSet;
 import io.usethesource.vallang.type.Type;
 import io.usethesource.vallang.type.TypeFactory;
+import io.usethesource.vallang.util.EqualityUtils;
+
+import io.usethesource.capsule.Map;
+import io.usethesource.capsule.util.EqualityComparator;
 
 public final class ListFunctions {
 
@@ -361,9 +366,14 @@ public final class ListFunctions {
 
 	public static IList intersect(IValueFactory vf, IList list1, IList list2) {
 		IListWriter w = vf.listWriter();
+		ShareableValuesHashSet elements = new ShareableValuesHashSet();
+		
+		for (IValue v : list2) {
+			elements.add(v);
+		}
 
 		for (IValue v : list1) {
-			if (list2.contains(v)) {
+			if (elements.contains(v)) {
 				w.append(v);
 			}
 		}
@@ -371,11 +381,28 @@ public final class ListFunctions {
 		return w.done();
 	}
 
+	/**
+	 * Removes every element of list2 from list1 once, from left to right: each occurrence in list2 
+	 * cancels the first remaining occurrence in list1.
+	 */
 	public static IList subtract(IValueFactory vf, IList list1, IList list2) {
 		IListWriter w = vf.listWriter();
+		EqualityComparator<Object> equivalence = EqualityUtils.getEquivalenceComparator();
+		Map.Transient<IValue, int[]> occurrences = Map.Transient.of();
+		
+		for (IValue v : list2) {
+			int[] count = occurrences.getEquivalent(v, equivalence);
+			if (count == null) {
+				occurrences.__putEquivalent(v, new int[] { 1 }, equivalence);
+			} else {
+				count[0]++;
+			}
+		}
+		
 		for (IValue v : list1) {
-			if (list2.contains(v)) {
-				list2 = list2.delete(v);
+			int[] count = occurrences.getEquivalent(v, equivalence);
+			if (count != null && count[0] > 0) {
+				count[0]--;
 			} else
 				w.append(v);
 		}
@@ -383,14 +410,12 @@ public final class ListFunctions {
 	}
 
 	public static boolean isSubListOf(IValueFactory vf, IList list1, IList list2) {
-		int j = 0;
+		Iterator<IValue> candidates = list2.iterator();
 		nextValue: for (IValue elm : list1) {
-			while (j < list2.length()) {
-				if (elm.isEqual(list2.get(j))) {
-					j++;
+			while (candidates.hasNext()) {
+				if (elm.isEqual(candidates.next())) {
 					continue nextValue;
-				} else
-					j++;
+				}
 			}
 			return false;
 		}
@@ -405,21 +430,22 @@ public final class ListFunctions {
 
 		int prevCount = 0;
 
-		ShareableValuesHashSet addedTuples = new ShareableValuesHashSet();
+		// all tuples in tmp, such that new tuples are recognized without scanning tmp
+		ShareableValuesHashSet knownTuples = new ShareableValuesHashSet();
+		for (IValue t : tmp) {
+			knownTuples.add(t);
+		}
+		
 		while (prevCount != tmp.length()) {
 			prevCount = tmp.length();
 			IList tcomp = compose(vf, tmp, tmp);
 			IListWriter w = vf.listWriter();
 			for (IValue t1 : tcomp) {
-				if (!tmp.contains(t1)) {
-					if (!addedTuples.contains(t1)) {
-						addedTuples.add(t1);
-						w.append(t1);
-					}
+				if (knownTuples.add(t1)) {
+					w.append(t1);
 				}
 			}
 			tmp = tmp.concat(w.done());
-			addedTuples.clear();
 		}
 		return tmp;
 	}
@@ -458,19 +484,44 @@ public final class ListFunctions {
 					list1.getElementType(), otherTupleType);
 
 		IListWriter w = vf.listWriter();
+		EqualityComparator<Object> equivalence = EqualityUtils.getEquivalenceComparator();
+		Map.Transient<IValue, List<IValue>> index = indexOnFirstField(list2);
 
 		for (IValue v1 : list1) {
 			ITuple tuple1 = (ITuple) v1;
-			for (IValue t2 : list2) {
-				ITuple tuple2 = (ITuple) t2;
-
-				if (tuple1.get(1).isEqual(tuple2.get(0))) {
-					w.append(vf.tuple(tuple1.get(0), tuple2.get(1)));
+			List<IValue> matches = index.getEquivalent(tuple1.get(1), equivalence);
+			
+			if (matches != null) {
+				for (IValue right : matches) {
+					w.append(vf.tuple(tuple1.get(0), right));
 				}
 			}
 		}
 		return w.done();
 	}
+	
+	/**
+	 * @return a map from the first field of the tuples of a binary relation to their second 
+	 * fields, in the order of the relation
+	 */
+	public static Map.Transient<IValue, List<IValue>> indexOnFirstField(IList rel) {
+		EqualityComparator<Object> equivalence = EqualityUtils.getEquivalenceComparator();
+		Map.Transient<IValue, List<IValue>> index = Map.Transient.of();
+		
+		for (IValue v : rel) {
+			ITuple tuple = (ITuple) v;
+			List<IValue> values = index.getEquivalent(tuple.get(0), equivalence);
+			
+			if (values == null) {
+				values = new ArrayList<>(1);
+				index.__putEquivalent(tuple.get(0), values, equivalence);
+			}
+			
+			values.add(tuple.get(1));
+		}
+		
+		return index;
+	}
 
 	public static IList carrier(IValueFactory vf, IList rel1) {
 		IListWriter w = vf.listWriter();
@@ -550,26 +601,8 @@ public final class ListFunctions {
 	}
 
     public static IList index(IValueFactory vf, IList list1, IValue key) {
-        int valueArity = list1.getElementType().getArity() - 1;
-        Function<ITuple, IValue> mapper;
-        if (valueArity == 0) {
-            mapper = t -> t.get(1);
-        }
-        else {
-            int[] newTupleIndex = new int[valueArity];
-            for (int k = 1; k <= valueArity; k++) {
-                newTupleIndex[k - 1] =  k;
-            }
-            mapper = t -> t.select(newTupleIndex);
-        }
-        
         IListWriter result = vf.listWriter();
-        for (IValue r : list1) {
-            ITuple tup = (ITuple)r;
-            if (tup.get(0).isEqual(key)) {
-                result.append(mapper.apply(tup));
-            }
-        }
+        result.appendAll(FirstColumnIndex.lookup(list1, key));
         return result.done();
     }
 
@@ -18,7 +18,6 @@
 package io.usethesource.vallang.impl.func;
 
 import java.util.Iterator;
-import java.util.function.Function;
 
 import io.usethesource.vallang.ISet;
 import io.usethesource.vallang.ISetWriter;
@@ -576,27 +575,8 @@ public final class SetFunctions {
             return vf.setWriter().done();
         }
         
-        int valueArity = elementType.getArity() - 1;
-
-        Function<ITuple, IValue> mapper;
-        if (valueArity == 0) {
-            mapper = t -> t.get(1);
-        }
-        else {
-            int[] newTupleIndex = new int[valueArity];
-            for (int k = 1; k <= valueArity; k++) {
-                newTupleIndex[k - 1] =  k;
-            }
-            mapper = t -> t.select(newTupleIndex);
-        }
-        
         ISetWriter result = vf.setWriter();
-        for (IValue r : set1) {
-            ITuple tup = (ITuple)r;
-            if (tup.get(0).isEqual(key)) {
-                result.insert(mapper.apply(tup));
-            }
-        }
+        result.insertAll(FirstColumnIndex.lookup(set1, key));
         return result.done();
     }
 
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl.persistent;
+
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * A bloom filter over the hash codes of the elements (or keys) of a large immutable collection, which
+ * rejects most absent values without walking the trie of the collection. It is built lazily, and only
+ * for collections with at least {@value #MIN_FILTERED_SIZE} elements on which a number of lookups
+ * proportional to their size has been done already, such that the cost of building it is amortized
+ * over the lookups; collections which are only looked up a few times before being updated never
+ * get one. A collection holds a single reference to its filter state, which {@link #track} updates
+ * on every lookup: a filter which is not built yet and only counts the lookups, and then the built
+ * one. Smaller collections keep a null state, so their lookups do not write to shared memory.
+ * <br/>
+ * The filter uses at least {@value #BITS_PER_ELEMENT} bits per element (rounded up to a power of two)
+ * and {@value #HASHES} hash functions, for a false positive rate of about 3.1% at most.
+ */
+/*package*/ final class BloomFilter {
+  /*package*/ static final int MIN_FILTERED_SIZE = 1 << 14;
+
+  private static final int BITS_PER_ELEMENT = 8;
+  private static final int HASHES = 3;
+
+  private final long[] bits;
+  private final int mask;
+  private int lookups;
+
+  private BloomFilter() {
+    this.bits = null;
+    this.mask = 0;
+  }
+
+  /*package*/ BloomFilter(int size, Iterator<?> elements) {
+    final long wanted = Math.max(64L, (long) size * BITS_PER_ELEMENT);
+    final int bitCount = (int) Math.min(1L << 30, Long.highestOneBit(wanted - 1) << 1);
+    this.bits = new long[bitCount >>> 6];
+    this.mask = bitCount - 1;
+
+    while (elements.hasNext()) {
+      final int hash = mix(elements.next().hashCode());
+      final int step = (hash >>> 16) | (hash << 16) | 1;
+
+      for (int i = 0, h = hash; i < HASHES; i++, h += step) {
+        bits[(h & mask) >>> 6] |= 1L << h;
+      }
+    }
+  }
+
+  /**
+   * Counts a lookup on a collection, and builds its filter once that is worthwhile. The count is not
+   * synchronized, since a lost update only delays building the filter.
+   *
+   * @param current the filter state of the collection, null at first
+   * @param size the number of elements (or keys) of the collection
+   * @param elements the iterator of the elements (or keys), only called to build the filter
+   * @return the filter state to keep for the collection, of which {@link #mightContain(Object)}
+   *         answers the lookup; null for collections which are too small to get a filter
+   */
+  /*package*/ static <C> BloomFilter track(BloomFilter current, int size, C collection,
+      Function<C, Iterator<?>> elements) {
+    if (size < MIN_FILTERED_SIZE) {
+      return null;
+    }
+    if (current == null) {
+      current = new BloomFilter();
+    }
+    if (current.bits == null && ++current.lookups >= (size >>> 2)) {
+      return new BloomFilter(size, elements.apply(collection));
+    }
+    return current;
+  }
+
+  /**
+   * @return false if the value is certainly not in the collection; always true if the filter is not
+   *         built yet
+   */
+  /*package*/ boolean mightContain(Object value) {
+    if (bits == null) {
+      return true;
+    }
+
+    final int hash = mix(value.hashCode());
+    final int step = (hash >>> 16) | (hash << 16) | 1;
+
+    for (int i = 0, h = hash; i < HASHES; i++, h += step) {
+      if ((bits[(h & mask) >>> 6] & (1L << h)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int mix(int hash) {
+    // finalizer of MurmurHash3, to spread hash codes which differ in a few bits only
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+}
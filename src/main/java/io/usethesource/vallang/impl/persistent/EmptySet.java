@@ -105,17 +105,17 @@ public final class EmptySet extends AbstractSet {
 
   @Override
   public boolean equals(Object other) {
-    return other == this;
+    return other == this || (other instanceof ISet && ((ISet) other).isEmpty());
   }
 
   @Override
   public boolean isEqual(IValue other) {
-    return other == this;
+    return equals(other);
   }
   
   @Override
   public boolean match(IValue other) {
-    return other == this;
+    return equals(other);
   }
 
   @Override
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl.persistent;
+
+import io.usethesource.vallang.IMap;
+
+/**
+ * The difference between two versions of a map: the entries which were added, the entries which were
+ * removed, and the keys of which the value changed, as computed by {@link PersistentHashMap#diff(IMap)}.
+ * {@link #applyTo(IMap)} patches a version with it.
+ */
+public final class MapDiff {
+  private final IMap added;
+  private final IMap removed;
+  private final IMap changedFrom;
+  private final IMap changedTo;
+
+  /*package*/ MapDiff(IMap added, IMap removed, IMap changedFrom, IMap changedTo) {
+    this.added = added;
+    this.removed = removed;
+    this.changedFrom = changedFrom;
+    this.changedTo = changedTo;
+  }
+
+  /**
+   * @return the entries of which the key is in the new version, but not in the old one
+   */
+  public IMap getAdded() {
+    return added;
+  }
+
+  /**
+   * @return the entries of which the key is in the old version, but not in the new one
+   */
+  public IMap getRemoved() {
+    return removed;
+  }
+
+  /**
+   * @return the keys which are in both versions with different values, mapped to their new value
+   */
+  public IMap getChanged() {
+    return changedTo;
+  }
+
+  /**
+   * @return the keys which are in both versions with different values, mapped to their old value
+   */
+  public IMap getChangedFrom() {
+    return changedFrom;
+  }
+
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && changedTo.isEmpty();
+  }
+
+  /**
+   * @return the diff which undoes this one
+   */
+  public MapDiff inverse() {
+    return new MapDiff(removed, added, changedTo, changedFrom);
+  }
+
+  /**
+   * Patches a map with this diff; applying the diff of two versions to the first version gives the second.
+   */
+  public IMap applyTo(IMap map) {
+    IMap result = map;
+    if (!removed.isEmpty()) {
+      result = result.remove(removed);
+    }
+    if (!added.isEmpty()) {
+      result = result.join(added);
+    }
+    if (!changedTo.isEmpty()) {
+      result = result.join(changedTo);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "+" + added + " -" + removed + " ~" + changedTo;
+  }
+}
@@ -23,6 +23,7 @@ import io.usethesource.vallang.IMapWriter;
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.exceptions.UnexpectedElementTypeException;
 import io.usethesource.vallang.util.AbstractTypeBag;
+import io.usethesource.vallang.util.AbstractTypeBag.TransientTypeBag;
 import io.usethesource.vallang.util.EqualityUtils;
 import io.usethesource.vallang.ITuple;
 import io.usethesource.vallang.type.Type;
@@ -32,8 +33,8 @@ final class MapWriter implements IMapWriter {
 	private static final EqualityComparator<Object> equivalenceComparator =
 			EqualityUtils.getEquivalenceComparator();
 
-	protected AbstractTypeBag keyTypeBag;
-	protected AbstractTypeBag valTypeBag;
+	protected TransientTypeBag keyTypeBag;
+	protected TransientTypeBag valTypeBag;
 	protected final Map.Transient<IValue, IValue> mapContent;
 
 	protected final boolean checkUpperBound;
@@ -48,8 +49,8 @@ final class MapWriter implements IMapWriter {
 		this.upperBoundKeyType = null;
 		this.upperBoundValType = null;
 
-		keyTypeBag = AbstractTypeBag.of();
-		valTypeBag = AbstractTypeBag.of();
+		keyTypeBag = AbstractTypeBag.transientOf();
+		valTypeBag = AbstractTypeBag.transientOf();
 		mapContent = Map.Transient.of();
 		constructedMap = null;
 	}
@@ -77,12 +78,12 @@ final class MapWriter implements IMapWriter {
 
 		final IValue replaced = mapContent.__putEquivalent(key, value, equivalenceComparator);
 
-		keyTypeBag = keyTypeBag.increase(keyType);
-		valTypeBag = valTypeBag.increase(valType);
+		keyTypeBag.increase(keyType);
+		valTypeBag.increase(valType);
 
 		if (replaced != null) {
 			final Type replacedType = replaced.getType();
-			valTypeBag = valTypeBag.decrease(replacedType);
+			valTypeBag.decrease(replacedType);
 		}
 	}
 
@@ -144,7 +145,7 @@ final class MapWriter implements IMapWriter {
 	@Override
 	public IMap done() {
 		if (constructedMap == null) {
-			constructedMap = new PersistentHashMap(keyTypeBag, valTypeBag, mapContent.freeze());
+			constructedMap = new PersistentHashMap(keyTypeBag.freeze(), valTypeBag.freeze(), mapContent.freeze());
 		}
 
 		return constructedMap;
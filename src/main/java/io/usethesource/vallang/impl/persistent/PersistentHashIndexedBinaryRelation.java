@@ -51,6 +51,7 @@ public final class PersistentHashIndexedBinaryRelation extends AbstractSet {
   private final AbstractTypeBag keyTypeBag;
   private final AbstractTypeBag valTypeBag;
   private final SetMultimap.Immutable<IValue, IValue> content;
+  private BloomFilter bloomFilter;
 
   /**
    * Construction of persistent indexed binary relation with multi-map backend.
@@ -194,7 +195,19 @@ public final class PersistentHashIndexedBinaryRelation extends AbstractSet {
     final IValue key = tuple.get(0);
     final IValue val = tuple.get(1);
 
-    return content.containsEntry(key, val);
+    return mightContainKey(key) && content.containsEntry(key, val);
+  }
+
+  /**
+   * @return false if the relation certainly has no tuple with the key in its first field, see
+   *         {@link BloomFilter}
+   */
+  private boolean mightContainKey(IValue key) {
+    final BloomFilter current = BloomFilter.track(bloomFilter, content.sizeDistinct(), content, SetMultimap.Immutable::keyIterator);
+    if (current != bloomFilter) {
+      bloomFilter = current;
+    }
+    return current == null || current.mightContain(key);
   }
 
   @Override
@@ -481,6 +494,55 @@ public final class PersistentHashIndexedBinaryRelation extends AbstractSet {
     }
   }
 
+  /**
+   * Compares this version of a relation with another one, key by key: the values of a key are only
+   * walked if the key is in both versions with a different set of values, and a key which is in one
+   * version only contributes its set of values as a whole. Other sets are compared by subtracting
+   * them from each other; see {@link SetDiff#between(ISet, ISet)} for any two sets.
+   *
+   * @return the changes which turn this relation into the other one
+   */
+  public SetDiff diff(ISet other) {
+    if (!(other instanceof PersistentHashIndexedBinaryRelation)) {
+      return new SetDiff(other.subtract(this), subtract(other));
+    }
+
+    final SetMultimap.Immutable<IValue, IValue> otherContent =
+        ((PersistentHashIndexedBinaryRelation) other).content;
+    if (otherContent == content) {
+      return new SetDiff(EmptySet.EMPTY_SET, EmptySet.EMPTY_SET);
+    }
+
+    return new SetDiff(missingFrom(content, otherContent), missingFrom(otherContent, content));
+  }
+
+  /**
+   * @return the tuples of the source which are not in the target
+   */
+  private static ISet missingFrom(SetMultimap.Immutable<IValue, IValue> target,
+      SetMultimap.Immutable<IValue, IValue> source) {
+    final SetMultimap.Transient<IValue, IValue> result =
+        SetMultimap.Transient.of(equivalenceEqualityComparator);
+
+    for (Iterator<IValue> it = source.keyIterator(); it.hasNext();) {
+      final IValue key = it.next();
+      final Immutable<IValue> values = source.get(key);
+      final Immutable<IValue> targetValues = target.get(key);
+
+      if (targetValues == null) {
+        result.__put(key, values);
+      } else if (targetValues != values) {
+        for (IValue val : values) {
+          if (!targetValues.containsEquivalent(val, equivalenceEqualityComparator)) {
+            result.__insert(key, val);
+          }
+        }
+      }
+    }
+
+    return PersistentSetFactory.fromLazy(null, null, result.freeze());
+  }
+
   @Override
   public ISet product(ISet that) {
     // TODO Auto-generated method stub
@@ -493,6 +555,13 @@ public final class PersistentHashIndexedBinaryRelation extends AbstractSet {
     return super.isSubsetOf(that);
   }
 
+  /**
+   * @return this relation as a map from its domain to sets of values, sharing the multi-map
+   */
+  PersistentHashSetMultimap asSetMultimap() {
+    return new PersistentHashSetMultimap(keyTypeBag, valTypeBag, content);
+  }
+
   @Override
   public ISetRelation<ISet> asRelation() {
     final PersistentHashIndexedBinaryRelation thisSet = this;
@@ -545,13 +614,8 @@ public final class PersistentHashIndexedBinaryRelation extends AbstractSet {
 
         final SetMultimap.Immutable<IValue, IValue> data = xz.freeze();
 
-        final AbstractTypeBag keyTypeBag = data.entrySet().stream().map(Map.Entry::getKey)
-            .map(IValue::getType).collect(AbstractTypeBag.toTypeBag());
-
-        final AbstractTypeBag valTypeBag = data.entrySet().stream().map(Map.Entry::getValue)
-            .map(IValue::getType).collect(AbstractTypeBag.toTypeBag());
-
-        return PersistentSetFactory.from(keyTypeBag, valTypeBag, data);
+        // the result is often consumed by another operator without inspecting its type
+        return PersistentSetFactory.fromLazy(null, null, data);
       }
 
       @Override
@@ -635,11 +699,10 @@ public final class PersistentHashIndexedBinaryRelation extends AbstractSet {
         }
 
         /**
-         * NOTE: the following call to {@code stream().collect(toSet())} is suboptimal because
-         * {@code thisSet.content.keySet()} already produces the result (modulo dynamic types). The
-         * usage of streams solely hides the calculation of precise dynamic type of the set.
+         * NOTE: {@code thisSet.content.keySet()} already produces the result (modulo dynamic types),
+         * the precise dynamic type of the set is computed on demand.
          */
-        return thisSet.content.keySet().stream().collect(ValueCollectors.toSet());
+        return PersistentSetFactory.fromLazy(copyOf(thisSet.content.keySet()), keyTypeBag.lub());
 
         // final Immutable<IValue> columnData = (Immutable<IValue>)
         // thisSet.content.keySet();
@@ -656,7 +719,7 @@ public final class PersistentHashIndexedBinaryRelation extends AbstractSet {
        */
       @Override
       public ISet range() {
-        return thisSet.content.values().stream().collect(ValueCollectors.toSet());
+        return PersistentSetFactory.fromLazy(copyOf(thisSet.content.values()), valTypeBag.lub());
       }
 
       @Override
@@ -671,14 +734,24 @@ public final class PersistentHashIndexedBinaryRelation extends AbstractSet {
 
       @Override
       public ISet index(IValue key) {
+        if (!thisSet.mightContainKey(key)) {
+          return EmptySet.EMPTY_SET;
+        }
+
         Immutable<IValue> values = thisSet.content.get(key);
         if (values == null) {
           return EmptySet.EMPTY_SET;
         }
 
-        return PersistentSetFactory.from(values);
+        return PersistentSetFactory.fromLazy(values, valTypeBag.lub());
       }
     };
   }
 
+  private static Set.Immutable<IValue> copyOf(final Iterable<IValue> values) {
+    final Set.Transient<IValue> result = Set.Transient.of();
+    values.forEach(result::__insert);
+    return result.freeze();
+  }
+
 }
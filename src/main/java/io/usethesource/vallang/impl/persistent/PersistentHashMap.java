@@ -15,11 +15,13 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.function.Predicate;
 
 import io.usethesource.capsule.Map;
 import io.usethesource.capsule.util.EqualityComparator;
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.util.AbstractTypeBag;
+import io.usethesource.vallang.util.AbstractTypeBag.TransientTypeBag;
 import io.usethesource.vallang.IMap;
 import io.usethesource.vallang.IValueFactory;
 import io.usethesource.vallang.impl.AbstractMap;
@@ -36,6 +38,7 @@ public final class PersistentHashMap extends AbstractMap {
 	private final AbstractTypeBag keyTypeBag;
 	private final AbstractTypeBag valTypeBag;
 	private final Map.Immutable<IValue,IValue> content;
+	private BloomFilter bloomFilter;
 	
 	/* 
 	 * Passing an pre-calulated map type is only allowed from inside this class.
@@ -125,7 +128,18 @@ public final class PersistentHashMap extends AbstractMap {
 
 	@Override
 	public boolean containsKey(IValue key) {
-		return content.containsKeyEquivalent(key, equivalenceComparator);
+		return mightContainKey(key) && content.containsKeyEquivalent(key, equivalenceComparator);
+	}
+
+	/**
+	 * @return false if the map certainly has no such key, see {@link BloomFilter}
+	 */
+	private boolean mightContainKey(IValue key) {
+		final BloomFilter current = BloomFilter.track(bloomFilter, content.size(), content, Map.Immutable::keyIterator);
+		if (current != bloomFilter) {
+			bloomFilter = current;
+		}
+		return current == null || current.mightContain(key);
 	}
 
 	@Override
@@ -135,7 +149,7 @@ public final class PersistentHashMap extends AbstractMap {
 	
 	@Override
 	public IValue get(IValue key) {
-		return content.getEquivalent(key, equivalenceComparator);
+		return mightContainKey(key) ? content.getEquivalent(key, equivalenceComparator) : null;
 	}
 
 	@Override
@@ -245,6 +259,22 @@ public final class PersistentHashMap extends AbstractMap {
 		return content.entryIterator();
 	}
 
+	/**
+	 * Labels of map types are deprecated, so new code only accesses them through these helpers.
+	 */
+	@Deprecated
+	private static String labelOf(AbstractTypeBag bag) {
+		return bag.getLabel();
+	}
+
+	/**
+	 * @return the bag with the label merged with the one of the other bag, see {@link #mergeLabels(String, String)}
+	 */
+	@Deprecated
+	private static AbstractTypeBag withMergedLabel(AbstractTypeBag bag, AbstractTypeBag other) {
+		return bag.setLabel(mergeLabels(other.getLabel(), bag.getLabel()));
+	}
+
 	@Deprecated
 	private static String mergeLabels(String one, String two) {
 		if (one != null && two != null && one.equals(two)) {
@@ -261,6 +291,10 @@ public final class PersistentHashMap extends AbstractMap {
 		if (other instanceof PersistentHashMap) {
 			PersistentHashMap that = (PersistentHashMap) other;
 
+			if (that.size() > size()) {
+				return that.joinInto(this);
+			}
+
 			final Map.Transient<IValue, IValue> transientContent = content.asTransient();
 
 			boolean isModified = false;
@@ -286,6 +320,10 @@ public final class PersistentHashMap extends AbstractMap {
 				valBagNew = valTypeBag;
 			}
 
+			if (that.content == content || that.isEmpty()) {
+				return isModified ? new PersistentHashMap(keyBagNew, valBagNew, content) : this;
+			}
+
 			for (Iterator<Entry<IValue, IValue>> it = that.entryIterator(); it.hasNext();) {
 				Entry<IValue, IValue> tuple = it.next();
 				IValue key = tuple.getKey();
@@ -319,28 +357,269 @@ public final class PersistentHashMap extends AbstractMap {
 		}
 	}
 	
+	/**
+	 * Joins a smaller map into this larger one: only the entries of the smaller map with keys
+	 * which this map does not have are added, all other entries are kept from this map.
+	 */
+	private IMap joinInto(PersistentHashMap smaller) {
+		final Map.Transient<IValue, IValue> transientContent = content.asTransient();
+
+		AbstractTypeBag keyBagNew = withMergedLabel(keyTypeBag, smaller.keyTypeBag);
+		AbstractTypeBag valBagNew = withMergedLabel(valTypeBag, smaller.valTypeBag);
+
+		for (Iterator<Entry<IValue, IValue>> it = smaller.entryIterator(); it.hasNext();) {
+			Entry<IValue, IValue> tuple = it.next();
+			IValue key = tuple.getKey();
+
+			if (!transientContent.containsKeyEquivalent(key, equivalenceComparator)) {
+				transientContent.__putEquivalent(key, tuple.getValue(), equivalenceComparator);
+				keyBagNew = keyBagNew.increase(key.getType());
+				valBagNew = valBagNew.increase(tuple.getValue().getType());
+			}
+		}
+
+		return new PersistentHashMap(keyBagNew, valBagNew, transientContent.freeze());
+	}
+
+	/*
+	 * The operations below iterate over the smaller of the two maps, and maintain the type bags
+	 * of their result incrementally instead of rebuilding the result with a writer. 
+	 */
+
 	@Override
-	public IMap remove(IMap that) {
-		// TODO Auto-generated method stub
-		return super.remove(that);
+	public IMap remove(IMap other) {
+		if (!(other instanceof PersistentHashMap)) {
+			return super.remove(other);
+		}
+
+		final PersistentHashMap that = (PersistentHashMap) other;
+
+		if (that.content == content) {
+			return emptyMap(labelOf(keyTypeBag), labelOf(valTypeBag));
+		}
+
+		if (isEmpty() || that.isEmpty()) {
+			return this;
+		}
+
+		if (that.size() < size()) {
+			// remove the keys of that from a copy of this map
+			final Map.Transient<IValue, IValue> transientContent = content.asTransient();
+			AbstractTypeBag keyBagNew = keyTypeBag;
+			AbstractTypeBag valBagNew = valTypeBag;
+
+			for (IValue key : that) {
+				final IValue removed = transientContent.getEquivalent(key, equivalenceComparator);
+
+				if (removed != null) {
+					transientContent.__removeEquivalent(key, equivalenceComparator);
+					keyBagNew = keyBagNew.decrease(key.getType());
+					valBagNew = valBagNew.decrease(removed.getType());
+				}
+			}
+
+			if (transientContent.size() == size()) {
+				return this;
+			}
+
+			return new PersistentHashMap(keyBagNew, valBagNew, transientContent.freeze());
+		}
+
+		// collect the entries of this map which remain
+		return filter(entry -> !that.content.containsKeyEquivalent(entry.getKey(), equivalenceComparator));
 	}
 
 	@Override
-	public IMap compose(IMap that) {
-		// TODO Auto-generated method stub
-		return super.compose(that);
+	public IMap compose(IMap other) {
+		if (!(other instanceof PersistentHashMap)) {
+			return super.compose(other);
+		}
+
+		final PersistentHashMap that = (PersistentHashMap) other;
+
+		final String keyLabel = labelOf(keyTypeBag);
+		final String valLabel = labelOf(that.valTypeBag);
+		final boolean labeled = keyLabel != null && labelOf(valTypeBag) != null
+				&& labelOf(that.keyTypeBag) != null && valLabel != null;
+
+		final Map.Transient<IValue, IValue> transientContent = Map.Transient.of();
+		final TransientTypeBag keyBagNew = AbstractTypeBag.transientOf(labeled ? keyLabel : null);
+		final TransientTypeBag valBagNew = AbstractTypeBag.transientOf(labeled ? valLabel : null);
+
+		if (!that.isEmpty()) {
+			for (Iterator<Entry<IValue, IValue>> it = entryIterator(); it.hasNext();) {
+				final Entry<IValue, IValue> entry = it.next();
+				final IValue value = that.content.getEquivalent(entry.getValue(), equivalenceComparator);
+
+				if (value != null) {
+					transientContent.__putEquivalent(entry.getKey(), value, equivalenceComparator);
+					keyBagNew.increase(entry.getKey().getType());
+					valBagNew.increase(value.getType());
+				}
+			}
+		}
+
+		return new PersistentHashMap(keyBagNew.freeze(), valBagNew.freeze(), transientContent.freeze());
 	}
 
 	@Override
-	public IMap common(IMap that) {
-		// TODO Auto-generated method stub
-		return super.common(that);
+	public IMap common(IMap other) {
+		if (!(other instanceof PersistentHashMap)) {
+			return super.common(other);
+		}
+
+		final PersistentHashMap that = (PersistentHashMap) other;
+
+		if (that.content == content) {
+			return this;
+		}
+
+		if (that.size() < size()) {
+			// look up the entries of the smaller map in this one, but keep the values of this map
+			final Map.Transient<IValue, IValue> transientContent = Map.Transient.of();
+			final TransientTypeBag keyBagNew = AbstractTypeBag.transientOf(labelOf(keyTypeBag));
+			final TransientTypeBag valBagNew = AbstractTypeBag.transientOf(labelOf(valTypeBag));
+
+			for (Iterator<Entry<IValue, IValue>> it = that.entryIterator(); it.hasNext();) {
+				final Entry<IValue, IValue> entry = it.next();
+				final IValue thisValue = content.getEquivalent(entry.getKey(), equivalenceComparator);
+
+				if (thisValue != null && thisValue.isEqual(entry.getValue())) {
+					transientContent.__putEquivalent(entry.getKey(), thisValue, equivalenceComparator);
+					keyBagNew.increase(entry.getKey().getType());
+					valBagNew.increase(thisValue.getType());
+				}
+			}
+
+			return new PersistentHashMap(keyBagNew.freeze(), valBagNew.freeze(), transientContent.freeze());
+		}
+
+		return filter(entry -> {
+			final IValue otherValue = that.content.getEquivalent(entry.getKey(), equivalenceComparator);
+			return otherValue != null && otherValue.isEqual(entry.getValue());
+		});
 	}
 
 	@Override
-	public boolean isSubMap(IMap that) {
-		// TODO Auto-generated method stub
-		return super.isSubMap(that);
+	public boolean isSubMap(IMap other) {
+		if (!(other instanceof PersistentHashMap)) {
+			return super.isSubMap(other);
+		}
+
+		final PersistentHashMap that = (PersistentHashMap) other;
+
+		if (that.content == content) {
+			return true;
+		}
+
+		if (size() > that.size()) {
+			return false;
+		}
+
+		for (Iterator<Entry<IValue, IValue>> it = entryIterator(); it.hasNext();) {
+			final Entry<IValue, IValue> entry = it.next();
+			final IValue otherValue = that.content.getEquivalent(entry.getKey(), equivalenceComparator);
+
+			if (otherValue == null || !otherValue.isEqual(entry.getValue())) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the entries of this map which satisfy the predicate, or this map itself if all of them do
+	 */
+	private IMap filter(Predicate<Entry<IValue, IValue>> predicate) {
+		final Map.Transient<IValue, IValue> transientContent = Map.Transient.of();
+		final TransientTypeBag keyBagNew = AbstractTypeBag.transientOf(labelOf(keyTypeBag));
+		final TransientTypeBag valBagNew = AbstractTypeBag.transientOf(labelOf(valTypeBag));
+
+		for (Iterator<Entry<IValue, IValue>> it = entryIterator(); it.hasNext();) {
+			final Entry<IValue, IValue> entry = it.next();
+
+			if (predicate.test(entry)) {
+				transientContent.__putEquivalent(entry.getKey(), entry.getValue(), equivalenceComparator);
+				keyBagNew.increase(entry.getKey().getType());
+				valBagNew.increase(entry.getValue().getType());
+			}
+		}
+
+		if (transientContent.size() == size()) {
+			return this;
+		}
+
+		return new PersistentHashMap(keyBagNew.freeze(), valBagNew.freeze(), transientContent.freeze());
+	}
+
+	/**
+	 * Compares this version of a map with another one. capsule does not expose the nodes of its tries,
+	 * so subtrees which both versions share cannot be skipped: unless the versions have the same
+	 * content, a diff costs one lookup per key of both versions. Only the delta is built, though.
+	 *
+	 * @return the changes which turn this map into the other one
+	 */
+	public MapDiff diff(IMap other) {
+		if (other == this || (other instanceof PersistentHashMap && ((PersistentHashMap) other).content == content)) {
+			final IMap empty = emptyMap(null, null);
+			return new MapDiff(empty, empty, empty, empty);
+		}
+
+		final DeltaBuilder added = new DeltaBuilder();
+		final DeltaBuilder changedFrom = new DeltaBuilder();
+		final DeltaBuilder changedTo = new DeltaBuilder();
+
+		for (Iterator<Entry<IValue, IValue>> it = other.entryIterator(); it.hasNext();) {
+			final Entry<IValue, IValue> entry = it.next();
+			final IValue old = content.getEquivalent(entry.getKey(), equivalenceComparator);
+
+			if (old == null) {
+				added.put(entry.getKey(), entry.getValue());
+			}
+			else if (!old.isEqual(entry.getValue())) {
+				changedFrom.put(entry.getKey(), old);
+				changedTo.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		final Map.Immutable<IValue, IValue> otherContent =
+				other instanceof PersistentHashMap ? ((PersistentHashMap) other).content : null;
+		final DeltaBuilder removed = new DeltaBuilder();
+
+		for (Iterator<Entry<IValue, IValue>> it = content.entryIterator(); it.hasNext();) {
+			final Entry<IValue, IValue> entry = it.next();
+			final IValue key = entry.getKey();
+
+			if (otherContent != null ? !otherContent.containsKeyEquivalent(key, equivalenceComparator) : !other.containsKey(key)) {
+				removed.put(key, entry.getValue());
+			}
+		}
+
+		return new MapDiff(added.done(), removed.done(), changedFrom.done(), changedTo.done());
+	}
+
+	/**
+	 * Collects the entries of one part of a {@link MapDiff}.
+	 */
+	private static final class DeltaBuilder {
+		private final Map.Transient<IValue, IValue> content = Map.Transient.of();
+		private final TransientTypeBag keyTypeBag = AbstractTypeBag.transientOf();
+		private final TransientTypeBag valTypeBag = AbstractTypeBag.transientOf();
+
+		void put(IValue key, IValue value) {
+			content.__putEquivalent(key, value, equivalenceComparator);
+			keyTypeBag.increase(key.getType());
+			valTypeBag.increase(value.getType());
+		}
+
+		IMap done() {
+			return new PersistentHashMap(keyTypeBag.freeze(), valTypeBag.freeze(), content.freeze());
+		}
+	}
+
+	private static PersistentHashMap emptyMap(String keyLabel, String valLabel) {
+		return new PersistentHashMap(AbstractTypeBag.of(keyLabel), AbstractTypeBag.of(valLabel), Map.Immutable.of());
 	}
 
 }
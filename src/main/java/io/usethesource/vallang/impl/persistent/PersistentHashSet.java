@@ -35,6 +35,7 @@ public final class PersistentHashSet extends AbstractSet {
   private Type cachedSetType;
   private final AbstractTypeBag elementTypeBag;
   private final Set.Immutable<IValue> content;
+  private BloomFilter bloomFilter;
 
   /**
    * Construction of persistent hash-set.
@@ -129,7 +130,18 @@ public final class PersistentHashSet extends AbstractSet {
 
   @Override
   public boolean contains(IValue value) {
-    return content.containsEquivalent(value, equivalenceComparator);
+    return mightContain(value) && content.containsEquivalent(value, equivalenceComparator);
+  }
+
+  /**
+   * @return false if the value is certainly not an element, see {@link BloomFilter}
+   */
+  private boolean mightContain(IValue value) {
+    final BloomFilter current = BloomFilter.track(bloomFilter, content.size(), content, Set.Immutable::iterator);
+    if (current != bloomFilter) {
+      bloomFilter = current;
+    }
+    return current == null || current.mightContain(value);
   }
 
   @Override
@@ -354,6 +366,44 @@ public final class PersistentHashSet extends AbstractSet {
     }
   }
 
+  /**
+   * Compares this version of a set with another one. capsule does not expose the nodes of its tries,
+   * so subtrees which both versions share cannot be skipped: unless the versions have the same
+   * content, a diff costs one lookup per element of both versions, as much as two subtract calls.
+   * Only the delta is built, though, instead of two full intermediate sets.
+   *
+   * @return the changes which turn this set into the other one
+   */
+  public SetDiff diff(ISet other) {
+    if (other == this || (other instanceof PersistentHashSet && ((PersistentHashSet) other).content == content)) {
+      return new SetDiff(EmptySet.EMPTY_SET, EmptySet.EMPTY_SET);
+    }
+
+    final Set.Immutable<IValue> otherContent =
+        other instanceof PersistentHashSet ? ((PersistentHashSet) other).content : null;
+
+    final Set.Transient<IValue> added = Set.Transient.of();
+    final AbstractTypeBag.TransientTypeBag addedBag = AbstractTypeBag.transientOf();
+    for (IValue elem : other) {
+      if (!content.containsEquivalent(elem, equivalenceComparator)) {
+        added.__insertEquivalent(elem, equivalenceComparator);
+        addedBag.increase(elem.getType());
+      }
+    }
+
+    final Set.Transient<IValue> removed = Set.Transient.of();
+    final AbstractTypeBag.TransientTypeBag removedBag = AbstractTypeBag.transientOf();
+    for (IValue elem : content) {
+      if (otherContent != null ? !otherContent.containsEquivalent(elem, equivalenceComparator) : !other.contains(elem)) {
+        removed.__insertEquivalent(elem, equivalenceComparator);
+        removedBag.increase(elem.getType());
+      }
+    }
+
+    return new SetDiff(PersistentSetFactory.from(addedBag.freeze(), added.freeze()),
+        PersistentSetFactory.from(removedBag.freeze(), removed.freeze()));
+  }
+
   @Override
   public ISet product(ISet that) {
     // TODO Auto-generated method stub
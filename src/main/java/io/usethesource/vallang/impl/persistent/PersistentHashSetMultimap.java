@@ -0,0 +1,370 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl.persistent;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import io.usethesource.capsule.Set;
+import io.usethesource.capsule.SetMultimap;
+import io.usethesource.vallang.IMap;
+import io.usethesource.vallang.ISet;
+import io.usethesource.vallang.ITuple;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.impl.AbstractMap;
+import io.usethesource.vallang.impl.func.MapFunctions;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.util.AbstractTypeBag;
+
+import static io.usethesource.vallang.impl.persistent.SetWriter.equivalenceEqualityComparator;
+import static io.usethesource.vallang.impl.persistent.SetWriter.isTupleOfArityTwo;
+
+/**
+ * A <code>map[K, set[V]]</code> backed by a multi-map, i.e. by the same representation as a
+ * {@link PersistentHashIndexedBinaryRelation}. Adding or removing a single value of a key with
+ * {@link #insert(IValue, IValue)} and {@link #delete(IValue, IValue)} does not copy the set of
+ * that key, and converting from and to a <code>rel[K, V]</code> shares the multi-map.
+ * <br/>
+ * The multi-map has no entries for keys without values, so putting an empty set produces a
+ * regular map.
+ */
+public final class PersistentHashSetMultimap extends AbstractMap {
+
+  private static final PersistentHashSetMultimap EMPTY = new PersistentHashSetMultimap(
+      AbstractTypeBag.of(), AbstractTypeBag.of(), SetMultimap.Immutable.of(equivalenceEqualityComparator));
+
+  private Type cachedMapType;
+  private final AbstractTypeBag keyTypeBag;
+  private final AbstractTypeBag valTypeBag;
+  private final SetMultimap.Immutable<IValue, IValue> content;
+  private int cachedHashCode = 0;
+
+  /**
+   * @param keyTypeBag precise dynamic type of the keys, counted once per value
+   * @param valTypeBag precise dynamic type of the elements of the value sets
+   * @param content immutable multi-map
+   */
+  PersistentHashSetMultimap(AbstractTypeBag keyTypeBag, AbstractTypeBag valTypeBag,
+      SetMultimap.Immutable<IValue, IValue> content) {
+    this.keyTypeBag = Objects.requireNonNull(keyTypeBag);
+    this.valTypeBag = Objects.requireNonNull(valTypeBag);
+    this.content = Objects.requireNonNull(content);
+  }
+
+  /**
+   * @return the empty <code>map[void, set[void]]</code>
+   */
+  public static PersistentHashSetMultimap of() {
+    return EMPTY;
+  }
+
+  /**
+   * @param relation a binary relation
+   * @return a map from the domain of the relation to the set of values each element is related to
+   * @throws IllegalArgumentException when the relation is not binary
+   */
+  public static PersistentHashSetMultimap of(ISet relation) {
+    if (relation instanceof PersistentHashIndexedBinaryRelation) {
+      return ((PersistentHashIndexedBinaryRelation) relation).asSetMultimap();
+    }
+
+    if (relation.isEmpty()) {
+      return EMPTY;
+    }
+
+    if (!isTupleOfArityTwo.test(relation.getElementType())) {
+      throw new IllegalArgumentException("Not a binary relation: " + relation.getType());
+    }
+
+    final SetMultimap.Transient<IValue, IValue> tmp =
+        SetMultimap.Transient.of(equivalenceEqualityComparator);
+    final AbstractTypeBag.TransientTypeBag keyBag = AbstractTypeBag.transientOf();
+    final AbstractTypeBag.TransientTypeBag valBag = AbstractTypeBag.transientOf();
+
+    for (IValue elem : relation) {
+      final ITuple tuple = (ITuple) elem;
+      final IValue key = tuple.get(0);
+      final IValue val = tuple.get(1);
+
+      if (tmp.__insert(key, val)) {
+        keyBag.increase(key.getType());
+        valBag.increase(val.getType());
+      }
+    }
+
+    return new PersistentHashSetMultimap(keyBag.freeze(), valBag.freeze(), tmp.freeze());
+  }
+
+  /**
+   * @return the <code>rel[K, V]</code> with a tuple for every key and each of its values, sharing this multi-map
+   */
+  public ISet toRelation() {
+    return PersistentSetFactory.from(keyTypeBag, valTypeBag, content);
+  }
+
+  /**
+   * Adds a single value to the set of a key.
+   *
+   * @return a new map in which the set of the key contains the value
+   */
+  public PersistentHashSetMultimap insert(IValue key, IValue value) {
+    final SetMultimap.Immutable<IValue, IValue> contentNew = content.__insert(key, value);
+
+    if (content == contentNew) {
+      return this;
+    }
+
+    return new PersistentHashSetMultimap(keyTypeBag.increase(key.getType()),
+        valTypeBag.increase(value.getType()), contentNew);
+  }
+
+  /**
+   * Removes a single value from the set of a key; the key is removed with its last value.
+   *
+   * @return a new map in which the set of the key does not contain the value
+   */
+  public PersistentHashSetMultimap delete(IValue key, IValue value) {
+    final SetMultimap.Immutable<IValue, IValue> contentNew = content.__remove(key, value);
+
+    if (content == contentNew) {
+      return this;
+    }
+
+    return new PersistentHashSetMultimap(keyTypeBag.decrease(key.getType()),
+        valTypeBag.decrease(value.getType()), contentNew);
+  }
+
+  @Override
+  protected IValueFactory getValueFactory() {
+    return ValueFactory.getInstance();
+  }
+
+  @Override
+  public Type getType() {
+    if (cachedMapType == null) {
+      cachedMapType = getTypeFactory().mapType(keyTypeBag.lub(), getTypeFactory().setType(valTypeBag.lub()));
+    }
+    return cachedMapType;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return content.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return content.sizeDistinct();
+  }
+
+  @Override
+  public IMap put(IValue key, IValue value) {
+    if (!(value instanceof ISet) || ((ISet) value).isEmpty()) {
+      return super.put(key, value);
+    }
+
+    final Set.Transient<IValue> values = Set.Transient.of();
+    AbstractTypeBag keyBagNew = removeTypes(key, keyTypeBag, true);
+    AbstractTypeBag valBagNew = removeTypes(key, valTypeBag, false);
+
+    for (IValue elem : (ISet) value) {
+      if (values.__insertEquivalent(elem, equivalenceEqualityComparator)) {
+        keyBagNew = keyBagNew.increase(key.getType());
+        valBagNew = valBagNew.increase(elem.getType());
+      }
+    }
+
+    return new PersistentHashSetMultimap(keyBagNew, valBagNew, content.__put(key, values.freeze()));
+  }
+
+  @Override
+  public IMap removeKey(IValue key) {
+    final SetMultimap.Immutable<IValue, IValue> contentNew = content.__remove(key);
+
+    if (content == contentNew) {
+      return this;
+    }
+
+    return new PersistentHashSetMultimap(removeTypes(key, keyTypeBag, true),
+        removeTypes(key, valTypeBag, false), contentNew);
+  }
+
+  /**
+   * @return the type bag without the types of the tuples of which the key is the first element
+   */
+  private AbstractTypeBag removeTypes(IValue key, AbstractTypeBag bag, boolean ofKey) {
+    final Set.Immutable<IValue> values = content.get(key);
+
+    if (values == null) {
+      return bag;
+    }
+
+    AbstractTypeBag result = bag;
+    for (IValue elem : values) {
+      result = result.decrease(ofKey ? key.getType() : elem.getType());
+    }
+    return result;
+  }
+
+  @Override
+  public IMap join(IMap other) {
+    if (!(other instanceof PersistentHashSetMultimap)) {
+      return super.join(other);
+    }
+
+    if (other.isEmpty()) {
+      return this;
+    }
+
+    IMap result = this;
+    for (Iterator<Entry<IValue, IValue>> it = other.entryIterator(); it.hasNext();) {
+      final Entry<IValue, IValue> entry = it.next();
+      result = result.put(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  @Override
+  public boolean containsKey(IValue key) {
+    return content.containsKey(key);
+  }
+
+  @Override
+  public ISet get(IValue key) {
+    final Set.Immutable<IValue> values = content.get(key);
+
+    if (values == null) {
+      return null;
+    }
+
+    return PersistentSetFactory.fromLazy(values, valTypeBag.lub());
+  }
+
+  @Override
+  public Iterator<IValue> iterator() {
+    return content.keyIterator();
+  }
+
+  @Override
+  public Iterator<IValue> valueIterator() {
+    final Iterator<IValue> keys = iterator();
+
+    return new Iterator<IValue>() {
+      @Override
+      public boolean hasNext() {
+        return keys.hasNext();
+      }
+
+      @Override
+      public IValue next() {
+        return get(keys.next());
+      }
+    };
+  }
+
+  @Override
+  public Iterator<Entry<IValue, IValue>> entryIterator() {
+    final Iterator<IValue> keys = iterator();
+
+    return new Iterator<Entry<IValue, IValue>>() {
+      @Override
+      public boolean hasNext() {
+        return keys.hasNext();
+      }
+
+      @Override
+      public Entry<IValue, IValue> next() {
+        final IValue key = keys.next();
+        return new SimpleImmutableEntry<>(key, get(key));
+      }
+    };
+  }
+
+  @Override
+  public int hashCode() {
+    if (cachedHashCode == 0) {
+      // consistent with maps of which the values are sets, see java.util.Map#hashCode(); the hash
+      // of a value set is the one of its content, like PersistentHashSet#hashCode()
+      int hash = 0;
+      for (Iterator<IValue> it = content.keyIterator(); it.hasNext();) {
+        final IValue key = it.next();
+        hash += key.hashCode() ^ content.get(key).hashCode();
+      }
+      cachedHashCode = hash;
+    }
+    return cachedHashCode;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == this) {
+      return true;
+    }
+    if (other instanceof PersistentHashSetMultimap) {
+      final PersistentHashSetMultimap that = (PersistentHashSetMultimap) other;
+
+      return getType() == that.getType() && content.equals(that.content);
+    }
+    if (other instanceof IMap) {
+      final IMap that = (IMap) other;
+
+      if (getType() != that.getType() || size() != that.size()) {
+        return false;
+      }
+
+      for (IValue key : that) {
+        final ISet values = get(key);
+        if (values == null || !values.equals(that.get(key))) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isEqual(IValue other) {
+    if (other == this) {
+      return true;
+    }
+    if (other instanceof PersistentHashSetMultimap) {
+      return content.equivalent(((PersistentHashSetMultimap) other).content, equivalenceEqualityComparator);
+    }
+    if (other instanceof IMap) {
+      final IMap that = (IMap) other;
+
+      if (size() != that.size()) {
+        return false;
+      }
+
+      for (IValue key : that) {
+        final ISet values = get(key);
+        if (values == null || !values.isEqual(that.get(key))) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean match(IValue other) {
+    if (!(other instanceof IMap)) {
+      return false;
+    }
+
+    return MapFunctions.match(getValueFactory(), this, other);
+  }
+}
@@ -11,6 +11,10 @@
  *******************************************************************************/
 package io.usethesource.vallang.impl.persistent;
 
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
 import io.usethesource.capsule.Set;
 import io.usethesource.capsule.SetMultimap;
 import io.usethesource.vallang.ISet;
@@ -18,6 +22,7 @@ import io.usethesource.vallang.util.AbstractTypeBag;
 import io.usethesource.vallang.ITuple;
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.type.TypeFactory;
 
 import static io.usethesource.vallang.impl.persistent.SetWriter.asInstanceOf;
 import static io.usethesource.vallang.impl.persistent.SetWriter.isTupleOfArityTwo;
@@ -28,6 +33,14 @@ import static io.usethesource.vallang.impl.persistent.SetWriter.isTupleOfArityTw
  */
 public class PersistentSetFactory {
 
+  /**
+   * Lazily computed type bags of collections with at least this many elements are computed in parallel.
+   */
+  private static final int PARALLEL_TYPE_BAG_THRESHOLD = 64 * 1024;
+
+  private static final Type BINARY_TUPLE_BOTTOM =
+      TypeFactory.getInstance().tupleType(TypeFactory.getInstance().voidType(), TypeFactory.getInstance().voidType());
+
   /**
    * Creating an {@link ISet} instance from a {@link SetMultimap.Immutable} representation
    * by recovering the precise dynamic type.
@@ -94,4 +107,57 @@ public class PersistentSetFactory {
     return new PersistentHashSet(elementTypeBag, content);
   }
 
+  /**
+   * Creating an {@link ISet} instance from a {@link Set.Immutable} representation, of which the
+   * precise dynamic type is only computed when it is needed. The upper bound of the element type
+   * decides the representation up front; if the elements may be binary tuples the type is
+   * computed eagerly.
+   *
+   * @param content internal set representation of an {@link ISet}
+   * @param elementUpperBound a supertype of all elements in content
+   * @return appropriate {@link ISet} based on data and type
+   */
+  static final ISet fromLazy(final Set.Immutable<IValue> content, final Type elementUpperBound) {
+    if (content.isEmpty()) {
+      return EmptySet.EMPTY_SET;
+    }
+
+    if (BINARY_TUPLE_BOTTOM.isSubtypeOf(elementUpperBound)) {
+      return from(content);
+    }
+
+    return new PersistentHashSet(lazyTypeBag(null, content::stream, content.size()), content);
+  }
+
+  /**
+   * Creating an {@link ISet} instance from a {@link SetMultimap.Immutable} representation, of
+   * which the precise dynamic types of both columns are only computed when they are needed.
+   *
+   * @param keyLabel label of the first data column, or null
+   * @param valLabel label of the second data column, or null
+   * @param content internal multi-map representation of an {@link ISet}
+   * @return appropriate {@link ISet} based on data and type
+   */
+  static final ISet fromLazy(final String keyLabel, final String valLabel,
+                             final SetMultimap.Immutable<IValue, IValue> content) {
+    if (content.isEmpty()) {
+      return EmptySet.EMPTY_SET;
+    }
+
+    final AbstractTypeBag keyTypeBag = lazyTypeBag(keyLabel,
+        () -> content.entrySet().stream().map(Map.Entry::getKey), content.size());
+    final AbstractTypeBag valTypeBag = lazyTypeBag(valLabel,
+        () -> content.entrySet().stream().map(Map.Entry::getValue), content.size());
+
+    return new PersistentHashIndexedBinaryRelation(keyTypeBag, valTypeBag, content);
+  }
+
+  private static AbstractTypeBag lazyTypeBag(final String label,
+      final Supplier<Stream<IValue>> elements, final int size) {
+    return AbstractTypeBag.lazy(label, () -> {
+      final Stream<IValue> stream = size >= PARALLEL_TYPE_BAG_THRESHOLD ? elements.get().parallel() : elements.get();
+      return stream.map(IValue::getType).collect(AbstractTypeBag.toTypeBag());
+    });
+  }
+
 }
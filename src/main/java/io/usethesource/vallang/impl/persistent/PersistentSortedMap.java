@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl.persistent;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import io.usethesource.vallang.IMap;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.exceptions.UnexpectedElementTypeException;
+import io.usethesource.vallang.impl.AbstractMap;
+import io.usethesource.vallang.impl.func.MapFunctions;
+import io.usethesource.vallang.impl.persistent.SortedTree.Node;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.util.AbstractTypeBag;
+import io.usethesource.vallang.util.ValueOrdering;
+
+/**
+ * A persistent map which keeps its keys in the natural order of a type (see {@link ValueOrdering}),
+ * for ordered traversal, minimum and maximum, floor and ceiling, rank and range queries on the keys
+ * in logarithmic time. It is an ordinary {@link IMap} otherwise: it is equal to hash maps with the
+ * same entries, and putting a key which is not of the ordered type produces an unordered map.
+ */
+public final class PersistentSortedMap extends AbstractMap {
+
+  private Type cachedMapType;
+  private int cachedHashCode = 0;
+  private final Type orderType;
+  private final Comparator<IValue> cmp;
+  private final AbstractTypeBag keyTypeBag;
+  private final AbstractTypeBag valTypeBag;
+  private final Node root;
+
+  private PersistentSortedMap(Type orderType, Comparator<IValue> cmp, AbstractTypeBag keyTypeBag,
+      AbstractTypeBag valTypeBag, Node root) {
+    this.orderType = orderType;
+    this.cmp = cmp;
+    this.keyTypeBag = Objects.requireNonNull(keyTypeBag);
+    this.valTypeBag = Objects.requireNonNull(valTypeBag);
+    this.root = root;
+  }
+
+  /**
+   * @param orderType the type of the keys, of which the natural order is used
+   * @return the empty map
+   * @throws IllegalArgumentException if the values of the type are not ordered
+   */
+  public static PersistentSortedMap empty(Type orderType) {
+    return new PersistentSortedMap(orderType, ValueOrdering.forType(orderType), AbstractTypeBag.of(),
+        AbstractTypeBag.of(), null);
+  }
+
+  /**
+   * @return the entries of the map in the natural order of its key type
+   * @throws IllegalArgumentException if the values of the key type are not ordered, or if the map
+   *         is empty: it has no key type to order on, so use {@link #empty(Type)} instead
+   */
+  public static PersistentSortedMap of(IMap map) {
+    if (map instanceof PersistentSortedMap) {
+      return (PersistentSortedMap) map;
+    }
+    if (map.isEmpty()) {
+      throw new IllegalArgumentException("An empty map has no key type to order on, use empty(Type) instead");
+    }
+
+    final Type orderType = map.getKeyType();
+    final Comparator<IValue> cmp = ValueOrdering.forType(orderType);
+    final List<IValue> keys = new ArrayList<>(map.size());
+
+    for (IValue key : map) {
+      keys.add(key);
+    }
+    keys.sort(cmp);
+
+    return of(orderType, cmp, keys, map);
+  }
+
+  /**
+   * @param keys a sorted subset of the keys of the map
+   */
+  private static PersistentSortedMap of(Type orderType, Comparator<IValue> cmp, List<IValue> keys, IMap map) {
+    final AbstractTypeBag.TransientTypeBag keyBag = AbstractTypeBag.transientOf();
+    final AbstractTypeBag.TransientTypeBag valBag = AbstractTypeBag.transientOf();
+    final List<IValue> values = new ArrayList<>(keys.size());
+
+    for (IValue key : keys) {
+      final IValue value = map.get(key);
+      values.add(value);
+      keyBag.increase(key.getType());
+      valBag.increase(value.getType());
+    }
+
+    return new PersistentSortedMap(orderType, cmp, keyBag.freeze(), valBag.freeze(),
+        SortedTree.fromSorted(keys, values));
+  }
+
+  private IValue checkOrdered(IValue key) {
+    if (!isOrdered(key)) {
+      throw new UnexpectedElementTypeException(orderType, key.getType());
+    }
+    return key;
+  }
+
+  private boolean isOrdered(IValue key) {
+    return key.getType().isSubtypeOf(orderType);
+  }
+
+  /**
+   * @return the smallest key
+   * @throws NoSuchElementException if the map is empty
+   */
+  public IValue firstKey() {
+    if (root == null) {
+      throw new NoSuchElementException();
+    }
+    return SortedTree.first(root).key;
+  }
+
+  /**
+   * @return the largest key
+   * @throws NoSuchElementException if the map is empty
+   */
+  public IValue lastKey() {
+    if (root == null) {
+      throw new NoSuchElementException();
+    }
+    return SortedTree.last(root).key;
+  }
+
+  /**
+   * @return the largest key less than or equal to the given key, or null if there is none
+   */
+  public IValue floorKey(IValue key) {
+    final Node node = SortedTree.floor(root, checkOrdered(key), cmp);
+    return node == null ? null : node.key;
+  }
+
+  /**
+   * @return the smallest key greater than or equal to the given key, or null if there is none
+   */
+  public IValue ceilingKey(IValue key) {
+    final Node node = SortedTree.ceiling(root, checkOrdered(key), cmp);
+    return node == null ? null : node.key;
+  }
+
+  /**
+   * @return the number of keys which are less than the given key
+   */
+  public int rank(IValue key) {
+    return SortedTree.rank(root, checkOrdered(key), cmp);
+  }
+
+  /**
+   * @return the key at the given position in the order of the map
+   * @throws IndexOutOfBoundsException if the index is negative or not less than the size of the map
+   */
+  public IValue getKey(int index) {
+    return SortedTree.select(root, index).key;
+  }
+
+  /**
+   * @param from inclusive lower bound, or null
+   * @param to exclusive upper bound, or null
+   * @return the entries of which the key is in the range, in the order of the keys
+   */
+  public Iterator<Entry<IValue, IValue>> entryIterator(IValue from, IValue to) {
+    return SortedTree.iterator(root, from == null ? null : checkOrdered(from),
+        to == null ? null : checkOrdered(to), cmp, node -> new SimpleImmutableEntry<>(node.key, node.value));
+  }
+
+  /**
+   * @param from inclusive lower bound, or null
+   * @param to exclusive upper bound, or null
+   * @return the map of the entries of which the key is in the range
+   */
+  public PersistentSortedMap range(IValue from, IValue to) {
+    final List<IValue> keys = new ArrayList<>();
+    entryIterator(from, to).forEachRemaining(entry -> keys.add(entry.getKey()));
+    return keys.size() == size() ? this : of(orderType, cmp, keys, this);
+  }
+
+  @Override
+  protected IValueFactory getValueFactory() {
+    return ValueFactory.getInstance();
+  }
+
+  @Override
+  public Type getType() {
+    if (cachedMapType == null) {
+      cachedMapType = getTypeFactory().mapType(keyTypeBag.lub(), valTypeBag.lub());
+    }
+    return cachedMapType;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return root == null;
+  }
+
+  @Override
+  public int size() {
+    return SortedTree.size(root);
+  }
+
+  @Override
+  public boolean containsKey(IValue key) {
+    return isOrdered(key) && SortedTree.get(root, key, cmp) != null;
+  }
+
+  @Override
+  public IValue get(IValue key) {
+    final Node node = isOrdered(key) ? SortedTree.get(root, key, cmp) : null;
+    return node == null ? null : node.value;
+  }
+
+  @Override
+  public IMap put(IValue key, IValue value) {
+    if (!isOrdered(key)) {
+      return super.put(key, value);
+    }
+
+    final Node[] replaced = new Node[1];
+    final Node rootNew = SortedTree.put(root, key, value, cmp, replaced);
+
+    if (rootNew == root) {
+      return this;
+    }
+
+    if (replaced[0] != null) {
+      return new PersistentSortedMap(orderType, cmp, keyTypeBag,
+          valTypeBag.decrease(replaced[0].value.getType()).increase(value.getType()), rootNew);
+    }
+
+    return new PersistentSortedMap(orderType, cmp, keyTypeBag.increase(key.getType()),
+        valTypeBag.increase(value.getType()), rootNew);
+  }
+
+  @Override
+  public IMap removeKey(IValue key) {
+    if (!isOrdered(key)) {
+      return this;
+    }
+
+    final Node[] removed = new Node[1];
+    final Node rootNew = SortedTree.remove(root, key, cmp, removed);
+
+    if (removed[0] == null) {
+      return this;
+    }
+
+    return new PersistentSortedMap(orderType, cmp, keyTypeBag.decrease(removed[0].key.getType()),
+        valTypeBag.decrease(removed[0].value.getType()), rootNew);
+  }
+
+  @Override
+  public Iterator<IValue> iterator() {
+    return SortedTree.iterator(root, null, null, cmp, node -> node.key);
+  }
+
+  @Override
+  public Iterator<IValue> valueIterator() {
+    return SortedTree.iterator(root, null, null, cmp, node -> node.value);
+  }
+
+  @Override
+  public Iterator<Entry<IValue, IValue>> entryIterator() {
+    return entryIterator(null, null);
+  }
+
+  @Override
+  public int hashCode() {
+    if (cachedHashCode == 0) {
+      // consistent with the other maps, see java.util.Map#hashCode()
+      int hash = 0;
+      for (Iterator<Entry<IValue, IValue>> it = entryIterator(); it.hasNext();) {
+        final Entry<IValue, IValue> entry = it.next();
+        hash += entry.getKey().hashCode() ^ entry.getValue().hashCode();
+      }
+      cachedHashCode = hash;
+    }
+    return cachedHashCode;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == this) {
+      return true;
+    }
+    if (!(other instanceof IMap)) {
+      return false;
+    }
+
+    final IMap that = (IMap) other;
+
+    if (getType() != that.getType() || size() != that.size()) {
+      return false;
+    }
+
+    for (Iterator<Entry<IValue, IValue>> it = that.entryIterator(); it.hasNext();) {
+      final Entry<IValue, IValue> entry = it.next();
+      final Node node = isOrdered(entry.getKey()) ? SortedTree.get(root, entry.getKey(), cmp) : null;
+
+      if (node == null || !node.key.equals(entry.getKey()) || !node.value.equals(entry.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isEqual(IValue other) {
+    if (other == this) {
+      return true;
+    }
+    if (!(other instanceof IMap)) {
+      return false;
+    }
+
+    final IMap that = (IMap) other;
+
+    if (size() != that.size()) {
+      return false;
+    }
+
+    for (Iterator<Entry<IValue, IValue>> it = that.entryIterator(); it.hasNext();) {
+      final Entry<IValue, IValue> entry = it.next();
+      final IValue value = get(entry.getKey());
+
+      if (value == null || !value.isEqual(entry.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean match(IValue other) {
+    if (!(other instanceof IMap)) {
+      return false;
+    }
+
+    return MapFunctions.match(getValueFactory(), this, other);
+  }
+}
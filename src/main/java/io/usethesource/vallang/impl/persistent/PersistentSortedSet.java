@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl.persistent;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import io.usethesource.vallang.ISet;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.exceptions.UnexpectedElementTypeException;
+import io.usethesource.vallang.impl.AbstractSet;
+import io.usethesource.vallang.impl.func.SetFunctions;
+import io.usethesource.vallang.impl.persistent.SortedTree.Node;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.util.AbstractTypeBag;
+import io.usethesource.vallang.util.ValueOrdering;
+
+/**
+ * A persistent set which keeps its elements in the natural order of a type (see {@link ValueOrdering}),
+ * for ordered traversal, minimum and maximum, floor and ceiling, rank and range queries in
+ * logarithmic time. It is an ordinary {@link ISet} otherwise: it is equal to hash sets with the same
+ * elements, and inserting a value which is not of the ordered type produces an unordered set.
+ */
+public final class PersistentSortedSet extends AbstractSet {
+
+  private Type cachedSetType;
+  private int cachedHashCode = 0;
+  private final Type orderType;
+  private final Comparator<IValue> cmp;
+  private final AbstractTypeBag elementTypeBag;
+  private final Node root;
+
+  private PersistentSortedSet(Type orderType, Comparator<IValue> cmp, AbstractTypeBag elementTypeBag,
+      Node root) {
+    this.orderType = orderType;
+    this.cmp = cmp;
+    this.elementTypeBag = Objects.requireNonNull(elementTypeBag);
+    this.root = root;
+  }
+
+  /**
+   * @param orderType the type of the elements, of which the natural order is used
+   * @return the empty set
+   * @throws IllegalArgumentException if the values of the type are not ordered
+   */
+  public static PersistentSortedSet empty(Type orderType) {
+    return new PersistentSortedSet(orderType, ValueOrdering.forType(orderType), AbstractTypeBag.of(), null);
+  }
+
+  /**
+   * @return the elements of the set in the natural order of its element type
+   * @throws IllegalArgumentException if the values of the element type are not ordered, or if the
+   *         set is empty: it has no element type to order on, so use {@link #empty(Type)} instead
+   */
+  public static PersistentSortedSet of(ISet set) {
+    if (set instanceof PersistentSortedSet) {
+      return (PersistentSortedSet) set;
+    }
+    if (set.isEmpty()) {
+      throw new IllegalArgumentException("An empty set has no element type to order on, use empty(Type) instead");
+    }
+
+    final Type orderType = set.getElementType();
+    final Comparator<IValue> cmp = ValueOrdering.forType(orderType);
+    final AbstractTypeBag.TransientTypeBag bag = AbstractTypeBag.transientOf();
+    final List<IValue> elements = new ArrayList<>(set.size());
+
+    for (IValue elem : set) {
+      elements.add(elem);
+      bag.increase(elem.getType());
+    }
+    elements.sort(cmp);
+
+    return new PersistentSortedSet(orderType, cmp, bag.freeze(), SortedTree.fromSorted(elements, null));
+  }
+
+  /**
+   * @param elements a sorted subset of this set
+   */
+  private PersistentSortedSet subset(List<IValue> elements) {
+    if (elements.size() == size()) {
+      return this;
+    }
+
+    final AbstractTypeBag.TransientTypeBag bag = AbstractTypeBag.transientOf();
+    for (IValue elem : elements) {
+      bag.increase(elem.getType());
+    }
+    return new PersistentSortedSet(orderType, cmp, bag.freeze(), SortedTree.fromSorted(elements, null));
+  }
+
+  private IValue checkOrdered(IValue value) {
+    if (!isOrdered(value)) {
+      throw new UnexpectedElementTypeException(orderType, value.getType());
+    }
+    return value;
+  }
+
+  private boolean isOrdered(IValue value) {
+    return value.getType().isSubtypeOf(orderType);
+  }
+
+  /**
+   * @return the smallest element
+   * @throws NoSuchElementException if the set is empty
+   */
+  public IValue first() {
+    if (root == null) {
+      throw new NoSuchElementException();
+    }
+    return SortedTree.first(root).key;
+  }
+
+  /**
+   * @return the largest element
+   * @throws NoSuchElementException if the set is empty
+   */
+  public IValue last() {
+    if (root == null) {
+      throw new NoSuchElementException();
+    }
+    return SortedTree.last(root).key;
+  }
+
+  /**
+   * @return the largest element less than or equal to the value, or null if there is none
+   */
+  public IValue floor(IValue value) {
+    final Node node = SortedTree.floor(root, checkOrdered(value), cmp);
+    return node == null ? null : node.key;
+  }
+
+  /**
+   * @return the smallest element greater than or equal to the value, or null if there is none
+   */
+  public IValue ceiling(IValue value) {
+    final Node node = SortedTree.ceiling(root, checkOrdered(value), cmp);
+    return node == null ? null : node.key;
+  }
+
+  /**
+   * @return the number of elements which are less than the value
+   */
+  public int rank(IValue value) {
+    return SortedTree.rank(root, checkOrdered(value), cmp);
+  }
+
+  /**
+   * @return the element at the given position in the order of the set
+   * @throws IndexOutOfBoundsException if the index is negative or not less than the size of the set
+   */
+  public IValue get(int index) {
+    return SortedTree.select(root, index).key;
+  }
+
+  /**
+   * @param from inclusive lower bound, or null
+   * @param to exclusive upper bound, or null
+   * @return the elements in the range, in order
+   */
+  public Iterator<IValue> iterator(IValue from, IValue to) {
+    return SortedTree.iterator(root, from == null ? null : checkOrdered(from),
+        to == null ? null : checkOrdered(to), cmp, node -> node.key);
+  }
+
+  /**
+   * @param from inclusive lower bound, or null
+   * @param to exclusive upper bound, or null
+   * @return the set of the elements in the range
+   */
+  public PersistentSortedSet range(IValue from, IValue to) {
+    final List<IValue> elements = new ArrayList<>();
+    iterator(from, to).forEachRemaining(elements::add);
+    return subset(elements);
+  }
+
+  @Override
+  protected IValueFactory getValueFactory() {
+    return ValueFactory.getInstance();
+  }
+
+  @Override
+  public Type getType() {
+    if (cachedSetType == null) {
+      cachedSetType = inferSetOrRelType(elementTypeBag.lub(), isEmpty());
+    }
+    return cachedSetType;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return root == null;
+  }
+
+  @Override
+  public int size() {
+    return SortedTree.size(root);
+  }
+
+  @Override
+  public boolean contains(IValue value) {
+    return isOrdered(value) && SortedTree.get(root, value, cmp) != null;
+  }
+
+  @Override
+  public ISet insert(IValue value) {
+    if (!isOrdered(value)) {
+      return super.insert(value);
+    }
+
+    final Node[] replaced = new Node[1];
+    final Node rootNew = SortedTree.put(root, value, null, cmp, replaced);
+
+    if (rootNew == root) {
+      return this;
+    }
+
+    return new PersistentSortedSet(orderType, cmp, elementTypeBag.increase(value.getType()), rootNew);
+  }
+
+  @Override
+  public ISet delete(IValue value) {
+    if (!isOrdered(value)) {
+      return this;
+    }
+
+    final Node[] removed = new Node[1];
+    final Node rootNew = SortedTree.remove(root, value, cmp, removed);
+
+    if (removed[0] == null) {
+      return this;
+    }
+
+    return new PersistentSortedSet(orderType, cmp, elementTypeBag.decrease(removed[0].key.getType()), rootNew);
+  }
+
+  @Override
+  public ISet union(ISet other) {
+    if (other == this || other.isEmpty()) {
+      return this;
+    }
+
+    if (other instanceof PersistentSortedSet && other.size() > size()
+        && ((PersistentSortedSet) other).orderType == orderType) {
+      return other.union(this);
+    }
+
+    ISet result = this;
+    for (IValue elem : other) {
+      result = result.insert(elem);
+    }
+    return result;
+  }
+
+  @Override
+  public ISet intersect(ISet other) {
+    if (other == this) {
+      return this;
+    }
+
+    final List<IValue> elements = new ArrayList<>();
+    for (IValue elem : this) {
+      if (other.contains(elem)) {
+        elements.add(elem);
+      }
+    }
+    return subset(elements);
+  }
+
+  @Override
+  public ISet subtract(ISet other) {
+    if (other.isEmpty()) {
+      return this;
+    }
+
+    final List<IValue> elements = new ArrayList<>();
+    for (IValue elem : this) {
+      if (!other.contains(elem)) {
+        elements.add(elem);
+      }
+    }
+    return subset(elements);
+  }
+
+  @Override
+  public boolean isSubsetOf(ISet other) {
+    for (IValue elem : this) {
+      if (!other.contains(elem)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Iterator<IValue> iterator() {
+    return iterator(null, null);
+  }
+
+  @Override
+  public int hashCode() {
+    if (cachedHashCode == 0) {
+      // consistent with the other sets, see java.util.Set#hashCode()
+      int hash = 0;
+      for (IValue elem : this) {
+        hash += elem.hashCode();
+      }
+      cachedHashCode = hash;
+    }
+    return cachedHashCode;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == this) {
+      return true;
+    }
+    if (!(other instanceof ISet)) {
+      return false;
+    }
+
+    final ISet that = (ISet) other;
+
+    if (getType() != that.getType() || size() != that.size()) {
+      return false;
+    }
+
+    for (IValue elem : that) {
+      final Node node = isOrdered(elem) ? SortedTree.get(root, elem, cmp) : null;
+      if (node == null || !node.key.equals(elem)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isEqual(IValue other) {
+    if (other == this) {
+      return true;
+    }
+    if (!(other instanceof ISet)) {
+      return false;
+    }
+
+    final ISet that = (ISet) other;
+
+    if (size() != that.size()) {
+      return false;
+    }
+
+    for (IValue elem : that) {
+      if (!contains(elem)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean match(IValue other) {
+    if (!(other instanceof ISet)) {
+      return false;
+    }
+    return SetFunctions.match(getValueFactory(), this, other);
+  }
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl.persistent;
+
+import io.usethesource.vallang.ISet;
+
+/**
+ * The difference between two versions of a set: the elements which were added and the elements
+ * which were removed, as computed by {@link #between(ISet, ISet)}. {@link #applyTo(ISet)}
+ * patches a version with it.
+ */
+public final class SetDiff {
+  private final ISet added;
+  private final ISet removed;
+
+  /*package*/ SetDiff(ISet added, ISet removed) {
+    this.added = added;
+    this.removed = removed;
+  }
+
+  /**
+   * Compares two versions of any set: persistent sets and relations are compared with their own
+   * <code>diff</code>, other sets (such as the empty set) by subtracting them from each other.
+   *
+   * @return the changes which turn the first version into the second one
+   */
+  public static SetDiff between(ISet from, ISet to) {
+    if (from instanceof PersistentHashSet) {
+      return ((PersistentHashSet) from).diff(to);
+    }
+    if (from instanceof PersistentHashIndexedBinaryRelation) {
+      return ((PersistentHashIndexedBinaryRelation) from).diff(to);
+    }
+    return new SetDiff(to.subtract(from), from.subtract(to));
+  }
+
+  /**
+   * @return the elements which are in the new version, but not in the old one
+   */
+  public ISet getAdded() {
+    return added;
+  }
+
+  /**
+   * @return the elements which are in the old version, but not in the new one
+   */
+  public ISet getRemoved() {
+    return removed;
+  }
+
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty();
+  }
+
+  /**
+   * @return the diff which undoes this one
+   */
+  public SetDiff inverse() {
+    return new SetDiff(removed, added);
+  }
+
+  /**
+   * Patches a set with this diff; applying the diff of two versions to the first version gives the second.
+   */
+  public ISet applyTo(ISet set) {
+    ISet result = set;
+    if (!removed.isEmpty()) {
+      result = result.subtract(removed);
+    }
+    if (!added.isEmpty()) {
+      result = result.union(added);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "+" + added + " -" + removed;
+  }
+}
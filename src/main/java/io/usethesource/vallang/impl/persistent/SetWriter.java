@@ -30,6 +30,7 @@ import io.usethesource.vallang.exceptions.UnexpectedElementTypeException;
 import io.usethesource.vallang.type.Type;
 import io.usethesource.vallang.type.TypeFactory;
 import io.usethesource.vallang.util.AbstractTypeBag;
+import io.usethesource.vallang.util.AbstractTypeBag.TransientTypeBag;
 import io.usethesource.vallang.util.EqualityUtils;
 
 /*
@@ -75,24 +76,24 @@ public class SetWriter implements ISetWriter {
   
   private final static class SetBuilder implements Builder {
       private final Set.Transient<IValue> set = Set.Transient.of();
-      private AbstractTypeBag elementTypeBag = AbstractTypeBag.of();
+      private final TransientTypeBag elementTypeBag = AbstractTypeBag.transientOf();
 
       @Override
       public void put(IValue element, Type elementType) {
           if (set.__insert(element)) {
-              elementTypeBag = elementTypeBag.increase(elementType);
+              elementTypeBag.increase(elementType);
           }
       }
       
       @Override
       public ISet done() {
-          return PersistentSetFactory.from(elementTypeBag, set.freeze());
+          return PersistentSetFactory.from(elementTypeBag.freeze(), set.freeze());
       }
   }
   
   private final static class MultiMapBuilder implements Builder {
-      AbstractTypeBag keyTypeBag = AbstractTypeBag.of();
-      AbstractTypeBag valTypeBag = AbstractTypeBag.of();
+      final TransientTypeBag keyTypeBag = AbstractTypeBag.transientOf();
+      final TransientTypeBag valTypeBag = AbstractTypeBag.transientOf();
       @SuppressWarnings("deprecation")
       SetMultimap.Transient<IValue, IValue> map = SetMultimap.Transient.of(equivalenceEqualityComparator);
 
@@ -101,14 +102,14 @@ public class SetWriter implements ISetWriter {
           IValue key = ((ITuple)element).get(0);
           IValue value = ((ITuple)element).get(1);
           if (map.__insert(key, value)) {
-              keyTypeBag = keyTypeBag.increase(elementType.getFieldType(0));
-              valTypeBag = valTypeBag.increase(elementType.getFieldType(1));
+              keyTypeBag.increase(elementType.getFieldType(0));
+              valTypeBag.increase(elementType.getFieldType(1));
           }
       }
       
       @Override
       public ISet done() {
-          return PersistentSetFactory.from(keyTypeBag, valTypeBag, map.freeze());
+          return PersistentSetFactory.from(keyTypeBag.freeze(), valTypeBag.freeze(), map.freeze());
       }
 
   }
@@ -0,0 +1,320 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.impl.persistent;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import io.usethesource.vallang.IValue;
+
+/**
+ * An immutable AVL tree of which the nodes know the size of their subtree, as used by
+ * {@link PersistentSortedSet} and {@link PersistentSortedMap}. Updates copy the path from the
+ * root to the updated node only; lookups, floor/ceiling and rank queries take logarithmic time,
+ * and iterating over a range takes logarithmic time plus the size of the range.
+ * <br/>
+ * An empty tree is represented by <code>null</code>. Sets store their elements as keys without
+ * values.
+ */
+/*package*/ final class SortedTree {
+
+  private SortedTree() { }
+
+  /*package*/ static final class Node {
+    final IValue key;
+    final IValue value;
+    final Node left;
+    final Node right;
+    final int height;
+    final int size;
+
+    private Node(IValue key, IValue value, Node left, Node right) {
+      this.key = key;
+      this.value = value;
+      this.left = left;
+      this.right = right;
+      this.height = Math.max(height(left), height(right)) + 1;
+      this.size = size(left) + size(right) + 1;
+    }
+  }
+
+  /*package*/ static int size(Node node) {
+    return node == null ? 0 : node.size;
+  }
+
+  private static int height(Node node) {
+    return node == null ? 0 : node.height;
+  }
+
+  /*package*/ static Node get(Node node, IValue key, Comparator<IValue> cmp) {
+    while (node != null) {
+      final int c = cmp.compare(key, node.key);
+      if (c == 0) {
+        return node;
+      }
+      node = c < 0 ? node.left : node.right;
+    }
+    return null;
+  }
+
+  /**
+   * @param replaced receives the node with an equal key, if any
+   * @return the tree with the key mapped to the value, or the same tree if it was already
+   */
+  /*package*/ static Node put(Node node, IValue key, IValue value, Comparator<IValue> cmp, Node[] replaced) {
+    if (node == null) {
+      return new Node(key, value, null, null);
+    }
+
+    final int c = cmp.compare(key, node.key);
+    if (c == 0) {
+      replaced[0] = node;
+      if (node.value == value || (value != null && node.value != null && node.value.isEqual(value))) {
+        return node;
+      }
+      return new Node(node.key, value, node.left, node.right);
+    }
+
+    if (c < 0) {
+      final Node left = put(node.left, key, value, cmp, replaced);
+      return left == node.left ? node : balance(node.key, node.value, left, node.right);
+    }
+
+    final Node right = put(node.right, key, value, cmp, replaced);
+    return right == node.right ? node : balance(node.key, node.value, node.left, right);
+  }
+
+  /**
+   * @param removed receives the removed node, if any
+   * @return the tree without the key, or the same tree if it did not contain it
+   */
+  /*package*/ static Node remove(Node node, IValue key, Comparator<IValue> cmp, Node[] removed) {
+    if (node == null) {
+      return null;
+    }
+
+    final int c = cmp.compare(key, node.key);
+    if (c == 0) {
+      removed[0] = node;
+
+      if (node.left == null) {
+        return node.right;
+      }
+      if (node.right == null) {
+        return node.left;
+      }
+
+      final Node successor = first(node.right);
+      return balance(successor.key, successor.value, node.left, removeFirst(node.right));
+    }
+
+    if (c < 0) {
+      final Node left = remove(node.left, key, cmp, removed);
+      return left == node.left ? node : balance(node.key, node.value, left, node.right);
+    }
+
+    final Node right = remove(node.right, key, cmp, removed);
+    return right == node.right ? node : balance(node.key, node.value, node.left, right);
+  }
+
+  private static Node removeFirst(Node node) {
+    if (node.left == null) {
+      return node.right;
+    }
+    return balance(node.key, node.value, removeFirst(node.left), node.right);
+  }
+
+  private static Node balance(IValue key, IValue value, Node left, Node right) {
+    final int diff = height(left) - height(right);
+
+    if (diff > 1) {
+      if (height(left.left) >= height(left.right)) {
+        return new Node(left.key, left.value, left.left, new Node(key, value, left.right, right));
+      }
+      return new Node(left.right.key, left.right.value,
+          new Node(left.key, left.value, left.left, left.right.left),
+          new Node(key, value, left.right.right, right));
+    }
+
+    if (diff < -1) {
+      if (height(right.right) >= height(right.left)) {
+        return new Node(right.key, right.value, new Node(key, value, left, right.left), right.right);
+      }
+      return new Node(right.left.key, right.left.value,
+          new Node(key, value, left, right.left.left),
+          new Node(right.key, right.value, right.left.right, right.right));
+    }
+
+    return new Node(key, value, left, right);
+  }
+
+  /**
+   * @param keys sorted and distinct keys
+   * @param values the values of the keys, or null for a set
+   * @return a balanced tree, built in linear time
+   */
+  /*package*/ static Node fromSorted(List<IValue> keys, List<IValue> values) {
+    return fromSorted(keys, values, 0, keys.size());
+  }
+
+  private static Node fromSorted(List<IValue> keys, List<IValue> values, int from, int to) {
+    if (from >= to) {
+      return null;
+    }
+
+    final int mid = (from + to) >>> 1;
+    return new Node(keys.get(mid), values == null ? null : values.get(mid),
+        fromSorted(keys, values, from, mid), fromSorted(keys, values, mid + 1, to));
+  }
+
+  /*package*/ static Node first(Node node) {
+    if (node == null) {
+      return null;
+    }
+    while (node.left != null) {
+      node = node.left;
+    }
+    return node;
+  }
+
+  /*package*/ static Node last(Node node) {
+    if (node == null) {
+      return null;
+    }
+    while (node.right != null) {
+      node = node.right;
+    }
+    return node;
+  }
+
+  /**
+   * @return the node with the greatest key less than or equal to the given key, or null
+   */
+  /*package*/ static Node floor(Node node, IValue key, Comparator<IValue> cmp) {
+    Node result = null;
+    while (node != null) {
+      final int c = cmp.compare(key, node.key);
+      if (c == 0) {
+        return node;
+      }
+      if (c < 0) {
+        node = node.left;
+      } else {
+        result = node;
+        node = node.right;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the node with the least key greater than or equal to the given key, or null
+   */
+  /*package*/ static Node ceiling(Node node, IValue key, Comparator<IValue> cmp) {
+    Node result = null;
+    while (node != null) {
+      final int c = cmp.compare(key, node.key);
+      if (c == 0) {
+        return node;
+      }
+      if (c > 0) {
+        node = node.right;
+      } else {
+        result = node;
+        node = node.left;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of keys which are less than the given key
+   */
+  /*package*/ static int rank(Node node, IValue key, Comparator<IValue> cmp) {
+    int result = 0;
+    while (node != null) {
+      final int c = cmp.compare(key, node.key);
+      if (c <= 0) {
+        if (c == 0) {
+          return result + size(node.left);
+        }
+        node = node.left;
+      } else {
+        result += size(node.left) + 1;
+        node = node.right;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the node at the given position in the order of the keys
+   */
+  /*package*/ static Node select(Node node, int index) {
+    if (index < 0 || index >= size(node)) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size(node));
+    }
+
+    while (true) {
+      final int leftSize = size(node.left);
+      if (index == leftSize) {
+        return node;
+      }
+      if (index < leftSize) {
+        node = node.left;
+      } else {
+        index -= leftSize + 1;
+        node = node.right;
+      }
+    }
+  }
+
+  /**
+   * Iterates in order over the nodes with a key in the range [from, to); a null bound is unbounded.
+   */
+  /*package*/ static <T> Iterator<T> iterator(Node root, IValue from, IValue to, Comparator<IValue> cmp,
+      Function<Node, T> f) {
+    final Deque<Node> stack = new ArrayDeque<>();
+
+    // push the path to the first node in the range
+    Node node = root;
+    while (node != null) {
+      if (from == null || cmp.compare(from, node.key) <= 0) {
+        stack.push(node);
+        node = node.left;
+      } else {
+        node = node.right;
+      }
+    }
+
+    return new Iterator<T>() {
+      @Override
+      public boolean hasNext() {
+        return !stack.isEmpty() && (to == null || cmp.compare(stack.peek().key, to) < 0);
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        final Node result = stack.pop();
+        for (Node n = result.right; n != null; n = n.left) {
+          stack.push(n);
+        }
+        return f.apply(result);
+      }
+    };
+  }
+}
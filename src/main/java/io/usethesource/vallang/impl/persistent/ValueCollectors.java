@@ -5,6 +5,7 @@ import io.usethesource.capsule.SetMultimap;
 import io.usethesource.capsule.util.stream.DefaultCollector;
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.util.AbstractTypeBag;
+import io.usethesource.vallang.util.AbstractTypeBag.TransientTypeBag;
 import io.usethesource.vallang.ISet;
 import io.usethesource.vallang.ITuple;
 
@@ -22,19 +23,19 @@ public class ValueCollectors {
   public static <T extends IValue> Collector<T, ?, ISet> toSet() {
 
     class SetStruct {
-      AbstractTypeBag elementTypeBag = AbstractTypeBag.of();
+      final TransientTypeBag elementTypeBag = AbstractTypeBag.transientOf();
       Set.Transient<T> set = Set.Transient.of();
     }
 
     /** extract key/value from type {@code T} and insert into multimap */
     final BiConsumer<SetStruct, T> accumulator = (struct, element) -> {
       if (struct.set.__insert(element)) {
-        struct.elementTypeBag = struct.elementTypeBag.increase(element.getType());
+        struct.elementTypeBag.increase(element.getType());
       }
     };
 
     return new DefaultCollector<>(SetStruct::new, accumulator, unsupportedCombiner(),
-        struct -> PersistentSetFactory.from(struct.elementTypeBag,
+        struct -> PersistentSetFactory.from(struct.elementTypeBag.freeze(),
             (Set.Immutable<IValue>) struct.set.freeze()),
         UNORDERED);
   }
@@ -48,8 +49,8 @@ public class ValueCollectors {
       Optional<String> valueLabel, Function<? super T, ? extends V> valueMapper) {
 
     class SetMultimapStruct {
-      AbstractTypeBag keyTypeBag = AbstractTypeBag.of(keyLabel.orElse(null));
-      AbstractTypeBag valTypeBag = AbstractTypeBag.of(valueLabel.orElse(null));
+      final TransientTypeBag keyTypeBag = AbstractTypeBag.transientOf(keyLabel.orElse(null));
+      final TransientTypeBag valTypeBag = AbstractTypeBag.transientOf(valueLabel.orElse(null));
       SetMultimap.Transient<K, V> map =
           SetMultimap.Transient.of(equivalenceEqualityComparator);
     }
@@ -60,14 +61,14 @@ public class ValueCollectors {
       final V val = valueMapper.apply(element);
 
       if (struct.map.__insert(key, val)) {
-        struct.keyTypeBag = struct.keyTypeBag.increase(key.getType());
-        struct.valTypeBag = struct.valTypeBag.increase(val.getType());
+        struct.keyTypeBag.increase(key.getType());
+        struct.valTypeBag.increase(val.getType());
       }
     };
 
     return new DefaultCollector<>(SetMultimapStruct::new, accumulator,
-        unsupportedCombiner(), struct -> PersistentSetFactory.from(struct.keyTypeBag,
-            struct.valTypeBag, (SetMultimap.Immutable<IValue, IValue>) struct.map.freeze()),
+        unsupportedCombiner(), struct -> PersistentSetFactory.from(struct.keyTypeBag.freeze(),
+            struct.valTypeBag.freeze(), (SetMultimap.Immutable<IValue, IValue>) struct.map.freeze()),
         UNORDERED);
   }
 
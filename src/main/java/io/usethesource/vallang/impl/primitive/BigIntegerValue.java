@@ -85,6 +85,11 @@ import io.usethesource.vallang.visitors.IValueVisitor;
 		return value.toByteArray();
 	}
 	
+	@Override
+	public int bitLength(){
+		return value.bitLength();
+	}
+	
 	@Override
 	public BigInteger toBigInteger(){
 		return value;
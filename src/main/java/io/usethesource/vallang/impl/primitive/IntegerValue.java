@@ -178,6 +178,11 @@ import io.usethesource.vallang.visitors.IValueVisitor;
 		return data;
 	}
 	
+	@Override
+	public int bitLength(){
+		return 32 - Integer.numberOfLeadingZeros(value < 0 ? ~value : value);
+	}
+	
 	@Override
 	public BigInteger toBigInteger(){
 		return new BigInteger(getTwosComplementRepresentation());
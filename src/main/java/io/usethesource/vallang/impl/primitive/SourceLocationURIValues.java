@@ -2,6 +2,7 @@ package io.usethesource.vallang.impl.primitive;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Objects;
 import java.util.regex.Pattern;
 
 import io.usethesource.vallang.ISourceLocation;
@@ -13,6 +14,7 @@ import io.usethesource.vallang.IWithKeywordParameters;
 import io.usethesource.vallang.impl.AbstractValue;
 import io.usethesource.vallang.type.Type;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 
@@ -22,7 +24,69 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 /*package*/ class SourceLocationURIValues {
 	private static final Pattern schemePattern = Pattern.compile("[A-Za-z][A-Za-z0-9+\\-.]*");
 	private static final Pattern doubleSlashes = Pattern.compile("//+");
+	
+	/**
+	 * Locations in the same file are created over and over again, so complete URIs are interned on the
+	 * (unnormalized) strings they are created from. This way they share a single URI object, and the 
+	 * normalization and validation below only happen once per URI.
+	 */
+	private static final Cache<URIKey, ISourceLocation> INTERNED_URIS = Caffeine.newBuilder()
+	        .maximumSize(100_000)
+	        .build();
+	
 	static ISourceLocation newURI(String scheme, String authority, String path, String query, String fragment) throws URISyntaxException  {
+	    URIKey key = new URIKey(scheme, authority, path, query, fragment);
+	    ISourceLocation result = INTERNED_URIS.getIfPresent(key);
+	    
+	    if (result == null) {
+	        result = createURI(scheme, authority, path, query, fragment);
+	        INTERNED_URIS.put(key, result);
+	    }
+	    
+	    return result;
+	}
+	
+	private static final class URIKey {
+	    private final String scheme;
+	    private final String authority;
+	    private final String path;
+	    private final String query;
+	    private final String fragment;
+	    private final int hash;
+	    
+	    public URIKey(String scheme, String authority, String path, String query, String fragment) {
+	        this.scheme = scheme;
+	        this.authority = authority;
+	        this.path = path;
+	        this.query = query;
+	        this.fragment = fragment;
+	        this.hash = Objects.hash(scheme, authority, path, query, fragment);
+	    }
+	    
+	    @Override
+	    public int hashCode() {
+	        return hash;
+	    }
+	    
+	    @Override
+	    public boolean equals(Object obj) {
+	        if (this == obj) {
+	            return true;
+	        }
+	        if (!(obj instanceof URIKey)) {
+	            return false;
+	        }
+	        URIKey other = (URIKey) obj;
+	        return hash == other.hash
+	                && Objects.equals(path, other.path)
+	                && Objects.equals(scheme, other.scheme)
+	                && Objects.equals(authority, other.authority)
+	                && Objects.equals(query, other.query)
+	                && Objects.equals(fragment, other.fragment);
+	    }
+	}
+	
+	private static ISourceLocation createURI(String scheme, String authority, String path, String query, String fragment) throws URISyntaxException  {
 	    scheme = nullifyIfEmpty(scheme);
 	    authority = nullifyIfEmpty(authority);
 		if (path != null) {
@@ -106,8 +170,12 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 
     private static final LoadingCache<String, String> INTERNED_SCHEMES = Caffeine.newBuilder().build(s -> s);
 
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
     private static class BaseURI extends AbstractValue implements ISourceLocation {
 		protected final String scheme;
+		private int hash = 0; // an int, not the long fingerprint: it fits in the alignment gap and cannot be torn
 		
 		
 		public BaseURI(String scheme)  {
@@ -134,8 +202,38 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return false;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode(); 
+		public final int hashCode() {
+			int result = hash;
+			if (result == 0) {
+				long fp = fingerprint();
+				result = (int) (fp ^ (fp >>> 32));
+				if (result == 0) {
+					result = 1; // 0 means not computed yet
+				}
+				hash = result;
+			}
+			return result;
+		}
+
+		/**
+		 * A 64-bit hash over all components of this URI, which is folded into the cached hash code.
+		 * URIs with different hash codes are never equal, so equals only compares the strings on a collision.
+		 */
+		private long fingerprint() {
+			long result = FNV_OFFSET_BASIS;
+			result = fingerprint(result, getScheme());
+			result = fingerprint(result, getAuthority());
+			result = fingerprint(result, getPath());
+			result = fingerprint(result, getQuery());
+			result = fingerprint(result, getFragment());
+			return result;
+		}
+
+		private static long fingerprint(long hash, String component) {
+			for (int i = 0; i < component.length(); i++) {
+				hash = (hash ^ component.charAt(i)) * FNV_PRIME;
+			}
+			return (hash ^ 0xFFFF) * FNV_PRIME; // separates the components, 0xFFFF is not a character
 		}
 
 		@Override
@@ -357,10 +455,6 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return authority;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + authority.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
@@ -376,7 +470,6 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 	
 	private static class PathURI extends BaseURI {
 		protected final String path;
-		private int hash = 0; // we can cache the hash code since the 8-byte alignment leaves room for one
 		
 		public PathURI(String scheme, String path)  {
 			super(scheme);
@@ -401,20 +494,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return path;
 		}
 		@Override
-		public int hashCode() {
-		  if (hash == 0) {
-		    hash = scheme.hashCode() + path.hashCode();
-		  }
-			return hash;
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				PathURI u = (PathURI)obj;
-				if (hash != 0 && u.hash != 0 && hash != u.hash)
-				  return false;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& path.equals(u.path);
 			}
@@ -444,15 +530,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return path;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + authority.hashCode() + path.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				PathAuthorityURI u = (PathAuthorityURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& authority == u.authority
 					&& path.equals(u.path);
@@ -487,15 +571,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return query;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + query.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				QueryURI u = (QueryURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& query.equals(u.query)
 					;
@@ -526,15 +608,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return query;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + authority.hashCode() + query.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				QueryAuthorityURI u = (QueryAuthorityURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& authority == u.authority
 					&& query.equals(u.query)
@@ -570,15 +650,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return query;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + path.hashCode() + query.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				QueryPathURI u = (QueryPathURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& path.equals(u.path)
 					&& query.equals(u.query)
@@ -610,15 +688,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return query;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + authority.hashCode() + path.hashCode() + query.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				QueryPathAuthorityURI u = (QueryPathAuthorityURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& authority == u.authority
 					&& path.equals(u.path)
@@ -655,15 +731,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return fragment;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + fragment.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				FragmentURI u = (FragmentURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& fragment.equals(u.fragment)
 					;
@@ -694,15 +768,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return fragment;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + authority.hashCode() + fragment.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				FragmentAuthorityURI u = (FragmentAuthorityURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& authority == u.authority
 					&& fragment.equals(u.fragment)
@@ -738,15 +810,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return fragment;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + path.hashCode() + fragment.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				FragmentPathURI u = (FragmentPathURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& path.equals(u.path)
 					&& fragment.equals(u.fragment)
@@ -778,15 +848,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return fragment;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + authority.hashCode() + path.hashCode() + fragment.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				FragmentPathAuthorityURI u = (FragmentPathAuthorityURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& authority == u.authority
 					&& path.equals(u.path)
@@ -822,15 +890,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return fragment;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + query.hashCode() + fragment.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				FragmentQueryURI u = (FragmentQueryURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& query.equals(u.query)
 					&& fragment.equals(u.fragment)
@@ -862,15 +928,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return fragment;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + authority.hashCode() + query.hashCode() + fragment.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				FragmentQueryAuthorityURI u = (FragmentQueryAuthorityURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& authority == u.authority
 					&& query.equals(u.query)
@@ -907,15 +971,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return fragment;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + path.hashCode() + query.hashCode() + fragment.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				FragmentQueryPathURI u = (FragmentQueryPathURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& path.equals(u.path)
 					&& query.equals(u.query)
@@ -948,15 +1010,13 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 			return fragment;
 		}
 		@Override
-		public int hashCode() {
-			return scheme.hashCode() + authority.hashCode() + path.hashCode() + query.hashCode() + fragment.hashCode();
-		}
-		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
 			if(obj.getClass() == getClass()){
 				FragmentQueryPathAuthorityURI u = (FragmentQueryPathAuthorityURI)obj;
+				if (hashCode() != u.hashCode())
+					return false;
 				return scheme == u.scheme
 					&& authority == u.authority
 					&& path.equals(u.path)
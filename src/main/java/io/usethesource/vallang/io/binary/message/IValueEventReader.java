@@ -0,0 +1,508 @@
+/** 
+ * Copyright (c) 2016, Davy Landman, Paul Klint, Centrum Wiskunde & Informatica (CWI) 
+ * All rights reserved. 
+ *  
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met: 
+ *  
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer. 
+ *  
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution. 
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */ 
+package io.usethesource.vallang.io.binary.message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+
+import io.usethesource.capsule.Map;
+import io.usethesource.vallang.IMapWriter;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.io.binary.stream.IValueInputStream;
+import io.usethesource.vallang.io.binary.wire.IWireInputStream;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.type.TypeStore;
+
+/**
+ * StAX-style reader for values written by the {@link IValueWriter}. <br/>
+ * <br/>
+ * Instead of building the complete value, this reader reports the structure of the value as a sequence of events.
+ * Compound values are reported as a start event, the events of their nested values, and a matching end event.
+ * Atomic values (booleans, numbers, strings, locations and datetimes) are reported as a single {@linkplain #VALUE} event. <br/>
+ * <br/>
+ * A compound value is only constructed if {@linkplain #readValue()} is called on its start event, other compound values are never materialized.
+ * Since the writer replaces values it has seen before by a back reference, these show up as a {@linkplain #BACK_REFERENCE} event, 
+ * which can only be resolved if the value it refers to has been materialized. <br/>
+ * <br/>
+ * In most cases you want to get an instance from {@link IValueInputStream#readEvents()}.
+ */
+public class IValueEventReader implements Closeable {
+
+    public static final int VALUE = 0;
+    public static final int BACK_REFERENCE = 1;
+    public static final int START_CONSTRUCTOR = 2;
+    public static final int END_CONSTRUCTOR = 3;
+    public static final int START_NODE = 4;
+    public static final int END_NODE = 5;
+    public static final int START_LIST = 6;
+    public static final int END_LIST = 7;
+    public static final int START_SET = 8;
+    public static final int END_SET = 9;
+    public static final int START_MAP = 10;
+    public static final int END_MAP = 11;
+    public static final int START_TUPLE = 12;
+    public static final int END_TUPLE = 13;
+    public static final int START_KEYWORD_PARAMETERS = 14;
+    public static final int END_KEYWORD_PARAMETERS = 15;
+    public static final int START_ANNOTATIONS = 16;
+    public static final int END_ANNOTATIONS = 17;
+    public static final int END_OF_STREAM = 18;
+
+    private final IWireInputStream reader;
+    private final IValueFactory vf;
+    private final IValueReader values;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+
+    private int current = -1;
+    private IValue currentValue;
+    private boolean rootRead = false;
+    private boolean done = false;
+
+    /**
+     * Start reading the events of a value from the wire reader, this consumes the header of the stream.
+     */
+    public IValueEventReader(IWireInputStream reader, IValueFactory vf, Supplier<TypeStore> typeStoreSupplier) throws IOException {
+        this.reader = reader;
+        this.vf = vf;
+        int typeWindowSize = 0;
+        int valueWindowSize = 0;
+        int uriWindowSize = 0;
+        if (reader.next() != IWireInputStream.MESSAGE_START || reader.message() != IValueIDs.Header.ID) {
+            throw new IOException("Missing header at start of stream");
+        }
+        while (reader.next() != IWireInputStream.MESSAGE_END) {
+            switch (reader.field()) {
+                case IValueIDs.Header.VALUE_WINDOW: valueWindowSize = reader.getInteger();  break;
+                case IValueIDs.Header.TYPE_WINDOW: typeWindowSize = reader.getInteger();  break;
+                case IValueIDs.Header.SOURCE_LOCATION_WINDOW: uriWindowSize = reader.getInteger();  break;
+                case IValueIDs.Header.VALUE: 
+                    values = new IValueReader(vf, typeStoreSupplier, typeWindowSize, valueWindowSize, uriWindowSize);
+                    return;
+                default:
+                    reader.skipNestedField();
+                    break;
+            }
+        }
+        throw new IOException("Missing Value in the stream");
+    }
+
+    /**
+     * Advance to the next event.
+     * @return the new event, after the last event of the value, {@linkplain #END_OF_STREAM} is returned
+     */
+    public int next() throws IOException {
+        if (done) {
+            return current = END_OF_STREAM;
+        }
+        currentValue = null;
+        if (stack.isEmpty()) {
+            if (!rootRead) {
+                rootRead = true;
+                return current = readNestedValue();
+            }
+            reader.skipMessage(); // the rest of the header
+            close();
+            return current = END_OF_STREAM;
+        }
+        Frame top = stack.peek();
+        while (true) {
+            if (top.remaining > 0) {
+                top.remaining--;
+                return current = readNestedValue();
+            }
+            if (top.ended) {
+                return current = closeFrame();
+            }
+            int field = top.pendingField;
+            if (field == -1) {
+                if (reader.next() == IWireInputStream.MESSAGE_END) {
+                    return current = closeFrame();
+                }
+                field = reader.field();
+            }
+            top.pendingField = -1;
+            if (top.isChildrenField(field)) {
+                top.startChildren(reader.getRepeatedLength());
+            }
+            else if (top.isNamedValuesField(field)) {
+                return current = openNamedValues(top, field);
+            }
+            else {
+                reader.skipNestedField();
+            }
+        }
+    }
+
+    /**
+     * @return the last event returned by {@linkplain #next()}
+     */
+    public int current() {
+        return current;
+    }
+
+    /**
+     * @return the amount of compound values (and keyword parameters or annotations) the reader is currently in
+     */
+    public int depth() {
+        return stack.size();
+    }
+
+    /**
+     * Get the value of the current event, only valid for {@linkplain #VALUE} and {@linkplain #BACK_REFERENCE}.<br/>
+     * Note that for a back reference this is <code>null</code> if the referenced value was not materialized.
+     */
+    public IValue getValue() {
+        assert current == VALUE || current == BACK_REFERENCE;
+        return currentValue;
+    }
+
+    /**
+     * @return the constructor type, only valid for {@linkplain #START_CONSTRUCTOR}
+     */
+    public Type getConstructorType() {
+        assert current == START_CONSTRUCTOR;
+        return stack.peek().type;
+    }
+
+    /**
+     * @return the name of the constructor or node, only valid for {@linkplain #START_CONSTRUCTOR} and {@linkplain #START_NODE}
+     */
+    public String getName() {
+        assert current == START_CONSTRUCTOR || current == START_NODE;
+        Frame top = stack.peek();
+        return top.type != null ? top.type.getName() : top.name;
+    }
+
+    /**
+     * The amount of nested values of the current start event. This is the arity for constructors, nodes and tuples,
+     * the amount of elements for lists and sets, the amount of key/value pairs for maps (every entry is reported as a key followed by its value),
+     * and the amount of parameters for keyword parameters and annotations.
+     */
+    public int getSize() {
+        Frame top = stack.peek();
+        assert top != null && current == top.startEvent;
+        return top.size;
+    }
+
+    /**
+     * @return the names of the keyword parameters or annotations, in the order of their values, only valid for {@linkplain #START_KEYWORD_PARAMETERS} and {@linkplain #START_ANNOTATIONS}
+     */
+    public String[] getNames() {
+        assert current == START_KEYWORD_PARAMETERS || current == START_ANNOTATIONS;
+        return stack.peek().names;
+    }
+
+    /**
+     * Materialize the value of the current event. <br/>
+     * For a start event of a compound value, this consumes all the nested events, the reader will be positioned at the matching end event.
+     * @throws IOException in case the value contains a back reference to a value that was not materialized
+     */
+    public IValue readValue() throws IOException {
+        switch (current) {
+            case VALUE:
+                return currentValue;
+            case BACK_REFERENCE:
+                if (currentValue == null) {
+                    throw new IOException("Back reference to a value that was not materialized");
+                }
+                return currentValue;
+            case START_CONSTRUCTOR:
+            case START_NODE:
+            case START_LIST:
+            case START_SET:
+            case START_MAP:
+            case START_TUPLE: {
+                Frame top = stack.peek();
+                top.materialize();
+                int depth = stack.size();
+                while (stack.size() >= depth) {
+                    next();
+                }
+                return top.result;
+            }
+            default:
+                throw new IllegalStateException("Cannot read a value at event: " + current);
+        }
+    }
+
+    /**
+     * Skip the rest of the current compound value (or keyword parameters and annotations), without materializing it.
+     * The reader will be positioned at the matching end event. For other events nothing happens.
+     */
+    public void skipValue() throws IOException {
+        Frame top = stack.peek();
+        if (top != null && current == top.startEvent) {
+            int depth = stack.size();
+            while (stack.size() >= depth) {
+                next();
+            }
+        }
+    }
+
+    /**
+     * Return the windows to the cache, this does not close the underlying wire reader.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!done) {
+            done = true;
+            values.done();
+        }
+    }
+
+    private int readNestedValue() throws IOException {
+        reader.next();
+        assert reader.current() == IWireInputStream.MESSAGE_START;
+        switch (reader.message()) {
+            case IValueIDs.ConstructorValue.ID: return openFrame(new Frame(reader.message(), START_CONSTRUCTOR, END_CONSTRUCTOR));
+            case IValueIDs.NodeValue.ID: return openFrame(new Frame(reader.message(), START_NODE, END_NODE));
+            case IValueIDs.ListValue.ID: return openFrame(new Frame(reader.message(), START_LIST, END_LIST));
+            case IValueIDs.SetValue.ID: return openFrame(new Frame(reader.message(), START_SET, END_SET));
+            case IValueIDs.MapValue.ID: return openFrame(new Frame(reader.message(), START_MAP, END_MAP));
+            case IValueIDs.TupleValue.ID: return openFrame(new Frame(reader.message(), START_TUPLE, END_TUPLE));
+            case IValueIDs.PreviousValue.ID: {
+                int n = -1;
+                while (reader.next() != IWireInputStream.MESSAGE_END) {
+                    if (reader.field() == IValueIDs.PreviousValue.HOW_FAR_BACK) {
+                        n = reader.getInteger();
+                        reader.skipMessage();
+                        break;
+                    }
+                    reader.skipNestedField();
+                }
+                assert n != -1;
+                currentValue = values.lookBackValue(n);
+                provide(currentValue);
+                return BACK_REFERENCE;
+            }
+            default:
+                currentValue = values.readValueMessage(reader);
+                provide(currentValue);
+                return VALUE;
+        }
+    }
+
+    /**
+     * Read the fields that precede the nested values, so that the start event can report them.
+     */
+    private int openFrame(Frame frame) throws IOException {
+        Frame parent = stack.peek();
+        if (parent != null && parent.materialize) {
+            frame.materialize();
+        }
+        stack.push(frame);
+        while (reader.next() != IWireInputStream.MESSAGE_END) {
+            int field = reader.field();
+            if (field == IValueIDs.Common.CAN_BE_BACK_REFERENCED) {
+                frame.backReference = true;
+            }
+            else if (frame.kind == IValueIDs.ConstructorValue.ID && field == IValueIDs.ConstructorValue.TYPE) {
+                frame.type = values.readType(reader);
+            }
+            else if (frame.kind == IValueIDs.NodeValue.ID && field == IValueIDs.NodeValue.NAME) {
+                frame.name = reader.getString();
+            }
+            else if (frame.isChildrenField(field)) {
+                frame.startChildren(reader.getRepeatedLength());
+                return frame.startEvent;
+            }
+            else if (frame.isNamedValuesField(field)) {
+                frame.pendingField = field;
+                return frame.startEvent;
+            }
+            else {
+                reader.skipNestedField();
+            }
+        }
+        frame.ended = true;
+        frame.startChildren(0);
+        return frame.startEvent;
+    }
+
+    private int openNamedValues(Frame parent, int field) throws IOException {
+        boolean annotations = (parent.kind == IValueIDs.ConstructorValue.ID && field == IValueIDs.ConstructorValue.ANNOS)
+            || (parent.kind == IValueIDs.NodeValue.ID && field == IValueIDs.NodeValue.ANNOS);
+        Frame frame = annotations 
+            ? new Frame(IValueIDs.NamedValues.ID, START_ANNOTATIONS, END_ANNOTATIONS) 
+            : new Frame(IValueIDs.NamedValues.ID, START_KEYWORD_PARAMETERS, END_KEYWORD_PARAMETERS);
+        if (parent.materialize) {
+            frame.materialize();
+        }
+        stack.push(frame);
+        reader.next(); // the start of the named values message
+        frame.names = new String[0];
+        while (reader.next() != IWireInputStream.MESSAGE_END) {
+            switch (reader.field()) {
+                case IValueIDs.NamedValues.NAMES:
+                    frame.names = reader.getStrings();
+                    break;
+                case IValueIDs.NamedValues.VALUES:
+                    assert frame.names.length == reader.getRepeatedLength();
+                    frame.startChildren(reader.getRepeatedLength());
+                    return frame.startEvent;
+                default:
+                    reader.skipNestedField();
+                    break;
+            }
+        }
+        frame.ended = true;
+        frame.startChildren(0);
+        return frame.startEvent;
+    }
+
+    private int closeFrame() throws IOException {
+        Frame frame = stack.pop();
+        if (frame.kind == IValueIDs.NamedValues.ID) {
+            Frame parent = stack.peek();
+            if (frame.materialize) {
+                Map.Transient<String, IValue> result = Map.Transient.of();
+                for (int i = 0; i < frame.names.length; i++) {
+                    result.__put(frame.names[i], frame.children[i]);
+                }
+                if (frame.startEvent == START_ANNOTATIONS) {
+                    parent.annos = result.freeze();
+                }
+                else {
+                    parent.kwParams = result.freeze();
+                }
+            }
+            return frame.endEvent;
+        }
+        if (frame.materialize) {
+            frame.result = frame.build(vf);
+        }
+        if (frame.backReference) {
+            values.storeValue(frame.result);
+        }
+        provide(frame.result);
+        return frame.endEvent;
+    }
+
+    /**
+     * Pass a nested value to the compound value that is being materialized.
+     */
+    private void provide(IValue value) throws IOException {
+        Frame parent = stack.peek();
+        if (parent != null && parent.materialize) {
+            if (value == null) {
+                throw new IOException("Back reference to a value that was not materialized");
+            }
+            parent.children[parent.filled++] = value;
+        }
+    }
+
+    private static final class Frame {
+        final int kind;
+        final int startEvent;
+        final int endEvent;
+
+        boolean backReference = false;
+        boolean ended = false;
+        int pendingField = -1;
+        int remaining = 0;
+        int size = 0;
+
+        Type type;
+        String name;
+        String[] names;
+
+        boolean materialize = false;
+        IValue[] children;
+        int filled = 0;
+        Map.Immutable<String, IValue> kwParams;
+        Map.Immutable<String, IValue> annos;
+        IValue result;
+
+        Frame(int kind, int startEvent, int endEvent) {
+            this.kind = kind;
+            this.startEvent = startEvent;
+            this.endEvent = endEvent;
+        }
+
+        void materialize() {
+            materialize = true;
+            if (children == null) {
+                children = new IValue[remaining];
+            }
+        }
+
+        void startChildren(int length) {
+            remaining = length;
+            size = kind == IValueIDs.MapValue.ID ? length / 2 : length;
+            if (materialize) {
+                children = new IValue[length];
+            }
+        }
+
+        boolean isChildrenField(int field) {
+            switch (kind) {
+                case IValueIDs.ConstructorValue.ID: return field == IValueIDs.ConstructorValue.PARAMS;
+                case IValueIDs.NodeValue.ID: return field == IValueIDs.NodeValue.PARAMS;
+                case IValueIDs.ListValue.ID: return field == IValueIDs.ListValue.ELEMENTS;
+                case IValueIDs.SetValue.ID: return field == IValueIDs.SetValue.ELEMENTS;
+                case IValueIDs.MapValue.ID: return field == IValueIDs.MapValue.KV_PAIRS;
+                case IValueIDs.TupleValue.ID: return field == IValueIDs.TupleValue.CHILDREN;
+                default: return false;
+            }
+        }
+
+        boolean isNamedValuesField(int field) {
+            switch (kind) {
+                case IValueIDs.ConstructorValue.ID: return field == IValueIDs.ConstructorValue.KWPARAMS || field == IValueIDs.ConstructorValue.ANNOS;
+                case IValueIDs.NodeValue.ID: return field == IValueIDs.NodeValue.KWPARAMS || field == IValueIDs.NodeValue.ANNOS;
+                default: return false;
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        IValue build(IValueFactory vf) {
+            switch (kind) {
+                case IValueIDs.ConstructorValue.ID:
+                    if (annos != null) {
+                        return vf.constructor(type, annos, children);
+                    }
+                    if (kwParams != null) {
+                        return vf.constructor(type, children, kwParams);
+                    }
+                    return vf.constructor(type, children);
+                case IValueIDs.NodeValue.ID:
+                    if (annos != null) {
+                        return vf.node(name, children).asAnnotatable().setAnnotations(annos);
+                    }
+                    if (kwParams != null) {
+                        return vf.node(name, children, kwParams);
+                    }
+                    return vf.node(name, children);
+                case IValueIDs.ListValue.ID:
+                    return vf.list(children);
+                case IValueIDs.SetValue.ID:
+                    return vf.set(children);
+                case IValueIDs.MapValue.ID: {
+                    IMapWriter result = vf.mapWriter();
+                    for (int i = 0; i < children.length; i += 2) {
+                        result.put(children[i], children[i + 1]);
+                    }
+                    return result.done();
+                }
+                case IValueIDs.TupleValue.ID:
+                    return vf.tuple(children);
+                default:
+                    throw new IllegalStateException("Not a compound value: " + kind);
+            }
+        }
+    }
+}
@@ -51,6 +51,16 @@ public class IValueReader {
      * In most cases you want to use the {@linkplain IValueInputStream}!
      */
     public static IValue readValue(IWireInputStream reader, IValueFactory vf, Supplier<TypeStore> typeStoreSupplier) throws IOException {
+        return readValue(reader, vf, typeStoreSupplier, null);
+    }
+
+    /**
+     * Read a value from the wire reader, that was written with a shared type window by {@linkplain IValueWriter#write(io.usethesource.vallang.io.binary.wire.IWireOutputStream, IValueFactory, io.usethesource.vallang.io.binary.util.WindowSizes, IValue, io.usethesource.vallang.io.binary.util.TrackLastWritten)}. <br/>
+     * <br/>
+     * The values have to be read in the same order as they were written, and the type window has to be of the same size.
+     * @param typeWindow the shared type window, or null to use a fresh window for this value
+     */
+    public static IValue readValue(IWireInputStream reader, IValueFactory vf, Supplier<TypeStore> typeStoreSupplier, TrackLastRead<Type> typeWindow) throws IOException {
         int typeWindowSize = 0;
         int valueWindowSize = 0;
         int uriWindowSize = 0;
@@ -63,7 +73,7 @@ public class IValueReader {
                 case IValueIDs.Header.TYPE_WINDOW: typeWindowSize = reader.getInteger();  break;
                 case IValueIDs.Header.SOURCE_LOCATION_WINDOW: uriWindowSize = reader.getInteger();  break;
                 case IValueIDs.Header.VALUE: {
-                    IValueReader valueReader = new IValueReader(vf, typeStoreSupplier, typeWindowSize, valueWindowSize, uriWindowSize);
+                    IValueReader valueReader = new IValueReader(vf, typeStoreSupplier, typeWindow, typeWindowSize, valueWindowSize, uriWindowSize);
                     try {
                         IValue result = valueReader.readValue(reader);
                         reader.skipMessage();
@@ -113,9 +123,14 @@ public class IValueReader {
         throw new IOException("Missing Type in the stream");
     }
 
-    private IValueReader(IValueFactory vf, Supplier<TypeStore> typeStoreSupplier, int typeWindowSize, int valueWindowSize, int uriWindowSize) {
+    IValueReader(IValueFactory vf, Supplier<TypeStore> typeStoreSupplier, int typeWindowSize, int valueWindowSize, int uriWindowSize) {
+        this(vf, typeStoreSupplier, null, typeWindowSize, valueWindowSize, uriWindowSize);
+    }
+
+    private IValueReader(IValueFactory vf, Supplier<TypeStore> typeStoreSupplier, TrackLastRead<Type> sharedTypeWindow, int typeWindowSize, int valueWindowSize, int uriWindowSize) {
         WindowCacheFactory windowFactory = WindowCacheFactory.getInstance();
-        typeWindow = windowFactory.getTrackLastRead(typeWindowSize);
+        sharedTypes = sharedTypeWindow != null;
+        typeWindow = sharedTypes ? sharedTypeWindow : windowFactory.getTrackLastRead(typeWindowSize);
         valueWindow = windowFactory.getTrackLastRead(valueWindowSize);
         uriWindow = windowFactory.getTrackLastRead(uriWindowSize);
 
@@ -125,9 +140,11 @@ public class IValueReader {
         this.store = typeStoreSupplier.get();
     }
 
-    private void done() {
+    void done() {
         WindowCacheFactory windowFactory = WindowCacheFactory.getInstance();
-        windowFactory.returnTrackLastRead(typeWindow);
+        if (!sharedTypes) {
+            windowFactory.returnTrackLastRead(typeWindow);
+        }
         windowFactory.returnTrackLastRead(valueWindow);
         windowFactory.returnTrackLastRead(uriWindow);
     }
@@ -137,11 +154,12 @@ public class IValueReader {
     private final IValueFactory vf;
     private final TypeStore store;
 
+    private final boolean sharedTypes;
     private final TrackLastRead<Type> typeWindow;
     private final TrackLastRead<IValue> valueWindow;
     private final TrackLastRead<ISourceLocation> uriWindow;
     
-    private Type readType(final IWireInputStream reader) throws IOException{
+    Type readType(final IWireInputStream reader) throws IOException{
         reader.next();
         switch (reader.message()) {
             case IValueIDs.BoolType.ID:  
@@ -440,6 +458,13 @@ public class IValueReader {
 
     private IValue readValue(final IWireInputStream reader) throws IOException{
         reader.next();
+        return readValueMessage(reader);
+    }
+
+    /**
+     * Read the rest of a value message, the reader should already be positioned at its {@link IWireInputStream#MESSAGE_START}.
+     */
+    IValue readValueMessage(final IWireInputStream reader) throws IOException{
         assert reader.current() == IWireInputStream.MESSAGE_START;
         switch (reader.message()) {
             case IValueIDs.BoolValue.ID: return readBoolean(reader);
@@ -461,6 +486,20 @@ public class IValueReader {
         }
     }
 
+    /**
+     * Register a value that was read outside of this reader, but which could be back referenced.
+     */
+    void storeValue(IValue value) {
+        valueWindow.read(value);
+    }
+
+    /**
+     * Lookup a previously stored value.
+     */
+    IValue lookBackValue(int howFarBack) {
+        return valueWindow.lookBack(howFarBack);
+    }
+
     private IValue readPreviousValue(final IWireInputStream reader) throws IOException {
         int n = -1;
         while(reader.next() != IWireInputStream.MESSAGE_END){
@@ -24,6 +24,7 @@ import io.usethesource.vallang.ISet;
 import io.usethesource.vallang.ISourceLocation;
 import io.usethesource.vallang.IString;
 import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.io.binary.util.AdaptiveWindowSizes;
 import io.usethesource.vallang.io.binary.util.TrackLastWritten;
 import io.usethesource.vallang.io.binary.util.WindowCacheFactory;
 import io.usethesource.vallang.io.binary.util.WindowSizes;
@@ -58,6 +59,59 @@ public class IValueWriter {
     public static void write(IWireOutputStream writer, IValueFactory vf, WindowSizes size, IValue value) throws IOException {
         final WindowCacheFactory windowFactory = WindowCacheFactory.getInstance();
         TrackLastWritten<Type> typeCache = windowFactory.getTrackLastWrittenReferenceEquality(size.typeWindow);
+        try {
+            write(writer, vf, size, value, typeCache);
+        } finally {
+            windowFactory.returnTrackLastWrittenReferenceEquality(typeCache);
+        }
+    }
+
+    /**
+     * Write an IValue to an exisiting wire stream, with window sizes that adapt to the values written before. 
+     * The sizes used are stored in the stream, so the reader needs no extra information. <br />
+     * <br />
+     * In most cases you want to use the {@linkplain IValueOutputStream}.
+     *  
+     * @param writer the wire writer to use
+     * @param vf the value factory used to rewrite external value types
+     * @param size the adaptive window sizes, updated after the value is written
+     * @param value the value to write
+     * @throws IOException
+     */
+    public static void write(IWireOutputStream writer, IValueFactory vf, AdaptiveWindowSizes size, IValue value) throws IOException {
+        final WindowCacheFactory windowFactory = WindowCacheFactory.getInstance();
+        final WindowSizes sizes = size.current();
+        TrackLastWritten<Type> typeCache = windowFactory.getTrackLastWrittenReferenceEquality(sizes.typeWindow);
+        TrackLastWritten<IValue> valueCache = windowFactory.getTrackLastWrittenReferenceEquality(sizes.valueWindow);
+        TrackLastWritten<ISourceLocation> uriCache = windowFactory.getTrackLastWrittenReferenceEquality(sizes.uriWindow);
+        try {
+            writeHeader(writer, sizes.valueWindow, sizes.typeWindow, sizes.uriWindow);
+            writer.writeNestedField(IValueIDs.Header.VALUE);
+            write(writer, vf, value, typeCache, valueCache, uriCache);
+            writer.endMessage();
+            size.sample(sizes, valueCache, uriCache, typeCache);
+        } finally {
+            windowFactory.returnTrackLastWrittenReferenceEquality(typeCache);
+            windowFactory.returnTrackLastWrittenReferenceEquality(valueCache);
+            windowFactory.returnTrackLastWrittenReferenceEquality(uriCache);
+        }
+    }
+
+    /**
+     * Write an IValue to an exisiting wire stream, reusing a type window that is shared with other values on the same wire stream. <br />
+     * <br />
+     * The value and source location windows are still fresh for every value, so only the types can be back referenced across values.
+     * The reader has to pass a type window of the same size to {@linkplain IValueReader IValueReader}.readValue, and read the same sequence of values.
+     *  
+     * @param writer the wire writer to use
+     * @param vf the value factory used to rewrite external value types
+     * @param size the window sizes to use
+     * @param value the value to write
+     * @param typeCache the shared type window, should be of size {@code size.typeWindow}
+     * @throws IOException
+     */
+    public static void write(IWireOutputStream writer, IValueFactory vf, WindowSizes size, IValue value, TrackLastWritten<Type> typeCache) throws IOException {
+        final WindowCacheFactory windowFactory = WindowCacheFactory.getInstance();
         TrackLastWritten<IValue> valueCache = windowFactory.getTrackLastWrittenReferenceEquality(size.valueWindow);
         TrackLastWritten<ISourceLocation> uriCache = windowFactory.getTrackLastWrittenReferenceEquality(size.uriWindow);
         try {
@@ -66,7 +120,6 @@ public class IValueWriter {
             write(writer, vf, value, typeCache, valueCache, uriCache);
             writer.endMessage();
         } finally {
-            windowFactory.returnTrackLastWrittenReferenceEquality(typeCache);
             windowFactory.returnTrackLastWrittenReferenceEquality(valueCache);
             windowFactory.returnTrackLastWrittenReferenceEquality(uriCache);
         }
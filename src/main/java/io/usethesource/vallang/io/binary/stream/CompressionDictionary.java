@@ -0,0 +1,115 @@
+/** 
+ * Copyright (c) 2016, Davy Landman, Paul Klint, Centrum Wiskunde & Informatica (CWI) 
+ * All rights reserved. 
+ *  
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met: 
+ *  
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer. 
+ *  
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution. 
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */ 
+package io.usethesource.vallang.io.binary.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.io.binary.message.IValueWriter;
+import io.usethesource.vallang.io.binary.util.WindowSizes;
+import io.usethesource.vallang.io.binary.wire.IWireOutputStream;
+import io.usethesource.vallang.io.binary.wire.binary.BinaryWireOutputStream;
+
+/**
+ * A zstd dictionary for compressing many small serialized values. <br />
+ * <br />
+ * Small values hardly compress on their own, since there is no history to find matches in. 
+ * A dictionary trained on a corpus of typical values provides that history, use it with {@linkplain IValueOutputStream} and {@linkplain IValueInputStream}.
+ * The id of the dictionary is stored in the stream, so a reader with a different dictionary fails instead of producing garbage. <br />
+ * <br />
+ * Store the result of {@linkplain #getBytes()} next to your data, the reader needs exactly the same dictionary.
+ */
+public final class CompressionDictionary {
+    private static final int ZSTD_DICTIONARY_MAGIC = 0xEC30A437;
+
+    private final byte[] dictionary;
+    private final int id;
+    private final ConcurrentHashMap<Integer, ZstdDictCompress> compressors = new ConcurrentHashMap<>();
+    private volatile ZstdDictDecompress decompressor = null;
+
+    public CompressionDictionary(byte[] dictionary) {
+        this.dictionary = dictionary.clone();
+        this.id = dictionaryId(dictionary);
+    }
+
+    /**
+     * Train a dictionary on a corpus of values. The corpus should be representative for the values you are going to write, and contain at least a few hundred values.
+     * @param maxSize the maximum size of the dictionary in bytes, around 100KB is a good starting point
+     * @throws IOException when zstd is not available, or the dictionary could not be trained on the corpus
+     */
+    public static CompressionDictionary train(Iterable<IValue> corpus, IValueFactory vf, int maxSize) throws IOException {
+        if (!Compressor.zstdAvailable()) {
+            throw new IOException("There is no native zstd library available for the current architecture.");
+        }
+        List<byte[]> samples = new ArrayList<>();
+        for (IValue v : corpus) {
+            // sample exactly what the IValueOutputStream passes to the compressor
+            ByteArrayOutputStream sample = new ByteArrayOutputStream();
+            try (IWireOutputStream writer = new BinaryWireOutputStream(sample, WindowSizes.NORMAL_WINDOW.stringsWindow)) {
+                IValueWriter.write(writer, vf, WindowSizes.NORMAL_WINDOW, v);
+            }
+            samples.add(sample.toByteArray());
+        }
+        byte[] result = new byte[maxSize];
+        long size = Zstd.trainFromBuffer(samples.toArray(new byte[0][]), result);
+        if (Zstd.isError(size)) {
+            throw new IOException("Could not train dictionary: " + Zstd.getErrorName(size));
+        }
+        return new CompressionDictionary(Arrays.copyOf(result, (int) size));
+    }
+
+    private static int dictionaryId(byte[] dictionary) {
+        if (dictionary.length >= 8 && readLittleEndian(dictionary, 0) == ZSTD_DICTIONARY_MAGIC) {
+            return readLittleEndian(dictionary, 4);
+        }
+        // a raw content dictionary, identify it by its content
+        return Arrays.hashCode(dictionary);
+    }
+
+    private static int readLittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * @return the id that is stored in the streams compressed with this dictionary
+     */
+    public int getId() {
+        return id;
+    }
+
+    public byte[] getBytes() {
+        return dictionary.clone();
+    }
+
+    ZstdDictCompress compressor(int level) {
+        return compressors.computeIfAbsent(level, l -> new ZstdDictCompress(dictionary, l));
+    }
+
+    ZstdDictDecompress decompressor() {
+        ZstdDictDecompress result = decompressor;
+        if (result == null) {
+            decompressor = result = new ZstdDictDecompress(dictionary);
+        }
+        return result;
+    }
+}
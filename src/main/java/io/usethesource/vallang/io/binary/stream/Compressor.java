@@ -38,6 +38,8 @@ import com.github.luben.zstd.util.Native;
 
 import io.usethesource.vallang.io.binary.util.ByteBufferInputStream;
 import io.usethesource.vallang.io.binary.util.DirectZstdInputStream;
+import io.usethesource.vallang.io.binary.util.ZstdDictionaryInputStream;
+import io.usethesource.vallang.io.binary.util.ZstdDictionaryOutputStream;
 
 /* package */ final class Compressor {
 
@@ -69,7 +71,23 @@ import io.usethesource.vallang.io.binary.util.DirectZstdInputStream;
         }
     }
 
+    /**
+     * Write the id of the dictionary, and wrap the stream in a dictionary compressor
+     */
+    public static OutputStream wrapStream(OutputStream rawStream, int level, CompressionDictionary dictionary) throws IOException {
+        int id = dictionary.getId();
+        rawStream.write(id >>> 24);
+        rawStream.write(id >>> 16);
+        rawStream.write(id >>> 8);
+        rawStream.write(id);
+        return new ZstdDictionaryOutputStream(rawStream, dictionary.compressor(level));
+    }
+
     public static InputStream wrapStream(InputStream raw, int algorithm) throws IOException {
+        return wrapStream(raw, algorithm, null);
+    }
+
+    public static InputStream wrapStream(InputStream raw, int algorithm, CompressionDictionary dictionary) throws IOException {
         switch (algorithm) {
             case Header.Compression.NONE:
                 return raw;
@@ -87,6 +105,26 @@ import io.usethesource.vallang.io.binary.util.DirectZstdInputStream;
                 else {
                     throw new IOException("There is no native zstd library available for the current architecture.");
                 }
+            case Header.Compression.ZSTD_DICTIONARY: {
+                int id = 0;
+                for (int i = 0; i < 4; i++) {
+                    int b = raw.read();
+                    if (b == -1) {
+                        throw new IOException("Missing dictionary id");
+                    }
+                    id = (id << 8) | b;
+                }
+                if (dictionary == null) {
+                    throw new IOException("The stream is compressed with dictionary " + id + ", but no dictionary was provided");
+                }
+                if (dictionary.getId() != id) {
+                    throw new IOException("The stream is compressed with dictionary " + id + ", but dictionary " + dictionary.getId() + " was provided");
+                }
+                if (!Compressor.zstdAvailable()) {
+                    throw new IOException("There is no native zstd library available for the current architecture.");
+                }
+                return new ZstdDictionaryInputStream(raw, dictionary.decompressor());
+            }
             default:
                 throw new IOException("Unsupported compression format");
         }
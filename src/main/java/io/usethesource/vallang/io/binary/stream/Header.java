@@ -14,11 +14,18 @@ package io.usethesource.vallang.io.binary.stream;
 
 /*package*/ final class Header {
     public static final byte[] MAIN = { 'R', 'V', 1,0,0 };
+    public static final byte[] LOG = { 'R', 'V', 'L', 1,0,0 };
+    public static final byte[] BLOB = { 'R', 'V', 'B', 1,0,0 };
+    public static final class LogFlags {
+        public static final byte SHARED_WINDOWS = 1;
+    }
     public static final class Compression {
         public static final byte NONE = 0;
         public static final byte GZIP = 1;
         public static final byte XZ = 2;
         public static final byte ZSTD = 3;
+        /** zstd with a dictionary, followed by the 4 byte id of the dictionary */
+        public static final byte ZSTD_DICTIONARY = 4;
     }
 
 }
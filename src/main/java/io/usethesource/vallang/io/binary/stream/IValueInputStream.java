@@ -23,6 +23,7 @@ import java.util.function.Supplier;
 
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.io.binary.message.IValueEventReader;
 import io.usethesource.vallang.io.binary.message.IValueReader;
 import io.usethesource.vallang.io.binary.util.FileChannelDirectInputStream;
 import io.usethesource.vallang.io.binary.wire.binary.BinaryWireInputStream;
@@ -48,6 +49,14 @@ public class IValueInputStream implements Closeable {
      * This will <strong>consume</strong> the whole stream (or at least more than needed due to buffering), don't use the InputStream afterwards!
      */
     public IValueInputStream(InputStream in, IValueFactory vf, Supplier<TypeStore> typeStoreSupplier) throws IOException {
+        this(in, vf, typeStoreSupplier, null);
+    }
+
+    /**
+     * Read a stream that might have been compressed with a {@linkplain CompressionDictionary}, the dictionary has to be the same as the one used for writing.
+     * This will <strong>consume</strong> the whole stream (or at least more than needed due to buffering), don't use the InputStream afterwards!
+     */
+    public IValueInputStream(InputStream in, IValueFactory vf, Supplier<TypeStore> typeStoreSupplier, CompressionDictionary dictionary) throws IOException {
         this.vf = vf;
         this.typeStoreSupplier = typeStoreSupplier;
         byte[] currentHeader = new byte[Header.MAIN.length];
@@ -72,7 +81,7 @@ public class IValueInputStream implements Closeable {
         legacyReader = null;
 
         int compression = in.read();
-        in = Compressor.wrapStream(in, compression);
+        in = Compressor.wrapStream(in, compression, dictionary);
         reader = new BinaryWireInputStream(in);
     }
     
@@ -87,6 +96,19 @@ public class IValueInputStream implements Closeable {
         }
         return IValueReader.readValue(reader, vf, typeStoreSupplier);
     }
+
+    /**
+     * Instead of reading the whole value, get a pull-based reader that reports the structure of the value as a sequence of events. 
+     * This way a value can be filtered or transformed while streaming, without building it. <br />
+     * <br />
+     * Only one of {@linkplain #read()} and this method can be used on a stream, and it is not supported for the legacy format.
+     */
+    public IValueEventReader readEvents() throws IOException {
+        if (legacy) {
+            throw new IOException("Event based reading is not supported for the old value format");
+        }
+        return new IValueEventReader(reader, vf, typeStoreSupplier);
+    }
     
     @Override
     public void close() throws IOException {
@@ -0,0 +1,356 @@
+/** 
+ * Copyright (c) 2016, Davy Landman, Paul Klint, Centrum Wiskunde & Informatica (CWI) 
+ * All rights reserved. 
+ *  
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met: 
+ *  
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer. 
+ *  
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution. 
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */ 
+package io.usethesource.vallang.io.binary.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.io.binary.message.IValueIDs;
+import io.usethesource.vallang.io.binary.message.IValueReader;
+import io.usethesource.vallang.io.binary.util.TrackLastRead;
+import io.usethesource.vallang.io.binary.util.WindowCacheFactory;
+import io.usethesource.vallang.io.binary.wire.IWireInputStream;
+import io.usethesource.vallang.io.binary.wire.binary.BinaryWireInputStream;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.type.TypeStore;
+
+/**
+ * Reader for logs of IValues written using the {@linkplain IValueLogWriter}. <br />
+ * <br />
+ * The reader can jump to the n-th record, and iterate from there on. If the sidecar index file exists, it is used to find the records, 
+ * otherwise the frames of the log are scanned once (without decoding the values). <br />
+ * <br />
+ * When the log was written with shared windows, records depend on the records before them, so seeking backwards (or skipping ahead) 
+ * means decoding the records in between.
+ */
+public class IValueLogReader implements Closeable {
+    static final int LOG_HEADER_SIZE = Header.LOG.length + 2;
+    static final int FRAME_HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final IValueFactory vf;
+    private final Supplier<TypeStore> typeStoreSupplier;
+    private final int compression;
+    private final boolean sharedWindows;
+    private final WindowCacheFactory windowFactory = WindowCacheFactory.getInstance();
+
+    private long[] offsets;
+    private int size;
+    private int position = 0;
+
+    private BinaryWireInputStream sharedReader = null;
+    private TrackLastRead<Type> sharedTypes = null;
+    private int sharedNext = 0;
+
+    public IValueLogReader(Path log, IValueFactory vf, Supplier<TypeStore> typeStoreSupplier) throws IOException {
+        this.vf = vf;
+        this.typeStoreSupplier = typeStoreSupplier;
+        this.channel = FileChannel.open(log, StandardOpenOption.READ);
+        try {
+            byte[] header = readHeader(channel);
+            compression = header[0];
+            sharedWindows = (header[1] & Header.LogFlags.SHARED_WINDOWS) != 0;
+            offsets = readIndex(channel, IValueLogWriter.indexFile(log));
+            size = offsets.length;
+            refresh();
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Pick up records that were appended after this reader was opened.
+     */
+    public void refresh() throws IOException {
+        long from = size == 0 ? LOG_HEADER_SIZE : scanEnd(channel, offsets[size - 1]);
+        offsets = scanRecords(channel, from, offsets, size);
+        size = offsets.length;
+    }
+
+    /**
+     * @return the amount of records in the log
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the record that the next call to {@linkplain #next()} will return
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * Move to the n-th record (starting at 0), the next call to {@linkplain #next()} will return it.
+     */
+    public void seek(int record) {
+        if (record < 0 || record > size) {
+            throw new IndexOutOfBoundsException("Record " + record + " is not in the log of " + size + " records");
+        }
+        position = record;
+    }
+
+    public boolean hasNext() {
+        return position < size;
+    }
+
+    public IValue next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (!sharedWindows) {
+            try (BinaryWireInputStream reader = new BinaryWireInputStream(Compressor.wrapStream(new ByteArrayInputStream(readPayload(position)), compression))) {
+                IValue result = IValueReader.readValue(reader, vf, typeStoreSupplier);
+                position++;
+                return result;
+            }
+        }
+        if (sharedReader == null || sharedNext > position) {
+            resetShared();
+        }
+        while (sharedNext < position) {
+            IValueReader.readValue(sharedReader, vf, typeStoreSupplier, sharedTypes);
+            sharedNext++;
+        }
+        IValue result = IValueReader.readValue(sharedReader, vf, typeStoreSupplier, sharedTypes);
+        sharedNext++;
+        position++;
+        return result;
+    }
+
+    /**
+     * Read the n-th record (starting at 0), afterwards {@linkplain #next()} continues with the record after it.
+     */
+    public IValue read(int record) throws IOException {
+        if (record >= size) {
+            throw new IndexOutOfBoundsException("Record " + record + " is not in the log of " + size + " records");
+        }
+        seek(record);
+        return next();
+    }
+
+    private void resetShared() throws IOException {
+        closeShared();
+        sharedNext = 0;
+        sharedTypes = windowFactory.getTrackLastRead(typeWindowSize());
+        sharedReader = new BinaryWireInputStream(new RecordsInputStream());
+    }
+
+    private int typeWindowSize() throws IOException {
+        // the type window size is stored in the header of every value, the first one is enough
+        try (BinaryWireInputStream reader = new BinaryWireInputStream(Compressor.wrapStream(new ByteArrayInputStream(readPayload(0)), compression))) {
+            if (reader.next() != IWireInputStream.MESSAGE_START || reader.message() != IValueIDs.Header.ID) {
+                throw new IOException("Missing header at start of the log");
+            }
+            while (reader.next() != IWireInputStream.MESSAGE_END) {
+                if (reader.field() == IValueIDs.Header.TYPE_WINDOW) {
+                    return reader.getInteger();
+                }
+                reader.skipNestedField();
+            }
+            throw new IOException("Missing type window size in the log");
+        }
+    }
+
+    private void closeShared() throws IOException {
+        if (sharedReader != null) {
+            try {
+                sharedReader.close();
+            }
+            finally {
+                windowFactory.returnTrackLastRead(sharedTypes);
+                sharedReader = null;
+                sharedTypes = null;
+            }
+        }
+    }
+
+    private byte[] readPayload(int record) throws IOException {
+        long offset = offsets[record];
+        ByteBuffer frame = readFully(channel, ByteBuffer.allocate(FRAME_HEADER_SIZE), offset);
+        int length = frame.getInt(0);
+        int checksum = frame.getInt(4);
+        byte[] payload = new byte[length];
+        readFully(channel, ByteBuffer.wrap(payload), offset + FRAME_HEADER_SIZE);
+        if (checksum(payload) != checksum) {
+            throw new IOException("Record " + record + " of the log is corrupt");
+        }
+        return payload;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeShared();
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Feeds the decompressed records one after the other, only pulling in a new record when the previous one is consumed.
+     */
+    private class RecordsInputStream extends InputStream {
+        private int nextRecord = 0;
+        private InputStream current = new ByteArrayInputStream(new byte[0]);
+
+        private boolean advance() throws IOException {
+            if (nextRecord >= size) {
+                return false;
+            }
+            current.close();
+            current = Compressor.wrapStream(new ByteArrayInputStream(readPayload(nextRecord++)), compression);
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result;
+            while ((result = current.read()) == -1) {
+                if (!advance()) {
+                    return -1;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int result;
+            while ((result = current.read(b, off, len)) <= 0) {
+                if (!advance()) {
+                    return -1;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            current.close();
+        }
+    }
+
+    static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the compression and flags byte of the log
+     */
+    static byte[] readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < LOG_HEADER_SIZE) {
+            throw new IOException("Not a value log");
+        }
+        byte[] header = new byte[LOG_HEADER_SIZE];
+        readFully(channel, ByteBuffer.wrap(header), 0);
+        if (!Arrays.equals(Header.LOG, Arrays.copyOf(header, Header.LOG.length))) {
+            throw new IOException("Not a value log");
+        }
+        return Arrays.copyOfRange(header, Header.LOG.length, LOG_HEADER_SIZE);
+    }
+
+    /**
+     * Scan the frames starting at <code>from</code>, only complete frames are returned, a partially written frame at the end is ignored.
+     * @return the known offsets with the offsets of the found frames appended
+     */
+    static long[] scanRecords(FileChannel channel, long from, long[] known, int knownSize) throws IOException {
+        long[] result = Arrays.copyOf(known, Math.max(knownSize, 16));
+        int size = knownSize;
+        long end = channel.size();
+        long offset = from;
+        while (offset + FRAME_HEADER_SIZE <= end) {
+            long next = scanEnd(channel, offset);
+            if (next > end) {
+                break;
+            }
+            if (size == result.length) {
+                result = Arrays.copyOf(result, size + (size >> 1));
+            }
+            result[size++] = offset;
+            offset = next;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return the offset right after the frame at <code>offset</code>
+     */
+    static long scanEnd(FileChannel channel, long offset) throws IOException {
+        return offset + FRAME_HEADER_SIZE + payloadSize(channel, offset);
+    }
+
+    private static int payloadSize(FileChannel channel, long offset) throws IOException {
+        int length = readFully(channel, ByteBuffer.allocate(4), offset).getInt(0);
+        if (length < 0) {
+            throw new IOException("Corrupt frame at " + offset);
+        }
+        return length;
+    }
+
+    /**
+     * Read the offsets from the sidecar index, entries at the end that do not point to a complete frame are dropped.
+     */
+    private static long[] readIndex(FileChannel channel, Path index) throws IOException {
+        if (!Files.exists(index)) {
+            return new long[0];
+        }
+        try (FileChannel indexChannel = FileChannel.open(index, StandardOpenOption.READ)) {
+            int entries = (int) (indexChannel.size() / 8);
+            long[] result = new long[entries];
+            readFully(indexChannel, ByteBuffer.allocate(entries * 8), 0).asLongBuffer().get(result);
+            if (entries == 0 || result[0] != LOG_HEADER_SIZE) {
+                return new long[0];
+            }
+            long end = channel.size();
+            while (entries > 0 && (result[entries - 1] + FRAME_HEADER_SIZE > end || scanEnd(channel, result[entries - 1]) > end)) {
+                entries--;
+            }
+            return Arrays.copyOf(result, entries);
+        }
+    }
+
+    static ByteBuffer readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + target.position());
+            if (read == -1) {
+                throw new EOFException();
+            }
+        }
+        target.flip();
+        return target;
+    }
+}
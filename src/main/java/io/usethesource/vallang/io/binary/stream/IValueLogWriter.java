@@ -0,0 +1,208 @@
+/** 
+ * Copyright (c) 2016, Davy Landman, Paul Klint, Centrum Wiskunde & Informatica (CWI) 
+ * All rights reserved. 
+ *  
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met: 
+ *  
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer. 
+ *  
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution. 
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */ 
+package io.usethesource.vallang.io.binary.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.io.binary.message.IValueWriter;
+import io.usethesource.vallang.io.binary.stream.IValueOutputStream.CompressionRate;
+import io.usethesource.vallang.io.binary.util.TrackLastWritten;
+import io.usethesource.vallang.io.binary.util.WindowCacheFactory;
+import io.usethesource.vallang.io.binary.util.WindowSizes;
+import io.usethesource.vallang.io.binary.wire.IWireOutputStream;
+import io.usethesource.vallang.io.binary.wire.binary.BinaryWireOutputStream;
+import io.usethesource.vallang.type.Type;
+
+/**
+ * An append-only log of IValues, read it back with the {@linkplain IValueLogReader}. <br />
+ * <br />
+ * Every value is stored as a separate record, framed with its length and a CRC32 checksum, so a partially written record at the end of the log 
+ * (for example after a crash) is detected and dropped when the log is opened again. 
+ * Optionally, the offsets of the records are also written to a sidecar index file (the log file name with <code>.idx</code> appended), 
+ * so that a reader can jump to the n-th record without scanning the log. <br />
+ * <br />
+ * By default every record is self-contained. When the windows are shared, the string and type windows are kept across records, 
+ * which makes a log of many small similar values a lot smaller, at the cost that a record can only be decoded after the records before it. 
+ * Such a log can only be written in one go, it cannot be opened again for appending.
+ */
+public class IValueLogWriter implements Closeable {
+    private final FileChannel channel;
+    private final FileChannel index;
+    private final IValueFactory vf;
+    private final int compressionAlgorithm;
+    private final int compressionLevel;
+    private final WindowSizes sizes;
+    private final boolean sharedWindows;
+
+    private int records;
+    private long end;
+
+    private ByteArrayOutputStream sharedBuffer = null;
+    private IWireOutputStream sharedWriter = null;
+    private TrackLastWritten<Type> sharedTypes = null;
+
+    public IValueLogWriter(Path log, IValueFactory vf) throws IOException {
+        this(log, vf, CompressionRate.Normal, true, false);
+    }
+
+    /**
+     * Open (or create) a log for appending. When the log already exists, the compression and sharing of the existing log are used.
+     * @param writeIndex maintain the sidecar index file
+     * @param shareWindows share the string and type windows between records of this log
+     */
+    public IValueLogWriter(Path log, IValueFactory vf, CompressionRate compression, boolean writeIndex, boolean shareWindows) throws IOException {
+        this.vf = vf;
+        this.channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long[] offsets;
+            if (channel.size() == 0) {
+                int algorithm = IValueOutputStream.fallbackIfNeeded(compression.compressionAlgorithm);
+                if (compression.compressionLevel == 0) {
+                    algorithm = Header.Compression.NONE;
+                }
+                ByteBuffer header = ByteBuffer.allocate(IValueLogReader.LOG_HEADER_SIZE);
+                header.put(Header.LOG).put((byte) algorithm).put(shareWindows ? Header.LogFlags.SHARED_WINDOWS : 0).flip();
+                writeFully(channel, header, 0);
+                offsets = new long[0];
+                compressionAlgorithm = algorithm;
+                sharedWindows = shareWindows;
+            }
+            else {
+                byte[] header = IValueLogReader.readHeader(channel);
+                compressionAlgorithm = header[0];
+                sharedWindows = (header[1] & Header.LogFlags.SHARED_WINDOWS) != 0;
+                offsets = IValueLogReader.scanRecords(channel, IValueLogReader.LOG_HEADER_SIZE, new long[0], 0);
+                if (sharedWindows && offsets.length > 0) {
+                    throw new IOException("A log with shared windows cannot be appended to");
+                }
+            }
+            compressionLevel = compressionAlgorithm == Header.Compression.NONE ? 0 : Math.max(compression.compressionLevel, 1);
+            sizes = compressionAlgorithm == Header.Compression.NONE ? WindowSizes.NO_WINDOW : WindowSizes.NORMAL_WINDOW;
+            records = offsets.length;
+            end = records == 0 ? IValueLogReader.LOG_HEADER_SIZE : IValueLogReader.scanEnd(channel, offsets[records - 1]);
+            // drop a partially written record
+            channel.truncate(end);
+
+            index = writeIndex ? FileChannel.open(indexFile(log), StandardOpenOption.CREATE, StandardOpenOption.WRITE) : null;
+            if (index != null) {
+                ByteBuffer entries = ByteBuffer.allocate(records * 8);
+                entries.asLongBuffer().put(offsets);
+                index.truncate(0);
+                writeFully(index, entries, 0);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static Path indexFile(Path log) {
+        return log.resolveSibling(log.getFileName().toString() + ".idx");
+    }
+
+    /**
+     * @return the amount of records in the log
+     */
+    public int size() {
+        return records;
+    }
+
+    /**
+     * Append a value to the log
+     * @return the index of the record of this value
+     */
+    public int append(IValue value) throws IOException {
+        byte[] payload = sharedWindows ? encodeShared(value) : encode(value);
+        ByteBuffer frame = ByteBuffer.allocate(IValueLogReader.FRAME_HEADER_SIZE + payload.length);
+        frame.putInt(payload.length).putInt(IValueLogReader.checksum(payload)).put(payload).flip();
+        long offset = end;
+        writeFully(channel, frame, offset);
+        end += IValueLogReader.FRAME_HEADER_SIZE + payload.length;
+        if (index != null) {
+            ByteBuffer entry = ByteBuffer.allocate(8);
+            entry.putLong(offset).flip();
+            writeFully(index, entry, records * 8L);
+        }
+        return records++;
+    }
+
+    private byte[] encode(IValue value) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (IWireOutputStream writer = new BinaryWireOutputStream(Compressor.wrapStream(result, compressionAlgorithm, compressionLevel), Math.max(sizes.stringsWindow, 1))) {
+            IValueWriter.write(writer, vf, sizes, value);
+        }
+        return result.toByteArray();
+    }
+
+    private byte[] encodeShared(IValue value) throws IOException {
+        if (sharedWriter == null) {
+            sharedBuffer = new ByteArrayOutputStream();
+            sharedWriter = new BinaryWireOutputStream(sharedBuffer, Math.max(sizes.stringsWindow, 1));
+            sharedTypes = WindowCacheFactory.getInstance().getTrackLastWrittenReferenceEquality(sizes.typeWindow);
+        }
+        IValueWriter.write(sharedWriter, vf, sizes, value, sharedTypes);
+        sharedWriter.flush();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (OutputStream compressed = Compressor.wrapStream(result, compressionAlgorithm, compressionLevel)) {
+            sharedBuffer.writeTo(compressed);
+        }
+        sharedBuffer.reset();
+        return result.toByteArray();
+    }
+
+    /**
+     * Force the appended records (and index) to the storage device
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+        if (index != null) {
+            index.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (sharedWriter != null) {
+                sharedWriter.close();
+                WindowCacheFactory.getInstance().returnTrackLastWrittenReferenceEquality(sharedTypes);
+            }
+        }
+        finally {
+            try {
+                if (index != null) {
+                    index.close();
+                }
+            }
+            finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source, position + source.position());
+        }
+    }
+}
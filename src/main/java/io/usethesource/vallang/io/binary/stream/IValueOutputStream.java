@@ -20,6 +20,7 @@ import java.nio.channels.FileChannel;
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.IValueFactory;
 import io.usethesource.vallang.io.binary.message.IValueWriter;
+import io.usethesource.vallang.io.binary.util.AdaptiveWindowSizes;
 import io.usethesource.vallang.io.binary.util.ByteBufferOutputStream;
 import io.usethesource.vallang.io.binary.util.DelayedCompressionOutputStream;
 import io.usethesource.vallang.io.binary.util.DelayedZstdOutputStream;
@@ -54,8 +55,8 @@ public class IValueOutputStream implements Closeable {
         Extreme(Header.Compression.XZ, 6), 
         ;
 
-        private final int compressionAlgorithm;
-        private final int compressionLevel;
+        final int compressionAlgorithm;
+        final int compressionLevel;
 
         CompressionRate(int compressionAlgorithm, int compressionLevel) {
             this.compressionLevel = compressionLevel;
@@ -70,6 +71,8 @@ public class IValueOutputStream implements Closeable {
     private OutputStream rawStream;
     private IWireOutputStream writer;
     private final IValueFactory vf;
+    private final CompressionDictionary dictionary;
+    private final AdaptiveWindowSizes adaptiveWindows;
 
     public IValueOutputStream(OutputStream out, IValueFactory vf) throws IOException {
         this(out, vf, CompressionRate.Normal);
@@ -81,9 +84,31 @@ public class IValueOutputStream implements Closeable {
 
     
     public IValueOutputStream(OutputStream out, IValueFactory vf, CompressionRate compression) throws IOException {
+        this(out, vf, compression, null, null);
+    }
+
+    /**
+     * Compress using a trained dictionary, which works a lot better for small values. The dictionary is only used for the zstd based compression rates,
+     * and the {@linkplain IValueInputStream} needs the same dictionary to read the stream.
+     */
+    public IValueOutputStream(OutputStream out, IValueFactory vf, CompressionRate compression, CompressionDictionary dictionary) throws IOException {
+        this(out, vf, compression, dictionary, null);
+    }
+
+    /**
+     * Use window sizes that adapt to the values written, instead of the fixed sizes of the compression rate. 
+     * Share the {@linkplain AdaptiveWindowSizes} between streams that write similar values.
+     */
+    public IValueOutputStream(OutputStream out, IValueFactory vf, CompressionRate compression, AdaptiveWindowSizes windows) throws IOException {
+        this(out, vf, compression, null, windows);
+    }
+
+    public IValueOutputStream(OutputStream out, IValueFactory vf, CompressionRate compression, CompressionDictionary dictionary, AdaptiveWindowSizes windows) throws IOException {
         out.write(Header.MAIN);
         this.rawStream = out;
         this.compression = compression;
+        this.dictionary = dictionary;
+        this.adaptiveWindows = windows;
         this.writer = null;
         this.vf = vf;
     }
@@ -94,6 +119,13 @@ public class IValueOutputStream implements Closeable {
     
     
     public void write(IValue value) throws IOException {
+        if (compression.compressionLevel != 0 && adaptiveWindows != null) {
+            if (writer == null) {
+                writer = initializeWriter(adaptiveWindows.current());
+            }
+            IValueWriter.write(writer, vf, adaptiveWindows, value);
+            return;
+        }
         WindowSizes sizes = compression.compressionLevel == 0 ? WindowSizes.NO_WINDOW : WindowSizes.NORMAL_WINDOW;
         if (writer == null) {
             writer = initializeWriter(sizes);
@@ -103,7 +135,7 @@ public class IValueOutputStream implements Closeable {
 
 
 
-    private static int fallbackIfNeeded(int compressionAlgorithm) {
+    static int fallbackIfNeeded(int compressionAlgorithm) {
         if (compressionAlgorithm == Header.Compression.ZSTD && ! Compressor.zstdAvailable()) {
             return Header.Compression.GZIP;
         }
@@ -115,7 +147,12 @@ public class IValueOutputStream implements Closeable {
             compression = CompressionRate.None;
         }
         int algorithm = fallbackIfNeeded(compression.compressionAlgorithm);
-        if (rawStream instanceof ByteBufferOutputStream && algorithm == Header.Compression.ZSTD && ((ByteBufferOutputStream)rawStream).getBuffer().isDirect()) {
+        if (dictionary != null && algorithm == Header.Compression.ZSTD) {
+            // with a dictionary even small values compress well, so no need to delay the decision
+            rawStream.write(Header.Compression.ZSTD_DICTIONARY);
+            rawStream = Compressor.wrapStream(rawStream, compression.compressionLevel, dictionary);
+        }
+        else if (rawStream instanceof ByteBufferOutputStream && algorithm == Header.Compression.ZSTD && ((ByteBufferOutputStream)rawStream).getBuffer().isDirect()) {
             rawStream = new DelayedZstdOutputStream((ByteBufferOutputStream)rawStream, algorithm, compression.compressionLevel);
         }
         else {
@@ -0,0 +1,724 @@
+/** 
+ * Copyright (c) 2016, Davy Landman, Paul Klint, Centrum Wiskunde & Informatica (CWI) 
+ * All rights reserved. 
+ *  
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met: 
+ *  
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer. 
+ *  
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution. 
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */ 
+package io.usethesource.vallang.io.binary.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.usethesource.vallang.IBool;
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IDateTime;
+import io.usethesource.vallang.IInteger;
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.IMap;
+import io.usethesource.vallang.IMapWriter;
+import io.usethesource.vallang.INode;
+import io.usethesource.vallang.IRational;
+import io.usethesource.vallang.IReal;
+import io.usethesource.vallang.ISet;
+import io.usethesource.vallang.ISetWriter;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IString;
+import io.usethesource.vallang.ITuple;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.io.binary.message.IValueReader;
+import io.usethesource.vallang.io.binary.message.IValueWriter;
+import io.usethesource.vallang.io.binary.util.StacklessStructuredVisitor;
+import io.usethesource.vallang.io.binary.util.StructuredIValueVisitor;
+import io.usethesource.vallang.io.binary.util.WindowSizes;
+import io.usethesource.vallang.io.binary.wire.FieldKind;
+import io.usethesource.vallang.io.binary.wire.IWireInputStream;
+import io.usethesource.vallang.io.binary.wire.IWireOutputStream;
+import io.usethesource.vallang.io.binary.wire.binary.BinaryWireInputStream;
+import io.usethesource.vallang.io.binary.wire.binary.BinaryWireOutputStream;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.type.TypeStore;
+
+/**
+ * A content-addressed store of IValues in a directory. <br />
+ * <br />
+ * Every subtree gets a SHA-256 hash of its structure (independent of the iteration order of sets and maps). 
+ * Subtrees of at least <code>minimumChunkSize</code> nodes are stored as a separate blob, named after their hash, 
+ * in which the large children are references to their own blobs and the small children are serialized inline.
+ * Equal subtrees are therefore stored only once, no matter how many values (or stores on the same directory) contain them. 
+ * This is in contrast to the back references of the {@linkplain IValueOutputStream}, which only work within the window of one stream. <br />
+ * <br />
+ * Reading a value shares the subtrees with the same hash, also with other values read from the same store (as long as they are in use). <br />
+ * <br />
+ * The store is safe to use from multiple threads and processes, blobs are written to a temporary file and atomically moved in place.
+ */
+public class IValueStore {
+    private static final int DEFAULT_MINIMUM_CHUNK_SIZE = 64;
+    private static final int STORED_HASHES_CACHE_SIZE = 1 << 16;
+    private static final WindowSizes INLINE_WINDOW = WindowSizes.SMALL_WINDOW;
+
+    private static final class Blob {
+        public static final int ID = 1;
+        public static final int KIND = 1;
+        public static final int NAME = 2;
+        public static final int TYPE = 3;
+        public static final int REFERENCE = 4;
+        public static final int VALUE = 5;
+        public static final int KEYWORD = 6;
+        public static final int ANNOTATION = 7;
+    }
+
+    private static final class Kind {
+        public static final int INLINE = 0;
+        public static final int LIST = 1;
+        public static final int SET = 2;
+        public static final int MAP = 3;
+        public static final int TUPLE = 4;
+        public static final int NODE = 5;
+        public static final int CONSTRUCTOR = 6;
+        public static final int LEAF = 7;
+    }
+
+    private final Path directory;
+    private final IValueFactory vf;
+    private final int minimumChunkSize;
+    /** recently written or found blobs, to avoid checking the file system */
+    private final Cache<String, Boolean> stored = Caffeine.newBuilder().maximumSize(STORED_HASHES_CACHE_SIZE).build();
+    /** subtrees that are known to be in the store, by reference; the entries do not refer to the subtree, so they are dropped with it */
+    private final Cache<IValue, StoredChunk> storedValues = Caffeine.newBuilder().weakKeys().build();
+    /** subtrees read from the store, as long as they are in use */
+    private final Cache<String, IValue> readValues = Caffeine.newBuilder().weakValues().build();
+
+    public IValueStore(Path directory, IValueFactory vf) throws IOException {
+        this(directory, vf, DEFAULT_MINIMUM_CHUNK_SIZE);
+    }
+
+    /**
+     * @param minimumChunkSize the amount of nodes a subtree should have to be stored as a separate blob, smaller subtrees are not deduplicated
+     */
+    public IValueStore(Path directory, IValueFactory vf, int minimumChunkSize) throws IOException {
+        if (minimumChunkSize < 2) {
+            throw new IllegalArgumentException("The minimum chunk size should be at least 2");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.vf = vf;
+        this.minimumChunkSize = minimumChunkSize;
+    }
+
+    /**
+     * Store a value, only the subtrees that are not in the store yet are written.
+     * @return the hash of the value, to read it back with {@linkplain #read(String, Supplier)}
+     */
+    public String write(IValue value) throws IOException {
+        Chunk root = new Chunker().chunk(value);
+        if (!root.stored) {
+            // small values are stored as a whole
+            writeBlob(root.hash, w -> {
+                w.writeField(Blob.KIND, Kind.INLINE);
+                writeInline(w, root.value);
+            });
+        }
+        return root.hash;
+    }
+
+    public boolean contains(String hash) {
+        return stored.getIfPresent(hash) != null || Files.exists(blobFile(hash));
+    }
+
+    /**
+     * Read a value from the store, reconstructing it from its blobs.
+     * @throws IOException when the value (or one of its subtrees) is not in the store
+     */
+    public IValue read(String hash, Supplier<TypeStore> typeStoreSupplier) throws IOException {
+        IValue result = readValues.getIfPresent(hash);
+        if (result != null) {
+            return result;
+        }
+        // resolve the references with an explicit stack, the chain of blobs can be as deep as the value
+        Deque<PendingBlob> todo = new ArrayDeque<>();
+        todo.push(readBlob(hash, typeStoreSupplier));
+        while (true) {
+            PendingBlob current = todo.peek();
+            PendingBlob next = null;
+            while (current.resolved < current.children.length) {
+                Object child = current.children[current.resolved];
+                if (child instanceof String) {
+                    IValue cached = readValues.getIfPresent((String) child);
+                    if (cached == null) {
+                        next = readBlob((String) child, typeStoreSupplier);
+                        break;
+                    }
+                    current.children[current.resolved] = cached;
+                }
+                current.resolved++;
+            }
+            if (next != null) {
+                todo.push(next);
+                continue;
+            }
+            todo.pop();
+            IValue value = readValues.get(current.hash, h -> current.build());
+            storedValues.put(value, new StoredChunk(current.hash, minimumChunkSize));
+            if (todo.isEmpty()) {
+                return value;
+            }
+            PendingBlob parent = todo.peek();
+            parent.children[parent.resolved++] = value;
+        }
+    }
+
+    private Path blobFile(String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    @FunctionalInterface
+    private interface BlobContents {
+        void write(IWireOutputStream writer) throws IOException;
+    }
+
+    private void writeBlob(String hash, BlobContents contents) throws IOException {
+        if (contains(hash)) {
+            stored.put(hash, Boolean.TRUE);
+            return;
+        }
+        Path target = blobFile(hash);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), hash.substring(2), ".tmp");
+        try {
+            int algorithm = IValueOutputStream.fallbackIfNeeded(Header.Compression.ZSTD);
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(Header.BLOB);
+                out.write(algorithm);
+                try (IWireOutputStream writer = new BinaryWireOutputStream(Compressor.wrapStream(out, algorithm, 5), INLINE_WINDOW.stringsWindow)) {
+                    writer.startMessage(Blob.ID);
+                    contents.write(writer);
+                    writer.endMessage();
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (FileAlreadyExistsException e) {
+                // written concurrently, contents are the same
+            }
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+        stored.put(hash, Boolean.TRUE);
+    }
+
+    private void writeInline(IWireOutputStream writer, IValue value) throws IOException {
+        writer.writeNestedField(Blob.VALUE);
+        IValueWriter.write(writer, vf, INLINE_WINDOW, value);
+    }
+
+    private PendingBlob readBlob(String hash, Supplier<TypeStore> typeStoreSupplier) throws IOException {
+        Path file = blobFile(hash);
+        if (!Files.exists(file)) {
+            throw new IOException("Value " + hash + " is not in the store");
+        }
+        byte[] contents = Files.readAllBytes(file);
+        if (contents.length <= Header.BLOB.length || !Arrays.equals(Header.BLOB, Arrays.copyOf(contents, Header.BLOB.length))) {
+            throw new IOException("Blob " + hash + " is corrupt");
+        }
+        ByteArrayInputStream raw = new ByteArrayInputStream(contents, Header.BLOB.length + 1, contents.length - Header.BLOB.length - 1);
+        try (IWireInputStream reader = new BinaryWireInputStream(Compressor.wrapStream(raw, contents[Header.BLOB.length]))) {
+            if (reader.next() != IWireInputStream.MESSAGE_START || reader.message() != Blob.ID) {
+                throw new IOException("Blob " + hash + " is corrupt");
+            }
+            PendingBlob result = new PendingBlob(hash);
+            List<Object> children = new ArrayList<>();
+            String pendingName = null;
+            while (reader.next() != IWireInputStream.MESSAGE_END) {
+                switch (reader.field()) {
+                    case Blob.KIND: result.kind = reader.getInteger(); break;
+                    case Blob.NAME: result.name = reader.getString(); break;
+                    case Blob.TYPE: result.type = IValueReader.readType(reader, vf, typeStoreSupplier); break;
+                    case Blob.KEYWORD:
+                    case Blob.ANNOTATION:
+                        result.annotations = reader.field() == Blob.ANNOTATION;
+                        pendingName = reader.getString();
+                        break;
+                    case Blob.REFERENCE:
+                    case Blob.VALUE:
+                        if (pendingName != null) {
+                            if (result.names == null) {
+                                result.names = new ArrayList<>();
+                                result.positional = children.size();
+                            }
+                            result.names.add(pendingName);
+                            pendingName = null;
+                        }
+                        children.add(reader.field() == Blob.REFERENCE ? toHex(reader.getBytes()) : IValueReader.readValue(reader, vf, typeStoreSupplier));
+                        break;
+                    default:
+                        if (reader.getFieldType() == FieldKind.NESTED) {
+                            reader.skipNestedField();
+                        }
+                        break;
+                }
+            }
+            result.children = children.toArray();
+            if (result.names == null) {
+                result.positional = result.children.length;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A parsed blob, which children are resolved one by one
+     */
+    private final class PendingBlob {
+        final String hash;
+        int kind = -1;
+        String name;
+        Type type;
+        Object[] children;
+        int positional;
+        List<String> names = null;
+        boolean annotations;
+        int resolved = 0;
+
+        PendingBlob(String hash) {
+            this.hash = hash;
+        }
+
+        @SuppressWarnings("deprecation")
+        IValue build() {
+            switch (kind) {
+                case Kind.INLINE: return (IValue) children[0];
+                case Kind.LIST: {
+                    IListWriter result = vf.listWriter();
+                    for (Object c : children) {
+                        result.append((IValue) c);
+                    }
+                    return result.done();
+                }
+                case Kind.SET: {
+                    ISetWriter result = vf.setWriter();
+                    for (Object c : children) {
+                        result.insert((IValue) c);
+                    }
+                    return result.done();
+                }
+                case Kind.MAP: {
+                    IMapWriter result = vf.mapWriter();
+                    for (int i = 0; i < children.length; i += 2) {
+                        result.put((IValue) children[i], (IValue) children[i + 1]);
+                    }
+                    return result.done();
+                }
+                case Kind.TUPLE: return vf.tuple(positional());
+                case Kind.NODE: 
+                    if (names == null) {
+                        return vf.node(name, positional());
+                    }
+                    if (annotations) {
+                        return vf.node(name, named(), positional());
+                    }
+                    return vf.node(name, positional(), named());
+                case Kind.CONSTRUCTOR:
+                    if (names == null) {
+                        return vf.constructor(type, positional());
+                    }
+                    if (annotations) {
+                        return vf.constructor(type, named(), positional());
+                    }
+                    return vf.constructor(type, positional(), named());
+                default:
+                    throw new RuntimeException("Blob " + hash + " has an unknown kind: " + kind);
+            }
+        }
+
+        private IValue[] positional() {
+            IValue[] result = new IValue[positional];
+            System.arraycopy(children, 0, result, 0, positional);
+            return result;
+        }
+
+        private Map<String, IValue> named() {
+            Map<String, IValue> result = new HashMap<>();
+            for (int i = 0; i < names.size(); i++) {
+                result.put(names.get(i), (IValue) children[positional + i]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A hashed subtree
+     */
+    private static final class Chunk {
+        final IValue value;
+        final String hash;
+        final long weight;
+        final boolean stored;
+
+        Chunk(IValue value, String hash, long weight, boolean stored) {
+            this.value = value;
+            this.hash = hash;
+            this.weight = weight;
+            this.stored = stored;
+        }
+    }
+
+    /**
+     * What is cached of a subtree that is stored as a blob
+     */
+    private static final class StoredChunk {
+        final String hash;
+        final long weight;
+
+        StoredChunk(String hash, long weight) {
+            this.hash = hash;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Frame {
+        final IValue value;
+        final int kind;
+        final List<Chunk> children = new ArrayList<>();
+        String[] names = null;
+        boolean annotations = false;
+
+        Frame(IValue value, int kind) {
+            this.value = value;
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * Hashes a value bottom up, and writes the blobs for the large enough subtrees
+     */
+    private final class Chunker implements StructuredIValueVisitor<IOException> {
+        private final MessageDigest digest;
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        private Chunk result = null;
+
+        Chunker() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("SHA-256 should always be available", e);
+            }
+        }
+
+        Chunk chunk(IValue value) throws IOException {
+            StacklessStructuredVisitor.accept(value, this);
+            return result;
+        }
+
+        private void add(Chunk chunk) {
+            if (stack.isEmpty()) {
+                result = chunk;
+            }
+            else {
+                stack.peek().children.add(chunk);
+            }
+        }
+
+        private boolean enter(IValue value, int kind) {
+            StoredChunk known = storedValues.getIfPresent(value);
+            if (known != null) {
+                add(new Chunk(value, known.hash, known.weight, true));
+                return false;
+            }
+            stack.push(new Frame(value, kind));
+            return true;
+        }
+
+        private void leave() throws IOException {
+            Frame frame = stack.pop();
+            int positional = frame.names == null ? frame.children.size() : frame.children.size() - frame.names.length;
+            long weight = 1;
+            for (Chunk c : frame.children) {
+                weight += c.weight;
+            }
+
+            digest.reset();
+            updateInt(frame.kind);
+            updateInt(positional);
+            switch (frame.kind) {
+                case Kind.NODE: 
+                    updateString(((INode) frame.value).getName()); 
+                    break;
+                case Kind.CONSTRUCTOR:
+                    Type type = ((IConstructor) frame.value).getUninstantiatedConstructorType();
+                    updateString(type.getAbstractDataType().toString());
+                    updateString(type.toString());
+                    break;
+            }
+            List<Chunk> children = frame.children;
+            if (frame.kind == Kind.SET) {
+                byte[][] hashes = new byte[positional][];
+                for (int i = 0; i < positional; i++) {
+                    hashes[i] = children.get(i).hash.getBytes(StandardCharsets.US_ASCII);
+                }
+                Arrays.sort(hashes, IValueStore::compare);
+                for (byte[] h : hashes) {
+                    digest.update(h);
+                }
+            }
+            else if (frame.kind == Kind.MAP) {
+                byte[][] pairs = new byte[positional / 2][];
+                for (int i = 0; i < positional; i += 2) {
+                    pairs[i / 2] = (children.get(i).hash + children.get(i + 1).hash).getBytes(StandardCharsets.US_ASCII);
+                }
+                Arrays.sort(pairs, IValueStore::compare);
+                for (byte[] p : pairs) {
+                    digest.update(p);
+                }
+            }
+            else {
+                for (int i = 0; i < positional; i++) {
+                    updateString(children.get(i).hash);
+                }
+            }
+            if (frame.names != null) {
+                updateInt(frame.annotations ? 1 : 0);
+                String[] named = new String[frame.names.length];
+                for (int i = 0; i < named.length; i++) {
+                    named[i] = frame.names[i] + '=' + children.get(positional + i).hash;
+                }
+                Arrays.sort(named);
+                for (String n : named) {
+                    updateString(n);
+                }
+            }
+            String hash = toHex(digest.digest());
+
+            boolean store = weight >= minimumChunkSize;
+            if (store) {
+                writeBlob(hash, w -> {
+                    w.writeField(Blob.KIND, frame.kind);
+                    if (frame.kind == Kind.NODE) {
+                        w.writeField(Blob.NAME, ((INode) frame.value).getName());
+                    }
+                    else if (frame.kind == Kind.CONSTRUCTOR) {
+                        w.writeNestedField(Blob.TYPE);
+                        IValueWriter.write(w, vf, INLINE_WINDOW, ((IConstructor) frame.value).getUninstantiatedConstructorType());
+                    }
+                    for (int i = 0; i < children.size(); i++) {
+                        if (i >= positional) {
+                            w.writeField(frame.annotations ? Blob.ANNOTATION : Blob.KEYWORD, frame.names[i - positional]);
+                        }
+                        Chunk child = children.get(i);
+                        if (child.stored) {
+                            w.writeField(Blob.REFERENCE, fromHex(child.hash));
+                        }
+                        else {
+                            writeInline(w, child.value);
+                        }
+                    }
+                });
+            }
+            Chunk chunk = new Chunk(frame.value, hash, weight, store);
+            if (store) {
+                storedValues.put(frame.value, new StoredChunk(hash, weight));
+            }
+            add(chunk);
+        }
+
+        private void leaf(IValue value) {
+            digest.reset();
+            updateInt(Kind.LEAF);
+            updateString(value.getType().toString());
+            updateString(value.toString());
+            add(new Chunk(value, toHex(digest.digest()), 1, false));
+        }
+
+        private void updateInt(int value) {
+            digest.update((byte) (value >>> 24));
+            digest.update((byte) (value >>> 16));
+            digest.update((byte) (value >>> 8));
+            digest.update((byte) value);
+        }
+
+        private void updateString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            updateInt(bytes.length);
+            digest.update(bytes);
+        }
+
+        @Override
+        public void enterNamedValues(String[] names, int numberOfNestedValues) {
+            stack.peek().names = names;
+        }
+
+        @Override
+        public void leaveNamedValue() {
+        }
+
+        @Override
+        public boolean enterConstructor(IConstructor cons, int children) {
+            return enter(cons, Kind.CONSTRUCTOR);
+        }
+
+        @Override
+        public void enterConstructorKeywordParameters() {
+        }
+
+        @Override
+        public void enterConstructorAnnotations() {
+            stack.peek().annotations = true;
+        }
+
+        @Override
+        public void leaveConstructor(IValue cons) throws IOException {
+            leave();
+        }
+
+        @Override
+        public boolean enterNode(INode node, int children) {
+            return enter(node, Kind.NODE);
+        }
+
+        @Override
+        public void enterNodeKeywordParameters() {
+        }
+
+        @Override
+        public void enterNodeAnnotations() {
+            stack.peek().annotations = true;
+        }
+
+        @Override
+        public void leaveNode(IValue node) throws IOException {
+            leave();
+        }
+
+        @Override
+        public boolean enterList(IList lst, int children) {
+            return enter(lst, Kind.LIST);
+        }
+
+        @Override
+        public void leaveList(IValue lst) throws IOException {
+            leave();
+        }
+
+        @Override
+        public boolean enterSet(ISet set, int elements) {
+            return enter(set, Kind.SET);
+        }
+
+        @Override
+        public void leaveSet(IValue set) throws IOException {
+            leave();
+        }
+
+        @Override
+        public boolean enterMap(IMap map, int elements) {
+            return enter(map, Kind.MAP);
+        }
+
+        @Override
+        public void leaveMap(IValue map) throws IOException {
+            leave();
+        }
+
+        @Override
+        public boolean enterTuple(ITuple tuple, int arity) {
+            return enter(tuple, Kind.TUPLE);
+        }
+
+        @Override
+        public void leaveTuple(IValue tuple) throws IOException {
+            leave();
+        }
+
+        @Override
+        public void visitString(IString val) {
+            leaf(val);
+        }
+
+        @Override
+        public void visitInteger(IInteger val) {
+            leaf(val);
+        }
+
+        @Override
+        public void visitReal(IReal val) {
+            leaf(val);
+        }
+
+        @Override
+        public void visitRational(IRational val) {
+            leaf(val);
+        }
+
+        @Override
+        public void visitSourceLocation(ISourceLocation val) {
+            leaf(val);
+        }
+
+        @Override
+        public void visitBoolean(IBool val) {
+            leaf(val);
+        }
+
+        @Override
+        public void visitDateTime(IDateTime val) {
+            leaf(val);
+        }
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int c = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static String toHex(byte[] bytes) {
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            result[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(result);
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,101 @@
+/** 
+ * Copyright (c) 2016, Davy Landman, Paul Klint, Centrum Wiskunde & Informatica (CWI) 
+ * All rights reserved. 
+ *  
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met: 
+ *  
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer. 
+ *  
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution. 
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */ 
+package io.usethesource.vallang.io.binary.util;
+
+/**
+ * Window sizes that adapt to the values that are written. <br/>
+ * <br/>
+ * After every value the writer reports the statistics of its windows (see {@link OpenAddressingLastWritten}), 
+ * and the sizes for the next value are adjusted within the bounds of the minimum and maximum sizes:
+ * <ul>
+ * <li>a window that was never filled shrinks towards the amount of entries that were actually written (at most halving per value)</li>
+ * <li>a full window where at least 1% of the lookups were found in its oldest half grows (doubling per value)</li>
+ * </ul>
+ * Sizes are always a power of two, so that the windows can be reused by the {@link WindowCacheFactory}.
+ * The string window is part of the wire stream, so it stays at the maximum size. <br/>
+ * <br/>
+ * Share an instance between streams that write similar values, so that later streams profit from the earlier ones. This class is thread-safe.
+ */
+public class AdaptiveWindowSizes {
+    private static final int MINIMAL_WINDOW = 16;
+
+    private final WindowSizes minimum;
+    private final WindowSizes maximum;
+    private volatile WindowSizes current;
+
+    public AdaptiveWindowSizes() {
+        this(WindowSizes.TINY_WINDOW, WindowSizes.NORMAL_WINDOW);
+    }
+
+    public AdaptiveWindowSizes(WindowSizes minimum, WindowSizes maximum) {
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.current = new WindowSizes(
+            clamp(maximum.valueWindow, minimum.valueWindow, maximum.valueWindow), 
+            clamp(maximum.uriWindow, minimum.uriWindow, maximum.uriWindow), 
+            clamp(maximum.typeWindow, minimum.typeWindow, maximum.typeWindow), 
+            maximum.stringsWindow
+        );
+    }
+
+    /**
+     * @return the sizes to use for the next value
+     */
+    public WindowSizes current() {
+        return current;
+    }
+
+    /**
+     * Adapt the sizes to the statistics of the windows used to write the last value. Windows that do not report statistics are ignored.
+     */
+    public synchronized void sample(WindowSizes used, TrackLastWritten<?> valueWindow, TrackLastWritten<?> uriWindow, TrackLastWritten<?> typeWindow) {
+        WindowSizes old = current;
+        current = new WindowSizes(
+            adapt(old.valueWindow, used.valueWindow, valueWindow, minimum.valueWindow, maximum.valueWindow), 
+            adapt(old.uriWindow, used.uriWindow, uriWindow, minimum.uriWindow, maximum.uriWindow), 
+            adapt(old.typeWindow, used.typeWindow, typeWindow, minimum.typeWindow, maximum.typeWindow), 
+            old.stringsWindow
+        );
+    }
+
+    private static int adapt(int current, int used, TrackLastWritten<?> window, int minimum, int maximum) {
+        if (!(window instanceof OpenAddressingLastWritten)) {
+            return current;
+        }
+        OpenAddressingLastWritten<?> stats = (OpenAddressingLastWritten<?>) window;
+        long written = stats.written();
+        int needed;
+        if (written < used) {
+            // nothing was evicted, so a window of this size would have found the same back references
+            needed = Math.max((int) written, current / 2);
+        }
+        else if (stats.farHits() * 100 >= stats.lookups()) {
+            needed = used * 2;
+        }
+        else {
+            needed = current;
+        }
+        return clamp(needed, minimum, maximum);
+    }
+
+    private static int clamp(int size, int minimum, int maximum) {
+        if (maximum == 0) {
+            return 0;
+        }
+        int result = Math.max(MINIMAL_WINDOW, Integer.highestOneBit(Math.max(size, 1) - 1) << 1);
+        if (result < 0 || result > maximum) {
+            return maximum;
+        }
+        return Math.max(result, minimum);
+    }
+}
@@ -37,6 +37,11 @@ public abstract class OpenAddressingLastWritten<T> implements TrackLastWritten<T
      * how many entries are already written
      */
     private long written;
+    /**
+     * sampling statistics, used to adapt the window size (see {@link AdaptiveWindowSizes})
+     */
+    private long lookups;
+    private long farHits;
     
     /**
      * Create a n OpenAddressingLastWritten container using reference equality and identiy hashcode.
@@ -123,9 +128,14 @@ public abstract class OpenAddressingLastWritten<T> implements TrackLastWritten<T
 
     @Override
     public int howLongAgo(T obj) {
+        lookups++;
         int pos = locate(obj);
         if (pos != -1) {
-            return (int) ((written - writtenAt[pos]) - 1);
+            int result = (int) ((written - writtenAt[pos]) - 1);
+            if (result >= maximumEntries / 2) {
+                farHits++;
+            }
+            return result;
         }
         return -1;
     }
@@ -250,12 +260,34 @@ public abstract class OpenAddressingLastWritten<T> implements TrackLastWritten<T
         return maximumEntries;
     }
     
+    /**
+     * @return how many objects were written since the last clear
+     */
+    public long written() {
+        return written;
+    }
+
+    /**
+     * @return how many lookups were done since the last clear
+     */
+    public long lookups() {
+        return lookups;
+    }
+
+    /**
+     * @return how many lookups found an object in the oldest half of the window, a hint that a larger window would find more
+     */
+    public long farHits() {
+        return farHits;
+    }
+
     @Override
     public void clear() {
         ArrayUtil.fill(keys, null);
         ArrayUtil.fill(oldest, -1);
         written = 0;
-        
+        lookups = 0;
+        farHits = 0;
     }
 
 }
@@ -0,0 +1,125 @@
+/** 
+ * Copyright (c) 2016, Davy Landman, Paul Klint, Centrum Wiskunde & Informatica (CWI) 
+ * All rights reserved. 
+ *  
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met: 
+ *  
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer. 
+ *  
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution. 
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */ 
+package io.usethesource.vallang.io.binary.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictDecompress;
+
+/**
+ * Reads the blocks written by the {@linkplain ZstdDictionaryOutputStream}.
+ */
+public class ZstdDictionaryInputStream extends InputStream {
+    private final InputStream in;
+    private final ZstdDictDecompress dictionary;
+    private byte[] compressed = new byte[0];
+    private byte[] buffer = new byte[0];
+    private int position = 0;
+    private int limit = 0;
+
+    public ZstdDictionaryInputStream(InputStream in, ZstdDictDecompress dictionary) {
+        this.in = in;
+        this.dictionary = dictionary;
+    }
+
+    private boolean readBlock() throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return false;
+        }
+        int size = (first << 24) | readInt(3);
+        int compressedSize = readInt(4);
+        if (size < 0 || compressedSize < 0) {
+            throw new IOException("Corrupt compressed block");
+        }
+        if (compressed.length < compressedSize) {
+            compressed = new byte[compressedSize];
+        }
+        readFully(compressed, compressedSize);
+        if (buffer.length < size) {
+            buffer = new byte[size];
+        }
+        long decompressed = Zstd.decompressFastDict(buffer, 0, compressed, 0, compressedSize, dictionary);
+        if (Zstd.isError(decompressed)) {
+            throw new IOException("Decompression failed: " + Zstd.getErrorName(decompressed));
+        }
+        if (decompressed != size) {
+            throw new IOException("Corrupt compressed block");
+        }
+        position = 0;
+        limit = size;
+        return true;
+    }
+
+    private int readInt(int bytes) throws IOException {
+        int result = 0;
+        for (int i = 0; i < bytes; i++) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            result = (result << 8) | b;
+        }
+        return result;
+    }
+
+    private void readFully(byte[] target, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int chunk = in.read(target, read, length - read);
+            if (chunk == -1) {
+                throw new EOFException();
+            }
+            read += chunk;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (position == limit) {
+            if (!readBlock()) {
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position == limit) {
+            if (!readBlock()) {
+                return -1;
+            }
+        }
+        int chunk = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, chunk);
+        position += chunk;
+        return chunk;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
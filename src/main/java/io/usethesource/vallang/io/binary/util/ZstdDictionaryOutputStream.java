@@ -0,0 +1,107 @@
+/** 
+ * Copyright (c) 2016, Davy Landman, Paul Klint, Centrum Wiskunde & Informatica (CWI) 
+ * All rights reserved. 
+ *  
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met: 
+ *  
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer. 
+ *  
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution. 
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */ 
+package io.usethesource.vallang.io.binary.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+
+/**
+ * Compresses the stream with a zstd dictionary, in independent blocks. <br/>
+ * <br/>
+ * Every block is prefixed with its uncompressed and its compressed size (as 4 byte big endian integers), 
+ * see {@linkplain ZstdDictionaryInputStream} for the reading side.
+ */
+public class ZstdDictionaryOutputStream extends OutputStream {
+    private static final int BLOCK_SIZE = 64*1024;
+
+    private final OutputStream out;
+    private final ZstdDictCompress dictionary;
+    private final byte[] buffer = new byte[BLOCK_SIZE];
+    private int written = 0;
+    private byte[] compressed = new byte[0];
+    private boolean closed = false;
+
+    public ZstdDictionaryOutputStream(OutputStream out, ZstdDictCompress dictionary) {
+        this.out = out;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (written == BLOCK_SIZE) {
+            writeBlock();
+        }
+        buffer[written++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (written == BLOCK_SIZE) {
+                writeBlock();
+            }
+            int chunk = Math.min(len, BLOCK_SIZE - written);
+            System.arraycopy(b, off, buffer, written, chunk);
+            written += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (written == 0) {
+            return;
+        }
+        int bound = (int) Zstd.compressBound(written);
+        if (compressed.length < bound) {
+            compressed = new byte[bound];
+        }
+        long size = Zstd.compressFastDict(compressed, 0, buffer, 0, written, dictionary);
+        if (Zstd.isError(size)) {
+            throw new IOException("Compression failed: " + Zstd.getErrorName(size));
+        }
+        writeInt(written);
+        writeInt((int) size);
+        out.write(compressed, 0, (int) size);
+        written = 0;
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                flush();
+            }
+            finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -38,6 +38,7 @@ import io.usethesource.vallang.type.TypeFactory.TypeReifier;
 /* package */ class AbstractDataType extends NodeType {
 	private final String fName;
     private final Type fParameters;
+    private final SubtypeBits fSubtypes = new SubtypeBits();
     
     protected AbstractDataType(String name, Type parameters) {
         fName = name;
@@ -150,7 +151,11 @@ import io.usethesource.vallang.type.TypeFactory.TypeReifier;
     
     @Override
     protected boolean isSupertypeOf(Type type) {
-        return type.isSubtypeOfAbstractData(this);
+        int known = fSubtypes.get(type);
+        if (known != SubtypeBits.UNKNOWN) {
+            return known == SubtypeBits.YES;
+        }
+        return fSubtypes.put(type, type.isSubtypeOfAbstractData(this));
     }
 
     @Override
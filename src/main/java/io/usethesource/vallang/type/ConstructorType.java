@@ -49,6 +49,7 @@ import io.usethesource.vallang.type.TypeFactory.TypeReifier;
 	private final Type fChildrenTypes;
 	private final Type fADT;
 	private final String fName;
+	private final SubtypeBits fSubtypes = new SubtypeBits();
 
 	/* package */ ConstructorType(String name, Type childrenTypes, Type adt) {
 		super(adt.getName(), adt.getTypeParameters());
@@ -305,7 +306,11 @@ import io.usethesource.vallang.type.TypeFactory.TypeReifier;
 
 	@Override
 	protected boolean isSupertypeOf(Type type) {
-		return type.isSubtypeOfConstructor(this);
+		int known = fSubtypes.get(type);
+		if (known != SubtypeBits.UNKNOWN) {
+			return known == SubtypeBits.YES;
+		}
+		return fSubtypes.put(type, type.isSubtypeOfConstructor(this));
 	}
 
 	@Override
@@ -232,7 +232,7 @@ import io.usethesource.vallang.type.TypeFactory.TypeReifier;
 
 	@Override
 	protected boolean isSupertypeOf(Type type) {
-		return type.isSubtypeOfList(this);
+		return TypeLatticeCache.isSubtype(type, this, (sub, sup) -> sub.isSubtypeOfList(sup));
 	}
 
 	@Override 
@@ -242,12 +242,12 @@ import io.usethesource.vallang.type.TypeFactory.TypeReifier;
 
 	@Override
 	public Type lub(Type other) {
-		return other.lubWithList(this);
+		return TypeLatticeCache.lub(this, other, (self, o) -> o.lubWithList(self));
 	}
 
 	@Override
 	public Type glb(Type type) {
-		return type.glbWithList(this);
+		return TypeLatticeCache.glb(this, type, (self, o) -> o.glbWithList(self));
 	}
 
 	@Override
@@ -276,17 +276,17 @@ import io.usethesource.vallang.exceptions.UndeclaredFieldException;
 
     @Override
     protected boolean isSupertypeOf(Type type) {
-      return type.isSubtypeOfMap(this);
+      return TypeLatticeCache.isSubtype(type, this, (sub, sup) -> sub.isSubtypeOfMap(sup));
     }
     
     @Override
     public Type lub(Type other) {
-      return other.lubWithMap(this);
+      return TypeLatticeCache.lub(this, other, (self, o) -> o.lubWithMap(self));
     }
     
     @Override
     public Type glb(Type type) {
-      return type.glbWithMap(this);
+      return TypeLatticeCache.glb(this, type, (self, o) -> o.glbWithMap(self));
     }
     
     @Override
@@ -225,17 +225,17 @@ import io.usethesource.vallang.ISetWriter;
 
 	@Override
 	protected boolean isSupertypeOf(Type type) {
-		return type.isSubtypeOfSet(this);
+		return TypeLatticeCache.isSubtype(type, this, (sub, sup) -> sub.isSubtypeOfSet(sup));
 	}
 
 	@Override
 	public Type lub(Type other) {
-		return other.lubWithSet(this);
+		return TypeLatticeCache.lub(this, other, (self, o) -> o.lubWithSet(self));
 	}
 
 	@Override
 	public Type glb(Type type) {
-		return type.glbWithSet(this);
+		return TypeLatticeCache.glb(this, type, (self, o) -> o.glbWithSet(self));
 	}
 
 	@Override
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Centrum Wiskunde & Informatica
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package io.usethesource.vallang.type;
+
+/**
+ * A row of the subtype matrix of one (interned) supertype, keyed by the id
+ * that {@link TypeFactory} assigns to each interned type.
+ * <br/>
+ * Type ids are handed out for every interned type and never reused, so the row is a sparse
+ * open-addressed table which only holds the candidate subtypes that were actually checked.
+ * Every slot packs the id and two bits in one int: whether the answer is known, and the answer
+ * itself, so a reader never observes one without the other.
+ * Reads are lock free; a racy read at worst returns {@link #UNKNOWN} and the answer is recomputed.
+ */
+/*package*/ final class SubtypeBits {
+    static final int UNKNOWN = -1;
+    static final int NO = 0;
+    static final int YES = 1;
+
+    private static final int KNOWN = 0b10;
+    private static final int MAX_ID = Integer.MAX_VALUE >>> 2;
+    private static final int[] EMPTY = new int[0];
+
+    private volatile int[] slots = EMPTY;
+    private int count = 0;
+
+    /**
+     * @return {@link #YES}, {@link #NO} or {@link #UNKNOWN} if the subtype relation was not recorded yet
+     */
+    int get(Type sub) {
+        int id = sub.getTypeId();
+        if (id < 0 || id > MAX_ID) {
+            return UNKNOWN;
+        }
+
+        int[] current = slots;
+        if (current.length == 0) {
+            return UNKNOWN;
+        }
+
+        int mask = current.length - 1;
+        for (int i = mix(id) & mask;; i = (i + 1) & mask) {
+            int slot = current[i];
+            if (slot == 0) {
+                return UNKNOWN;
+            }
+            if ((slot >>> 2) == id) {
+                return slot & YES;
+            }
+        }
+    }
+
+    /**
+     * Records the subtype relation between the given type and the owner of this row;
+     * types without an id (not interned) are not recorded.
+     */
+    boolean put(Type sub, boolean isSubtype) {
+        int id = sub.getTypeId();
+        if (id < 0 || id > MAX_ID) {
+            return isSubtype;
+        }
+
+        int slot = (id << 2) | KNOWN | (isSubtype ? YES : NO);
+
+        synchronized (this) {
+            int[] current = slots;
+            if ((count + 1) * 2 > current.length) {
+                // grow before inserting, such that at least half of the slots stay free
+                int[] grown = new int[Math.max(8, current.length * 2)];
+                for (int old : current) {
+                    if (old != 0) {
+                        insert(grown, old);
+                    }
+                }
+                current = grown;
+            }
+            if (insert(current, slot)) {
+                count++;
+            }
+            slots = current;
+        }
+
+        return isSubtype;
+    }
+
+    /**
+     * @return true if the id was not in the table yet
+     */
+    private static boolean insert(int[] table, int slot) {
+        int id = slot >>> 2;
+        int mask = table.length - 1;
+        for (int i = mix(id) & mask;; i = (i + 1) & mask) {
+            if (table[i] == 0) {
+                table[i] = slot;
+                return true;
+            }
+            if ((table[i] >>> 2) == id) {
+                table[i] = slot;
+                return false;
+            }
+        }
+    }
+
+    private static int mix(int id) {
+        // ids are consecutive, so spread them over the table
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -487,17 +487,17 @@ import io.usethesource.vallang.exceptions.UndeclaredFieldException;
 	
 	@Override
 	protected boolean isSupertypeOf(Type type) {
-	  return type.isSubtypeOfTuple(this);
+	  return TypeLatticeCache.isSubtype(type, this, (sub, sup) -> sub.isSubtypeOfTuple(sup));
 	}
 	
 	@Override
 	public Type lub(Type other) {
-	  return other.lubWithTuple(this);
+	  return TypeLatticeCache.lub(this, other, (self, o) -> o.lubWithTuple(self));
 	}
 	
 	@Override
 	public Type glb(Type type) {
-	  return type.glbWithTuple(this);
+	  return TypeLatticeCache.glb(this, type, (self, o) -> o.glbWithTuple(self));
 	}
 	
 	@Override
@@ -64,8 +64,28 @@ public abstract class Type implements Iterable<Type>, Comparable<Type> {
   private static final Type LIST_TYPE = TF.listType(VALUE_TYPE);
   private static final Type SET_TYPE = TF.setType(VALUE_TYPE);
   
+  /**
+   * Dense id, assigned by the {@link TypeFactory} when the type is interned, -1 otherwise
+   */
+  private int fTypeId = -1;
+  
   public abstract TypeFactory.TypeReifier getTypeReifier();
   
+  /**
+   * Interned types are numbered densely in the order in which they were first constructed,
+   * which makes the id useful as an index into arrays and bitsets (for example to dispatch on 
+   * constructor types).
+   * 
+   * @return a unique and dense id for this type, or -1 if the type is not interned by the {@link TypeFactory}
+   */
+  public int getTypeId() {
+    return fTypeId;
+  }
+  
+  /*package*/ void setTypeId(int id) {
+    fTypeId = id;
+  }
+  
   /**
    * Retrieve the type of elements in a set or a relation.
    * 
@@ -395,7 +415,7 @@ public abstract class Type implements Iterable<Type>, Comparable<Type> {
    * @return true if the receiver is a subtype of the other type
    */
   public final boolean isSubtypeOf(Type other) {
-    return other == this || other.isSupertypeOf(this);
+    return other == this || other == VALUE_TYPE || other.isSupertypeOf(this);
   }
   
   public final boolean isStrictSubtypeOf(Type other) {
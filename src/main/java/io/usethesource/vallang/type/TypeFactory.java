@@ -55,6 +55,7 @@ public class TypeFactory {
 	 * Caches all types to implement canonicalization
 	 */
 	private final Map<Type, Type> fCache = new HashMap<Type, Type>();
+	private int fNextTypeId = 0;
     private TypeValues typeValues;
     
 	private static class InstanceHolder {
@@ -110,6 +111,7 @@ public class TypeFactory {
 			Type result = fCache.get(t);
 
 			if (result == null) {
+				t.setTypeId(fNextTypeId++);
 				fCache.put(t, t);
 				return t;
 			}
@@ -118,6 +120,22 @@ public class TypeFactory {
 		}
 	}
 
+	/**
+	 * lub, glb and isSubtypeOf are memoized for structured types (tuples, lists, sets and maps).
+	 * 
+	 * @return the fraction of these operations that was answered from the memo cache
+	 */
+	public double getLatticeCacheHitRate() {
+		return TypeLatticeCache.hitRate();
+	}
+
+	/**
+	 * @return the amount of lub, glb and isSubtypeOf operations that consulted the memo cache
+	 */
+	public long getLatticeCacheRequestCount() {
+		return TypeLatticeCache.requestCount();
+	}
+
 	/**
 	 * Construct a new type.
 	 * 
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Centrum Wiskunde & Informatica
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package io.usethesource.vallang.type;
+
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Memoizes lub, glb and isSubtypeOf for the structured types (tuples, lists, sets and maps), 
+ * where the computation recurses into the element types and builds new (interned) types. 
+ * <br/>
+ * Types are canonical, so the pairs are keyed on identity. 
+ * The computation is done outside of the cache, since it recursively uses the same cache.
+ */
+/*package*/ final class TypeLatticeCache {
+    private static final int MAXIMUM_SIZE = 64 * 1024;
+
+    private static final Cache<TypePair, Type> LUB = Caffeine.newBuilder().maximumSize(MAXIMUM_SIZE).recordStats().build();
+    private static final Cache<TypePair, Type> GLB = Caffeine.newBuilder().maximumSize(MAXIMUM_SIZE).recordStats().build();
+    private static final Cache<TypePair, Boolean> SUBTYPE = Caffeine.newBuilder().maximumSize(MAXIMUM_SIZE).recordStats().build();
+
+    private TypeLatticeCache() { }
+
+    private static final class TypePair {
+        private final Type first;
+        private final Type second;
+        private final int hash;
+
+        TypePair(Type first, Type second) {
+            this.first = first;
+            this.second = second;
+            this.hash = System.identityHashCode(first) * 31 + System.identityHashCode(second);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof TypePair) {
+                TypePair other = (TypePair) obj;
+                return first == other.first && second == other.second;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param compute the uncached double dispatch, called with the same arguments
+     */
+    static Type lub(Type self, Type other, BiFunction<Type, Type, Type> compute) {
+        if (self == other || other == VoidType.getInstance()) {
+            return self;
+        }
+        if (other == ValueType.getInstance()) {
+            return other;
+        }
+        TypePair key = new TypePair(self, other);
+        Type result = LUB.getIfPresent(key);
+        if (result == null) {
+            result = compute.apply(self, other);
+            LUB.put(key, result);
+        }
+        return result;
+    }
+
+    static Type glb(Type self, Type other, BiFunction<Type, Type, Type> compute) {
+        if (self == other || other == ValueType.getInstance()) {
+            return self;
+        }
+        if (other == VoidType.getInstance()) {
+            return other;
+        }
+        TypePair key = new TypePair(self, other);
+        Type result = GLB.getIfPresent(key);
+        if (result == null) {
+            result = compute.apply(self, other);
+            GLB.put(key, result);
+        }
+        return result;
+    }
+
+    static boolean isSubtype(Type sub, Type sup, BiPredicate<Type, Type> compute) {
+        if (sub == sup || sub == VoidType.getInstance()) {
+            return true;
+        }
+        TypePair key = new TypePair(sub, sup);
+        Boolean result = SUBTYPE.getIfPresent(key);
+        if (result == null) {
+            result = compute.test(sub, sup);
+            SUBTYPE.put(key, result);
+        }
+        return result;
+    }
+
+    static double hitRate() {
+        CacheStats stats = LUB.stats().plus(GLB.stats()).plus(SUBTYPE.stats());
+        return stats.hitRate();
+    }
+
+    static long requestCount() {
+        return LUB.stats().requestCount() + GLB.stats().requestCount() + SUBTYPE.stats().requestCount();
+    }
+}
@@ -48,6 +48,8 @@ public class TypeStore {
 	private final Map<String, Type> fAliases= new HashMap<>();
 	private final Map<String, Type> fADTs= new HashMap<>();
 	private final Map<Type, Set<Type>> fConstructors = new HashMap<>();
+	/** index of fConstructors on constructor name, guarded by the lock on fConstructors */
+	private final Map<String, Map<Type, Set<Type>>> fConstructorsByName = new HashMap<>();
 	private final Map<Type, Map<String, Type>> fAnnotations = new HashMap<>();
 	private final Map<Type, Map<String, Type>> fkeywordParameters = new HashMap<>();
 	private final Set<TypeStore> fImports = new HashSet<>();
@@ -188,6 +190,10 @@ public class TypeStore {
 
 	      set.addAll(other.fConstructors.get(type));
 	      fConstructors.put(type, set);
+	      
+	      for (Type cons : set) {
+	        indexConstructor(type, cons);
+	      }
 	    }
 	  }
 
@@ -365,6 +371,32 @@ public class TypeStore {
 	      }
 
 	      localSignature.add(constructor);
+	      indexConstructor(adt, constructor);
+	    }
+	  }
+	}
+
+	private void indexConstructor(Type adt, Type constructor) {
+	  fConstructorsByName
+	    .computeIfAbsent(constructor.getName(), n -> new HashMap<>())
+	    .computeIfAbsent(adt, a -> new HashSet<>())
+	    .add(constructor);
+	}
+
+	private static void addConstructorsByName(TypeStore store, Type adt, String constructorName, Set<Type> result) {
+	  Map<Type, Set<Type>> named = store.fConstructorsByName.get(constructorName);
+
+	  if (named != null) {
+	    if (adt == null) {
+	      for (Set<Type> alts : named.values()) {
+	        result.addAll(alts);
+	      }
+	    }
+	    else {
+	      Set<Type> alts = named.get(adt);
+	      if (alts != null) {
+	        result.addAll(alts);
+	      }
 	    }
 	  }
 	}
@@ -477,26 +509,14 @@ public class TypeStore {
 	        adt = adt.getAliased();
 	      }
 	      Type parameterizedADT = fADTs.get(adt.getName());
-	      Set<Type> local = parameterizedADT != null ? fConstructors.get(parameterizedADT) : null;
 	      Set<Type> result = new HashSet<>();
 
-	      if (local != null) {
-	        for (Type cand : local) {
-	          if (cand.getName().equals(constructorName)) {
-	            result.add(cand);
-	          }
-	        }
+	      if (parameterizedADT != null) {
+	        addConstructorsByName(this, parameterizedADT, constructorName, result);
 	      }
 
 	      for (TypeStore i : fImports) {
-	        local = i.fConstructors.get(adt);
-	        if (local != null) {
-	          for (Type cand : local) {
-	            if (cand.getName().equals(constructorName)) {
-	              result.add(cand);
-	            }
-	          }
-	        }
+	        addConstructorsByName(i, adt, constructorName, result);
 	      }
 
 	      return result;
@@ -575,25 +595,11 @@ public class TypeStore {
 	    synchronized (fImports) {
 	      Set<Type> result = new HashSet<>();
 
-	      for (Set<Type> adt : fConstructors.values()) {
-	        for (Type cand : adt) {
-	          String name = cand.getName();
-	          if (name.equals(constructorName)) {
-	            result.add(cand);
-	          }
-	        }
-	      }
+	      addConstructorsByName(this, null, constructorName, result);
 
 	      for (TypeStore i : fImports) {
 	        if (i != this) {
-	          for (Set<Type> adt : i.fConstructors.values()) {
-	            for (Type cand : adt) {
-	              String name = cand.getName();
-	              if (name.equals(constructorName)) {
-	                result.add(cand);
-	              }
-	            }
-	          }
+	          addConstructorsByName(i, null, constructorName, result);
 	        }
 	      }
 
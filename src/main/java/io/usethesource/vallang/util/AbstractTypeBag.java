@@ -11,9 +11,12 @@
  *******************************************************************************/
 package io.usethesource.vallang.util;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Objects;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
+import java.util.function.ObjIntConsumer;
 import java.util.function.Supplier;
 import java.util.stream.Collector;
 
@@ -27,9 +30,22 @@ import static io.usethesource.capsule.util.stream.CapsuleCollectors.UNORDERED;
 /**
  * Stores mapping (Type -> Integer) to keep track of a collection's element types. The least upper
  * bound type of is calculated on basis of the map keys.
+ * <br/>
+ * Types are canonical, so they are compared by reference. Most collections contain elements of one
+ * or a few types only, therefore bags with few types are stored in small arrays with primitive counts
+ * and only large bags are backed by a persistent map. Writers should use a {@link TransientTypeBag},
+ * which is updated in place, and freeze it once.
  */
 public abstract class AbstractTypeBag implements Cloneable {
 
+  /**
+   * Bags with more distinct types than this are backed by a persistent map.
+   */
+  private static final int MAX_INLINE_TYPES = 8;
+
+  private static final Type[] EMPTY_TYPES = new Type[0];
+  private static final int[] EMPTY_COUNTS = new int[0];
+
   public abstract AbstractTypeBag increase(Type t);
 
   public abstract AbstractTypeBag decrease(Type t);
@@ -49,50 +65,415 @@ public abstract class AbstractTypeBag implements Cloneable {
   }
 
   public static AbstractTypeBag of(String label, Type... ts) {
-    return TypeBag.of(label, ts);
+    if (ts.length == 0) {
+      return new ArrayTypeBag(label, EMPTY_TYPES, EMPTY_COUNTS, voidType());
+    }
+
+    final TransientTypeBag result = transientOf(label);
+
+    for (Type t : ts) {
+      result.increase(t);
+    }
+
+    return result.freeze();
   }
 
+  public static TransientTypeBag transientOf() {
+    return transientOf(null);
+  }
+
+  public static TransientTypeBag transientOf(String label) {
+    return new TransientTypeBag(label);
+  }
+
+  /**
+   * Creates a type bag that is computed on first use, for collections that are built in bulk
+   * and of which the type is often never inspected.
+   * 
+   * @param label the label of the bag, which is known without running the computation
+   * @param computation produces the bag, may be executed more than once under contention
+   */
+  public static AbstractTypeBag lazy(String label, Supplier<AbstractTypeBag> computation) {
+    return new LazyTypeBag(label, computation);
+  }
+
+  /**
+   * @return the amount of distinct types in the bag
+   */
   public abstract int size();
 
+  /**
+   * @return how often the given type was added to the bag (and not removed)
+   */
+  public abstract int count(Type t);
+
+  /**
+   * Visits each distinct type in the bag with its count.
+   */
+  public abstract void forEach(ObjIntConsumer<Type> action);
+
 //  // Experimental
 //  public abstract AbstractTypeBag select(int... fields);
 
   // Experimental
   // public abstract AbstractTypeBag union(AbstractTypeBag other);
 
+  @Override
+  public int hashCode() {
+    final int[] hash = { Objects.hashCode(getLabel()) };
+    forEach((t, c) -> hash[0] += t.hashCode() ^ c);
+    return hash[0];
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof AbstractTypeBag)) return false;
+    final AbstractTypeBag other = (AbstractTypeBag) o;
+    if (!Objects.equals(getLabel(), other.getLabel()) || size() != other.size()) {
+      return false;
+    }
+    final boolean[] equal = { true };
+    forEach((t, c) -> equal[0] &= other.count(t) == c);
+    return equal[0];
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder members = new StringBuilder("{");
+    forEach((t, c) -> {
+      if (members.length() > 1) {
+        members.append(", ");
+      }
+      members.append(t).append('=').append(c);
+    });
+    members.append('}');
+
+    if (getLabel() != null) {
+      return String.format("PreciseType(label=%s, members=%s)", getLabel(), members);
+    } else {
+      return String.format("PreciseType(members=%s)", members);
+    }
+  }
+
+  private static Type voidType() {
+    return TypeFactory.getInstance().voidType();
+  }
+
+  private static int indexOf(Type[] types, int size, Type t) {
+    for (int i = 0; i < size; i++) {
+      if (types[i] == t) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static Type lubOf(Type[] types, int size) {
+    Type result = voidType();
+    for (int i = 0; i < size; i++) {
+      result = result.lub(types[i]);
+    }
+    return result;
+  }
+
   /**
-   * Implementation of <@link AbstractTypeBag/> that cached the current least upper bound.
+   * Creates the smallest immutable representation for the given counts; the arrays are copied if needed.
    */
-  private static class TypeBag extends AbstractTypeBag {
+  private static AbstractTypeBag fromCounts(String label, Type[] types, int[] counts, int size, Type cachedLub) {
+    switch (size) {
+      case 0:
+        return new ArrayTypeBag(label, EMPTY_TYPES, EMPTY_COUNTS, voidType());
+      case 1:
+        return new SingleTypeBag(label, types[0], counts[0]);
+      default:
+        if (size <= MAX_INLINE_TYPES) {
+          return new ArrayTypeBag(label, Arrays.copyOf(types, size), Arrays.copyOf(counts, size), cachedLub);
+        }
+
+        final Map.Transient<Type, Integer> countMap = Map.Transient.of();
+        for (int i = 0; i < size; i++) {
+          countMap.__put(types[i], counts[i]);
+        }
+        return new TypeBag(label, countMap.freeze(), cachedLub);
+    }
+  }
+
+  /**
+   * Bag of a single type, which is by far the most common case: no arrays or maps are needed
+   * and the lub is the type itself.
+   */
+  private static final class SingleTypeBag extends AbstractTypeBag {
     private final String label;
-    private final Map.Immutable<Type, Integer> countMap;
+    private final Type type;
+    private final int count;
 
-    private Type cachedLub;
+    private SingleTypeBag(String label, Type type, int count) {
+      this.label = label;
+      this.type = type;
+      this.count = count;
+    }
 
-    private TypeBag(String label, Map.Immutable<Type, Integer> countMap) {
-      this(label, countMap, null);
+    @Override
+    public AbstractTypeBag increase(Type t) {
+      if (t == type) {
+        return new SingleTypeBag(label, type, count + 1);
+      }
+      return new ArrayTypeBag(label, new Type[] { type, t }, new int[] { count, 1 }, type.lub(t));
     }
 
-    private TypeBag(String label, Map.Immutable<Type, Integer> countMap, Type cachedLub) {
+    @Override
+    public AbstractTypeBag decrease(Type t) {
+      if (t != type) {
+        throw new IllegalStateException(String.format("Type '%s' was not present.", t));
+      }
+      if (count > 1) {
+        return new SingleTypeBag(label, type, count - 1);
+      }
+      return new ArrayTypeBag(label, EMPTY_TYPES, EMPTY_COUNTS, voidType());
+    }
+
+    @Deprecated
+    @Override
+    public AbstractTypeBag setLabel(String label) {
+      return new SingleTypeBag(label, type, count);
+    }
+
+    @Deprecated
+    @Override
+    public String getLabel() {
+      return label;
+    }
+
+    @Override
+    public Type lub() {
+      return type;
+    }
+
+    @Override
+    public AbstractTypeBag clone() {
+      return new SingleTypeBag(label, type, count);
+    }
+
+    @Override
+    public int size() {
+      return 1;
+    }
+
+    @Override
+    public int count(Type t) {
+      return t == type ? count : 0;
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<Type> action) {
+      action.accept(type, count);
+    }
+  }
+
+  /**
+   * Bag of a few types, stored in (copy-on-write) arrays. The types array is shared between versions
+   * that only differ in their counts, and the least upper bound is maintained incrementally.
+   */
+  private static final class ArrayTypeBag extends AbstractTypeBag {
+    private final String label;
+    private final Type[] types;
+    private final int[] counts;
+
+    private Type cachedLub;
+
+    private ArrayTypeBag(String label, Type[] types, int[] counts, Type cachedLub) {
       this.label = label;
-      this.countMap = countMap;
+      this.types = types;
+      this.counts = counts;
       this.cachedLub = cachedLub;
     }
 
-    public static final AbstractTypeBag of(final Type... ts) {
-      return of(null, ts);
+    @Override
+    public AbstractTypeBag increase(Type t) {
+      final int index = indexOf(types, types.length, t);
+
+      if (index >= 0) {
+        final int[] newCounts = counts.clone();
+        newCounts[index]++;
+        return new ArrayTypeBag(label, types, newCounts, cachedLub);
+      }
+
+      final Type newCachedLub = cachedLub == null ? null : cachedLub.lub(t);
+      final Type[] newTypes = Arrays.copyOf(types, types.length + 1);
+      final int[] newCounts = Arrays.copyOf(counts, counts.length + 1);
+      newTypes[types.length] = t;
+      newCounts[counts.length] = 1;
+      return fromCounts(label, newTypes, newCounts, newTypes.length, newCachedLub);
     }
 
-    public static final AbstractTypeBag of(final String label, final Type... ts) {
-      AbstractTypeBag result = new TypeBag(label, Map.Immutable.of());
+    @Override
+    public AbstractTypeBag decrease(Type t) {
+      final int index = indexOf(types, types.length, t);
 
-      for (Type t : ts) {
-        result = result.increase(t);
+      if (index < 0) {
+        throw new IllegalStateException(String.format("Type '%s' was not present.", t));
+      } else if (counts[index] > 1) {
+        // update and decrease count; lub stays the same
+        final int[] newCounts = counts.clone();
+        newCounts[index]--;
+        return new ArrayTypeBag(label, types, newCounts, cachedLub);
+      } else {
+        // count drops to zero, thus remove entry and invalidate cached type
+        final int size = types.length - 1;
+        final Type[] newTypes = new Type[size];
+        final int[] newCounts = new int[size];
+        System.arraycopy(types, 0, newTypes, 0, index);
+        System.arraycopy(types, index + 1, newTypes, index, size - index);
+        System.arraycopy(counts, 0, newCounts, 0, index);
+        System.arraycopy(counts, index + 1, newCounts, index, size - index);
+        return fromCounts(label, newTypes, newCounts, size, null);
       }
+    }
 
+    @Deprecated
+    @Override
+    public AbstractTypeBag setLabel(String label) {
+      return new ArrayTypeBag(label, types, counts, cachedLub);
+    }
+
+    @Deprecated
+    @Override
+    public String getLabel() {
+      return label;
+    }
+
+    @Override
+    public Type lub() {
+      if (cachedLub == null) {
+        cachedLub = lubOf(types, types.length);
+      }
+      return cachedLub;
+    }
+
+    @Override
+    public AbstractTypeBag clone() {
+      return new ArrayTypeBag(label, types, counts, cachedLub);
+    }
+
+    @Override
+    public int size() {
+      return types.length;
+    }
+
+    @Override
+    public int count(Type t) {
+      final int index = indexOf(types, types.length, t);
+      return index >= 0 ? counts[index] : 0;
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<Type> action) {
+      for (int i = 0; i < types.length; i++) {
+        action.accept(types[i], counts[i]);
+      }
+    }
+  }
+
+  /**
+   * Type bag that runs its computation on the first query and delegates to the result
+   * from then on; only the label is available without computing the bag.
+   */
+  private static final class LazyTypeBag extends AbstractTypeBag {
+    private final String label;
+    private final Supplier<AbstractTypeBag> computation;
+
+    private volatile AbstractTypeBag computed;
+
+    private LazyTypeBag(String label, Supplier<AbstractTypeBag> computation) {
+      this.label = label;
+      this.computation = computation;
+    }
+
+    @SuppressWarnings("deprecation")
+    private AbstractTypeBag force() {
+      AbstractTypeBag result = computed;
+      if (result == null) {
+        result = computation.get();
+        if (!Objects.equals(label, result.getLabel())) {
+          result = result.setLabel(label);
+        }
+        computed = result;
+      }
       return result;
     }
 
+    @Override
+    public AbstractTypeBag increase(Type t) {
+      return force().increase(t);
+    }
+
+    @Override
+    public AbstractTypeBag decrease(Type t) {
+      return force().decrease(t);
+    }
+
+    @Deprecated
+    @Override
+    public AbstractTypeBag setLabel(String label) {
+      final AbstractTypeBag result = computed;
+      if (result != null) {
+        return result.setLabel(label);
+      }
+      return new LazyTypeBag(label, computation);
+    }
+
+    @Deprecated
+    @Override
+    public String getLabel() {
+      return label;
+    }
+
+    @Override
+    public Type lub() {
+      return force().lub();
+    }
+
+    @Override
+    public AbstractTypeBag clone() {
+      return force().clone();
+    }
+
+    @Override
+    public int size() {
+      return force().size();
+    }
+
+    @Override
+    public int count(Type t) {
+      return force().count(t);
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<Type> action) {
+      force().forEach(action);
+    }
+  }
+
+  /**
+   * Implementation of <@link AbstractTypeBag/> that cached the current least upper bound.
+   */
+  private static class TypeBag extends AbstractTypeBag {
+    private final String label;
+    private final Map.Immutable<Type, Integer> countMap;
+
+    private Type cachedLub;
+
+    private TypeBag(String label, Map.Immutable<Type, Integer> countMap) {
+      this(label, countMap, null);
+    }
+
+    private TypeBag(String label, Map.Immutable<Type, Integer> countMap, Type cachedLub) {
+      this.label = label;
+      this.countMap = countMap;
+      this.cachedLub = cachedLub;
+    }
+
 //    @Override
 //    public AbstractTypeBag select(int... fields) {
 //
@@ -132,7 +513,7 @@ public abstract class AbstractTypeBag implements Cloneable {
         }
       } else {
         newCountMap = countMap.__put(t, oldCount + 1);
-        return new TypeBag(label, newCountMap);
+        return new TypeBag(label, newCountMap, cachedLub);
       }
     }
 
@@ -168,7 +549,7 @@ public abstract class AbstractTypeBag implements Cloneable {
     @Override
     public Type lub() {
       if (cachedLub == null) {
-        Type inferredLubType = TypeFactory.getInstance().voidType();
+        Type inferredLubType = voidType();
         for (Type t : countMap.keySet()) {
           inferredLubType = inferredLubType.lub(t);
         }
@@ -182,52 +563,158 @@ public abstract class AbstractTypeBag implements Cloneable {
       return new TypeBag(label, countMap);
     }
 
-    @Override
-    public String toString() {
-      if (label != null) {
-        return String.format("PreciseType(label=%s, members=%s)", label, countMap.toString());
-      } else {
-        return String.format("PreciseType(members=%s)", countMap.toString());
-      }
-    }
-
     @Override
     public int size() {
       return countMap.size();
     }
 
     @Override
-    public int hashCode() {
-      return Objects.hash(label, countMap);
+    public int count(Type t) {
+      final Integer count = countMap.get(t);
+      return count == null ? 0 : count;
     }
 
     @Override
-    public boolean equals(Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-      TypeBag typeBag = (TypeBag) o;
-      return Objects.equals(label, typeBag.label) &&
-          Objects.equals(countMap, typeBag.countMap);
+    public void forEach(ObjIntConsumer<Type> action) {
+      countMap.forEach((t, c) -> action.accept(t, c));
     }
   }
 
-  public static <M extends Map.Transient<Type, Integer>> Collector<Type, ?, ? extends AbstractTypeBag> toTypeBag() {
-    final BiConsumer<M, Type> accumulator = (countMap, type0) -> countMap.compute(type0,
-        (type1, count) -> count == null ? 1 : count + 1);
+  /**
+   * Mutable type bag for writers and collectors, which updates primitive counts in place and
+   * maintains the least upper bound incrementally while types are only added.
+   * Use {@link #freeze()} to obtain an immutable {@link AbstractTypeBag}.
+   */
+  public static final class TransientTypeBag {
+    private final String label;
+    private Type[] types = new Type[4];
+    private int[] counts = new int[4];
+    private int size = 0;
+
+    /** position of each type in the arrays, only used once the bag holds many distinct types */
+    private java.util.Map<Type, Integer> index = null;
+
+    /** null if it has to be recomputed after a type was removed */
+    private Type lub = voidType();
+
+    private TransientTypeBag(String label) {
+      this.label = label;
+    }
+
+    public void increase(Type t) {
+      increase(t, 1);
+    }
+
+    private void increase(Type t, int count) {
+      final int i = indexOf(t);
+
+      if (i >= 0) {
+        counts[i] += count;
+        return;
+      }
+
+      if (size == types.length) {
+        types = Arrays.copyOf(types, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+
+      types[size] = t;
+      counts[size] = count;
+
+      if (index != null) {
+        index.put(t, size);
+      }
+
+      size++;
+
+      if (index == null && size > MAX_INLINE_TYPES) {
+        index = new HashMap<>();
+        for (int j = 0; j < size; j++) {
+          index.put(types[j], j);
+        }
+      }
+
+      if (lub != null) {
+        lub = lub.lub(t);
+      }
+    }
+
+    public void decrease(Type t) {
+      final int i = indexOf(t);
+
+      if (i < 0) {
+        throw new IllegalStateException(String.format("Type '%s' was not present.", t));
+      }
+
+      if (--counts[i] == 0) {
+        final int last = --size;
+
+        if (index != null) {
+          index.remove(t);
+        }
+
+        if (i != last) {
+          types[i] = types[last];
+          counts[i] = counts[last];
+
+          if (index != null) {
+            index.put(types[i], i);
+          }
+        }
+
+        types[last] = null;
+        lub = null;
+      }
+    }
+
+    /**
+     * Adds all counts of another transient bag to this one.
+     */
+    public TransientTypeBag addAll(TransientTypeBag other) {
+      for (int i = 0; i < other.size; i++) {
+        increase(other.types[i], other.counts[i]);
+      }
+      return this;
+    }
+
+    public Type lub() {
+      if (lub == null) {
+        lub = lubOf(types, size);
+      }
+      return lub;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int count(Type t) {
+      final int i = indexOf(t);
+      return i >= 0 ? counts[i] : 0;
+    }
+
+    public AbstractTypeBag freeze() {
+      return fromCounts(label, types, counts, size, lub);
+    }
+
+    private int indexOf(Type t) {
+      if (index != null) {
+        final Integer i = index.get(t);
+        return i == null ? -1 : i;
+      }
+      return AbstractTypeBag.indexOf(types, size, t);
+    }
+  }
 
-    final BinaryOperator<M> combiner = (countMap1, countMap2) -> {
-      countMap2.forEach((type, count2) -> {
-        final Integer count1 = countMap1.getOrDefault(type, 0);
-        countMap1.compute(type, (t, c) -> count1 + count2);
-      });
+  public static Collector<Type, ?, AbstractTypeBag> toTypeBag() {
+    final BiConsumer<TransientTypeBag, Type> accumulator = TransientTypeBag::increase;
 
-      return countMap1;
-    };
+    final BinaryOperator<TransientTypeBag> combiner = TransientTypeBag::addAll;
 
-    final Supplier<? extends Map.Transient<Type, Integer>> supplier = Map.Transient::of;
+    final Supplier<TransientTypeBag> supplier = AbstractTypeBag::transientOf;
 
-    return new DefaultCollector<>((Supplier<M>) supplier, accumulator, combiner,
-        (countMap) -> new TypeBag(null, countMap.freeze()), UNORDERED);
+    return new DefaultCollector<>(supplier, accumulator, combiner, TransientTypeBag::freeze,
+        UNORDERED);
   }
 
 //  public static <T, K, V> Collector<T, ?, List<AbstractTypeBag>> toTypeBagList(
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.util;
+
+import java.util.Comparator;
+
+import io.usethesource.vallang.ISourceLocation;
+
+/**
+ * A total order on source locations which is consistent with equals, for sorted collections
+ * and binary search over locations. Files are ordered on the (cached) hash code of their URI first,
+ * so the strings of two URIs are only compared on a collision; locations within one file are
+ * ordered on their offset, length, lines and columns. Locations without an offset come first.
+ * <br/>
+ * The order between files is arbitrary but stable; it is not the lexicographic order of the URIs.
+ */
+public final class SourceLocationComparator implements Comparator<ISourceLocation> {
+    private static final SourceLocationComparator INSTANCE = new SourceLocationComparator();
+
+    private SourceLocationComparator() { }
+
+    public static SourceLocationComparator getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public int compare(ISourceLocation a, ISourceLocation b) {
+        if (a == b) {
+            return 0;
+        }
+
+        int result = compareFiles(a.top(), b.top());
+        if (result != 0) {
+            return result;
+        }
+
+        result = Boolean.compare(a.hasOffsetLength(), b.hasOffsetLength());
+        if (result != 0 || !a.hasOffsetLength()) {
+            return result;
+        }
+
+        result = Integer.compare(a.getOffset(), b.getOffset());
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(a.getLength(), b.getLength());
+        if (result != 0) {
+            return result;
+        }
+
+        result = Boolean.compare(a.hasLineColumn(), b.hasLineColumn());
+        if (result != 0 || !a.hasLineColumn()) {
+            return result;
+        }
+
+        result = Integer.compare(a.getBeginLine(), b.getBeginLine());
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(a.getEndLine(), b.getEndLine());
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(a.getBeginColumn(), b.getBeginColumn());
+        if (result != 0) {
+            return result;
+        }
+        return Integer.compare(a.getEndColumn(), b.getEndColumn());
+    }
+
+    private static int compareFiles(ISourceLocation a, ISourceLocation b) {
+        if (a == b || a.equals(b)) {
+            return 0;
+        }
+
+        int result = Integer.compare(a.hashCode(), b.hashCode());
+        if (result != 0) {
+            return result;
+        }
+
+        result = a.getScheme().compareTo(b.getScheme());
+        if (result != 0) {
+            return result;
+        }
+        result = a.getAuthority().compareTo(b.getAuthority());
+        if (result != 0) {
+            return result;
+        }
+        result = a.getPath().compareTo(b.getPath());
+        if (result != 0) {
+            return result;
+        }
+        result = a.getQuery().compareTo(b.getQuery());
+        if (result != 0) {
+            return result;
+        }
+        return a.getFragment().compareTo(b.getFragment());
+    }
+}
@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValueFactory;
+
+/**
+ * A compact table of source locations which all point into the same file. Instead of one
+ * object per location, the offsets, lengths, lines and columns of all locations are packed
+ * into a single array of longs; {@link ISourceLocation} values are only materialized on demand
+ * by {@link #get(int)}. Clients which keep the index of a location instead of the location itself,
+ * such as parsers producing many nodes for one file, need 16 bytes per location.
+ * <br/>
+ * A table is not thread-safe while it is being filled.
+ */
+public final class SourceLocationTable implements Iterable<ISourceLocation> {
+    private static final int LONGS_PER_LOCATION = 2;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // second word of a location without, or with too large, line and column information
+    private static final long NO_LINE_COLUMN = -1L;
+    private static final long LARGE_LINE_COLUMN = -2L;
+
+    // layout of the second word: beginLine:22 | endLine - beginLine:17 | beginCol:12 | endCol:12
+    private static final int BEGIN_LINE_SHIFT = 41;
+    private static final int LINE_SPAN_SHIFT = 24;
+    private static final int BEGIN_COL_SHIFT = 12;
+    private static final int MAX_BEGIN_LINE = (1 << 22) - 1;
+    private static final int MAX_LINE_SPAN = (1 << 17) - 1;
+    private static final int MAX_COLUMN = (1 << 12) - 1;
+
+    private final IValueFactory vf;
+    private final ISourceLocation file;
+    private long[] data;
+    private int size;
+    private HashMap<Integer, int[]> largeLineColumns; // lines and columns which did not fit in a long
+
+    private SourceLocationTable(IValueFactory vf, ISourceLocation file) {
+        this.vf = vf;
+        this.file = file.top();
+        this.data = new long[INITIAL_CAPACITY * LONGS_PER_LOCATION];
+        this.size = 0;
+    }
+
+    /**
+     * Create an empty table for many source locations in the same file.
+     * 
+     * @param vf
+     *            the factory which creates the locations on demand
+     * @param file
+     *            where the source is located. (only the location part of the source location is used)
+     * @return an empty table of source locations
+     */
+    public static SourceLocationTable of(IValueFactory vf, ISourceLocation file) {
+        return new SourceLocationTable(vf, file);
+    }
+
+    /**
+     * @return the location of the file all locations in this table point into
+     */
+    public ISourceLocation getFile() {
+        return file;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a location with only an offset and a length.
+     * @return the index of the new location
+     */
+    public int add(int offset, int length) {
+        checkOffsetLength(offset, length);
+        return append(offset, length, NO_LINE_COLUMN);
+    }
+
+    /**
+     * Adds a location with an offset, a length, lines and columns.
+     * @return the index of the new location
+     */
+    public int add(int offset, int length, int beginLine, int endLine, int beginCol, int endCol) {
+        checkOffsetLength(offset, length);
+        if (beginLine < 0) throw new IllegalArgumentException("beginLine should be positive");
+        if (beginCol < 0) throw new IllegalArgumentException("beginCol should be positive");
+        if (endCol < 0) throw new IllegalArgumentException("endCol should be positive");
+        if (endLine < beginLine)
+            throw new IllegalArgumentException("endLine should be larger than or equal to beginLine");
+        if (endLine == beginLine && endCol < beginCol)
+            throw new IllegalArgumentException("endCol should be larger than or equal to beginCol, if on the same line");
+
+        if (beginLine <= MAX_BEGIN_LINE && endLine - beginLine <= MAX_LINE_SPAN && beginCol <= MAX_COLUMN && endCol <= MAX_COLUMN) {
+            long lineColumn = ((long) beginLine << BEGIN_LINE_SHIFT)
+                    | ((long) (endLine - beginLine) << LINE_SPAN_SHIFT)
+                    | ((long) beginCol << BEGIN_COL_SHIFT)
+                    | endCol;
+            return append(offset, length, lineColumn);
+        }
+
+        if (largeLineColumns == null) {
+            largeLineColumns = new HashMap<>();
+        }
+        largeLineColumns.put(size, new int[] { beginLine, endLine, beginCol, endCol });
+        return append(offset, length, LARGE_LINE_COLUMN);
+    }
+
+    /**
+     * Adds an existing location, which should point into the file of this table.
+     * @return the index of the new location
+     */
+    public int add(ISourceLocation loc) {
+        if (!file.equals(loc.top())) {
+            throw new IllegalArgumentException(loc + " is not a location in " + file);
+        }
+        if (!loc.hasOffsetLength()) {
+            throw new IllegalArgumentException(loc + " has no offset and length");
+        }
+
+        if (loc.hasLineColumn()) {
+            return add(loc.getOffset(), loc.getLength(), loc.getBeginLine(), loc.getEndLine(), loc.getBeginColumn(), loc.getEndColumn());
+        }
+        return add(loc.getOffset(), loc.getLength());
+    }
+
+    /**
+     * Adds many locations at once, from arrays of equal length.
+     * @return the index of the first new location
+     */
+    public int addAll(int[] offsets, int[] lengths) {
+        if (offsets.length != lengths.length) {
+            throw new IllegalArgumentException("all arrays should have the same length");
+        }
+
+        int first = size;
+        ensureCapacity(size + offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            add(offsets[i], lengths[i]);
+        }
+        return first;
+    }
+
+    /**
+     * Adds many locations at once, from arrays of equal length.
+     * @return the index of the first new location
+     */
+    public int addAll(int[] offsets, int[] lengths, int[] beginLines, int[] endLines, int[] beginCols, int[] endCols) {
+        int count = offsets.length;
+        if (lengths.length != count || beginLines.length != count || endLines.length != count || beginCols.length != count || endCols.length != count) {
+            throw new IllegalArgumentException("all arrays should have the same length");
+        }
+
+        int first = size;
+        ensureCapacity(size + count);
+        for (int i = 0; i < count; i++) {
+            add(offsets[i], lengths[i], beginLines[i], endLines[i], beginCols[i], endCols[i]);
+        }
+        return first;
+    }
+
+    public int getOffset(int index) {
+        return (int) (data[checkIndex(index) * LONGS_PER_LOCATION] >>> 32);
+    }
+
+    public int getLength(int index) {
+        return (int) data[checkIndex(index) * LONGS_PER_LOCATION];
+    }
+
+    public boolean hasLineColumn(int index) {
+        return lineColumn(index) != NO_LINE_COLUMN;
+    }
+
+    public int getBeginLine(int index) {
+        long lc = presentLineColumn(index);
+        return lc == LARGE_LINE_COLUMN ? largeLineColumns.get(index)[0] : (int) (lc >>> BEGIN_LINE_SHIFT);
+    }
+
+    public int getEndLine(int index) {
+        long lc = presentLineColumn(index);
+        return lc == LARGE_LINE_COLUMN ? largeLineColumns.get(index)[1] : (int) (lc >>> BEGIN_LINE_SHIFT) + (int) ((lc >>> LINE_SPAN_SHIFT) & MAX_LINE_SPAN);
+    }
+
+    public int getBeginColumn(int index) {
+        long lc = presentLineColumn(index);
+        return lc == LARGE_LINE_COLUMN ? largeLineColumns.get(index)[2] : (int) ((lc >>> BEGIN_COL_SHIFT) & MAX_COLUMN);
+    }
+
+    public int getEndColumn(int index) {
+        long lc = presentLineColumn(index);
+        return lc == LARGE_LINE_COLUMN ? largeLineColumns.get(index)[3] : (int) (lc & MAX_COLUMN);
+    }
+
+    /**
+     * Materializes the location at the given index.
+     */
+    public ISourceLocation get(int index) {
+        if (hasLineColumn(index)) {
+            return vf.sourceLocation(file, getOffset(index), getLength(index), getBeginLine(index), getEndLine(index), getBeginColumn(index), getEndColumn(index));
+        }
+        return vf.sourceLocation(file, getOffset(index), getLength(index));
+    }
+
+    @Override
+    public Iterator<ISourceLocation> iterator() {
+        return new Iterator<ISourceLocation>() {
+            private int current = 0;
+
+            @Override
+            public boolean hasNext() {
+                return current < size;
+            }
+
+            @Override
+            public ISourceLocation next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(current++);
+            }
+        };
+    }
+
+    private long lineColumn(int index) {
+        return data[checkIndex(index) * LONGS_PER_LOCATION + 1];
+    }
+
+    private long presentLineColumn(int index) {
+        long lc = lineColumn(index);
+        if (lc == NO_LINE_COLUMN) {
+            throw new UnsupportedOperationException("location " + index + " has no lines and columns");
+        }
+        return lc;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return index;
+    }
+
+    private static void checkOffsetLength(int offset, int length) {
+        if (offset < 0) throw new IllegalArgumentException("offset should be positive");
+        if (length < 0) throw new IllegalArgumentException("length should be positive");
+    }
+
+    private int append(int offset, int length, long lineColumn) {
+        ensureCapacity(size + 1);
+        data[size * LONGS_PER_LOCATION] = ((long) offset << 32) | (length & 0xFFFFFFFFL);
+        data[size * LONGS_PER_LOCATION + 1] = lineColumn;
+        return size++;
+    }
+
+    private void ensureCapacity(int locations) {
+        if (locations * LONGS_PER_LOCATION > data.length) {
+            data = Arrays.copyOf(data, Math.max(locations, size * 2) * LONGS_PER_LOCATION);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2017 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package io.usethesource.vallang.util;
+
+import java.util.Comparator;
+
+import io.usethesource.vallang.IBool;
+import io.usethesource.vallang.IDateTime;
+import io.usethesource.vallang.INumber;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IString;
+import io.usethesource.vallang.ITuple;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.type.Type;
+
+/**
+ * The natural order of the values of a type, for sorted collections: numbers, strings, datetimes,
+ * booleans and source locations are ordered as by their own <code>compare</code> methods, and tuples
+ * of such values lexicographically.
+ * <br/>
+ * The orders are consistent with {@link IValue#isEqual(IValue)}: values which compare as equal without
+ * being equal (such as <code>1</code> and <code>1.0</code>, or two datetimes denoting the same instant in
+ * different time zones) are ordered on their type and then on their string representation.
+ */
+public final class ValueOrdering {
+
+    private ValueOrdering() { }
+
+    /**
+     * @return true iff the values of the type have a natural order; <code>void</code>, which is a
+     *         subtype of every type but has no values, is not ordered
+     */
+    public static boolean isOrdered(Type type) {
+        if (type.isBottom()) {
+            return false;
+        }
+
+        if (type.isNumber() || type.isString() || type.isDateTime() || type.isBool() || type.isSourceLocation()) {
+            return true;
+        }
+
+        if (type.isTuple()) {
+            for (int i = 0; i < type.getArity(); i++) {
+                if (!isOrdered(type.getFieldType(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the natural order of the values of the type
+     * @throws IllegalArgumentException if the values of the type are not ordered
+     */
+    public static Comparator<IValue> forType(Type type) {
+        return consistentWithEquality(natural(type));
+    }
+
+    private static Comparator<IValue> natural(Type type) {
+        if (type.isBottom()) {
+            throw new IllegalArgumentException("Values of type " + type + " have no natural order");
+        }
+        if (type.isNumber()) {
+            return (a, b) -> ((INumber) a).compare((INumber) b);
+        }
+        if (type.isString()) {
+            return (a, b) -> ((IString) a).compare((IString) b);
+        }
+        if (type.isDateTime()) {
+            return (a, b) -> ((IDateTime) a).compareTo((IDateTime) b);
+        }
+        if (type.isBool()) {
+            return (a, b) -> Boolean.compare(((IBool) a).getValue(), ((IBool) b).getValue());
+        }
+        if (type.isSourceLocation()) {
+            final SourceLocationComparator locations = SourceLocationComparator.getInstance();
+            return (a, b) -> locations.compare((ISourceLocation) a, (ISourceLocation) b);
+        }
+        if (type.isTuple() && isOrdered(type)) {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            final Comparator<IValue>[] fields = new Comparator[type.getArity()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = natural(type.getFieldType(i));
+            }
+
+            return (a, b) -> {
+                final ITuple left = (ITuple) a;
+                final ITuple right = (ITuple) b;
+
+                for (int i = 0; i < fields.length; i++) {
+                    final int result = fields[i].compare(left.get(i), right.get(i));
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return 0;
+            };
+        }
+
+        throw new IllegalArgumentException("Values of type " + type + " have no natural order");
+    }
+
+    private static Comparator<IValue> consistentWithEquality(Comparator<IValue> order) {
+        return (a, b) -> {
+            if (a == b) {
+                return 0;
+            }
+
+            int result = order.compare(a, b);
+            if (result != 0 || a.isEqual(b)) {
+                return result;
+            }
+
+            result = a.getType().toString().compareTo(b.getType().toString());
+            return result != 0 ? result : a.toString().compareTo(b.toString());
+        };
+    }
+}
@@ -16,21 +16,36 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Random;
+import java.util.stream.Stream;
 
 import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IList;
 import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.ITuple;
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.Setup;
 import io.usethesource.vallang.io.StandardTextWriter;
+import io.usethesource.vallang.io.binary.message.IValueEventReader;
 import io.usethesource.vallang.io.binary.message.IValueReader;
 import io.usethesource.vallang.io.binary.message.IValueWriter;
+import io.usethesource.vallang.io.binary.stream.CompressionDictionary;
 import io.usethesource.vallang.io.binary.stream.IValueInputStream;
+import io.usethesource.vallang.io.binary.stream.IValueLogReader;
+import io.usethesource.vallang.io.binary.stream.IValueLogWriter;
 import io.usethesource.vallang.io.binary.stream.IValueOutputStream;
+import io.usethesource.vallang.io.binary.stream.IValueStore;
+import io.usethesource.vallang.io.binary.util.AdaptiveWindowSizes;
 import io.usethesource.vallang.io.binary.util.WindowSizes;
 import io.usethesource.vallang.io.binary.wire.binary.BinaryWireInputStream;
 import io.usethesource.vallang.io.binary.wire.binary.BinaryWireOutputStream;
@@ -47,7 +62,9 @@ import io.usethesource.vallang.io.binary.wire.IWireInputStream;
 import io.usethesource.vallang.io.binary.wire.IWireOutputStream;
 import io.usethesource.vallang.type.Type;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -137,6 +154,277 @@ public final class BinaryIoSmokeTest {
   }
   
 
+  @Test
+  public void testRandomBinaryEvents() {
+    TypeStore ts = new TypeStore();
+    Type name = RandomValues.addNameType(ts);
+    Random r = new Random(42);
+    for (int i = 0; i < 20; i++) {
+      IValue value = RandomValues.generate(name, ts, vf, r, 10, true);
+      eventsRoundTrip(value, 42);
+    }
+  }
+
+  @Test
+  public void testStreamingListElementsAsEvents() throws IOException {
+    TypeStore ts = new TypeStore();
+    Type name = RandomValues.addNameType(ts);
+    Random r = new Random(42);
+    IListWriter writer = vf.listWriter();
+    for (int i = 0; i < 20; i++) {
+        IValue element = RandomValues.generate(name, ts, vf, r, 10, true);
+        writer.append(element);
+        writer.append(element); // force back references
+    }
+    IList list = writer.done();
+    byte[] buffer = writeValue(list);
+
+    try (IValueInputStream read = new IValueInputStream(new ByteArrayInputStream(buffer), vf, Setup.TYPE_STORE_SUPPLIER)) {
+      IValueEventReader events = read.readEvents();
+      assertEquals(IValueEventReader.START_LIST, events.next());
+      assertEquals(list.length(), events.getSize());
+      for (IValue expected : list) {
+        events.next();
+        assertTrue(expected.isEqual(events.readValue()));
+      }
+      assertEquals(IValueEventReader.END_LIST, events.next());
+      assertEquals(IValueEventReader.END_OF_STREAM, events.next());
+    }
+
+    try (IValueInputStream read = new IValueInputStream(new ByteArrayInputStream(buffer), vf, Setup.TYPE_STORE_SUPPLIER)) {
+      IValueEventReader events = read.readEvents();
+      assertEquals(IValueEventReader.START_LIST, events.next());
+      int elements = 0;
+      while (events.next() != IValueEventReader.END_LIST) {
+        events.skipValue();
+        elements++;
+      }
+      assertEquals(list.length(), elements);
+      assertEquals(IValueEventReader.END_OF_STREAM, events.next());
+    }
+  }
+
+  @Test
+  public void testDictionaryCompression() throws IOException {
+    TypeStore ts = new TypeStore();
+    Type name = RandomValues.addNameType(ts);
+    Random r = new Random(42);
+    List<IValue> corpus = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      corpus.add(RandomValues.generate(name, ts, vf, r, 4, true));
+    }
+    CompressionDictionary dictionary = CompressionDictionary.train(corpus, vf, 16 * 1024);
+    assertEquals(dictionary.getId(), new CompressionDictionary(dictionary.getBytes()).getId());
+
+    int plainSize = 0;
+    int dictionarySize = 0;
+    for (int i = 0; i < 50; i++) {
+      IValue value = RandomValues.generate(name, ts, vf, r, 4, true);
+      plainSize += writeValue(value).length;
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      try (IValueOutputStream w = new IValueOutputStream(buffer, vf, IValueOutputStream.CompressionRate.Normal, dictionary)) {
+        w.write(value);
+      }
+      dictionarySize += buffer.size();
+      try (IValueInputStream read = new IValueInputStream(new ByteArrayInputStream(buffer.toByteArray()), vf, Setup.TYPE_STORE_SUPPLIER, dictionary)) {
+        assertTrue(value.isEqual(read.read()));
+      }
+      try (IValueInputStream read = new IValueInputStream(new ByteArrayInputStream(buffer.toByteArray()), vf, Setup.TYPE_STORE_SUPPLIER)) {
+        fail("Reading without the dictionary should fail");
+      }
+      catch (IOException expected) {
+      }
+    }
+    assertTrue("dictionary: " + dictionarySize + " plain: " + plainSize, dictionarySize < plainSize);
+  }
+
+  @Test
+  public void testAdaptiveWindows() throws IOException {
+    TypeStore ts = new TypeStore();
+    Type name = RandomValues.addNameType(ts);
+    Random r = new Random(42);
+    AdaptiveWindowSizes windows = new AdaptiveWindowSizes();
+    for (int i = 0; i < 20; i++) {
+      adaptiveRoundTrip(windows, RandomValues.generate(name, ts, vf, r, 3, true));
+    }
+    int shrunk = windows.current().valueWindow;
+    assertTrue(shrunk < WindowSizes.NORMAL_WINDOW.valueWindow);
+
+    // every repeated node is found in the oldest half of the window
+    IListWriter writer = vf.listWriter();
+    for (int i = 0; i < 4 * shrunk; i++) {
+      writer.append(vf.node("fresh", vf.integer(i)));
+      writer.append(vf.node("repeated", vf.integer(i % (shrunk / 3))));
+    }
+    adaptiveRoundTrip(windows, writer.done());
+    assertTrue(windows.current().valueWindow > shrunk);
+  }
+
+  private void adaptiveRoundTrip(AdaptiveWindowSizes windows, IValue value) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (IValueOutputStream w = new IValueOutputStream(buffer, vf, IValueOutputStream.CompressionRate.Normal, windows)) {
+      w.write(value);
+    }
+    try (IValueInputStream read = new IValueInputStream(new ByteArrayInputStream(buffer.toByteArray()), vf, Setup.TYPE_STORE_SUPPLIER)) {
+      assertTrue(value.isEqual(read.read()));
+    }
+  }
+
+  @Test
+  public void testValueStore() throws IOException {
+    TypeStore ts = new TypeStore();
+    Type name = RandomValues.addNameType(ts);
+    Random r = new Random(42);
+    Path directory = Files.createTempDirectory("vallang-test-store");
+    try {
+      IValueStore store = new IValueStore(directory, vf, 4);
+      for (IValue value : RandomValues.getTestValues(vf)) {
+        assertTrue(value.isEqual(store.read(store.write(value), Setup.TYPE_STORE_SUPPLIER)));
+      }
+      for (int i = 0; i < 20; i++) {
+        IValue value = RandomValues.generate(name, ts, vf, r, 10, true);
+        String hash = store.write(value);
+        assertEquals(hash, store.write(value));
+        assertTrue(value.isEqual(new IValueStore(directory, vf, 4).read(hash, Setup.TYPE_STORE_SUPPLIER)));
+      }
+
+      IListWriter shared = vf.listWriter();
+      for (int i = 0; i < 100; i++) {
+        shared.append(vf.tuple(vf.integer(i), vf.string("element " + i)));
+      }
+      IList sharedList = shared.done();
+      IValue first = vf.tuple(vf.string("first"), sharedList);
+      IValue second = vf.tuple(vf.string("second"), sharedList);
+      long before = countFiles(directory);
+      String firstHash = store.write(first);
+      long afterFirst = countFiles(directory);
+      String secondHash = store.write(second);
+      long afterSecond = countFiles(directory);
+      assertTrue(afterSecond - afterFirst < afterFirst - before);
+
+      IValueStore reader = new IValueStore(directory, vf, 4);
+      ITuple firstRead = (ITuple) reader.read(firstHash, Setup.TYPE_STORE_SUPPLIER);
+      ITuple secondRead = (ITuple) reader.read(secondHash, Setup.TYPE_STORE_SUPPLIER);
+      assertTrue(first.isEqual(firstRead));
+      assertTrue(second.isEqual(secondRead));
+      assertTrue(firstRead.get(1) == secondRead.get(1));
+    }
+    finally {
+      try (Stream<Path> files = Files.walk(directory)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  public void testValueStoreDoesNotRetainValues() throws IOException, InterruptedException {
+    Path directory = Files.createTempDirectory("vallang-test-store");
+    try {
+      IValueStore store = new IValueStore(directory, vf, 4);
+      WeakReference<IValue> written = writeFreshList(store, "written");
+      WeakReference<IValue> read = new WeakReference<>(store.read(store.write(freshList("read")), Setup.TYPE_STORE_SUPPLIER));
+
+      for (int i = 0; i < 50 && (written.get() != null || read.get() != null); i++) {
+        System.gc();
+        Thread.sleep(10);
+      }
+      assertTrue(written.get() == null);
+      assertTrue(read.get() == null);
+    }
+    finally {
+      try (Stream<Path> files = Files.walk(directory)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  private WeakReference<IValue> writeFreshList(IValueStore store, String prefix) throws IOException {
+    IValue value = freshList(prefix);
+    store.write(value);
+    return new WeakReference<>(value);
+  }
+
+  private IValue freshList(String prefix) {
+    IListWriter w = vf.listWriter();
+    for (int i = 0; i < 20; i++) {
+      w.append(vf.tuple(vf.integer(i), vf.string(prefix + " " + i)));
+    }
+    return w.done();
+  }
+
+  private static long countFiles(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      return files.filter(Files::isRegularFile).count();
+    }
+  }
+
+  @Test
+  public void testValueLog() throws IOException {
+    valueLogRoundTrip(false);
+  }
+
+  @Test
+  public void testValueLogSharedWindows() throws IOException {
+    valueLogRoundTrip(true);
+  }
+
+  private void valueLogRoundTrip(boolean shared) throws IOException {
+    TypeStore ts = new TypeStore();
+    Type name = RandomValues.addNameType(ts);
+    Random r = new Random(42);
+    IValue[] values = new IValue[50];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = RandomValues.generate(name, ts, vf, r, 5, true);
+    }
+    File target = File.createTempFile("vallang-test-log", ".log");
+    target.deleteOnExit();
+    File index = new File(target.getPath() + ".idx");
+    index.deleteOnExit();
+    target.delete();
+    try {
+      int half = values.length / 2;
+      try (IValueLogWriter log = new IValueLogWriter(target.toPath(), vf, IValueOutputStream.CompressionRate.Normal, true, shared)) {
+        for (int i = 0; i < (shared ? values.length : half); i++) {
+          assertEquals(i, log.append(values[i]));
+        }
+      }
+      if (!shared) {
+        try (IValueLogWriter log = new IValueLogWriter(target.toPath(), vf)) {
+          assertEquals(half, log.size());
+          for (int i = half; i < values.length; i++) {
+            assertEquals(i, log.append(values[i]));
+          }
+        }
+      }
+      // a partially written record at the end is ignored
+      try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+        channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 1, 0, 42 }));
+      }
+
+      for (boolean withIndex : new boolean[] { true, false }) {
+        if (!withIndex) {
+          index.delete();
+        }
+        try (IValueLogReader log = new IValueLogReader(target.toPath(), vf, Setup.TYPE_STORE_SUPPLIER)) {
+          assertEquals(values.length, log.size());
+          for (int i : new int[] { 30, 3, values.length - 1, 0, 17 }) {
+            assertTrue(values[i].isEqual(log.read(i)));
+          }
+          log.seek(10);
+          for (int i = 10; i < values.length; i++) {
+            assertEquals(i, log.position());
+            assertTrue(values[i].isEqual(log.next()));
+          }
+          assertTrue(!log.hasNext());
+        }
+      }
+    }
+    finally {
+      target.delete();
+      index.delete();
+    }
+  }
+
   @Test
   public void testConstructorTypeWithLabel() {
     TypeFactory tf = TypeFactory.getInstance();
@@ -322,6 +610,35 @@ public final class BinaryIoSmokeTest {
       fail(ioex.getMessage());
     }
   }
+  private byte[] writeValue(IValue value) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (IValueOutputStream w = new IValueOutputStream(buffer, vf, IValueOutputStream.CompressionRate.Normal)) {
+      w.write(value);
+    }
+    return buffer.toByteArray();
+  }
+
+  private void eventsRoundTrip(IValue value, int seed) {
+    try {
+      byte[] buffer = writeValue(value);
+      try (IValueInputStream read = new IValueInputStream(new ByteArrayInputStream(buffer), vf, Setup.TYPE_STORE_SUPPLIER)) {
+        IValueEventReader events = read.readEvents();
+        events.next();
+        IValue result = events.readValue();
+        assertEquals(IValueEventReader.END_OF_STREAM, events.next());
+        if (!value.isEqual(result)) {
+          String message = "Not equal: (seed: " + seed + ") \n\t" + value + " : " + value.getType()
+              + "\n\t" + result + " : " + result.getType();
+          System.err.println(message);
+          fail(message);
+        }
+      }
+    } catch (IOException ioex) {
+      ioex.printStackTrace();
+      fail(ioex.getMessage());
+    }
+  }
+
   private void ioRoundTripFile(IValue value, int seed) {
       long fileSize = 0;
       try {
@@ -12,6 +12,9 @@
 
 package io.usethesource.vallang.basic;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import io.usethesource.vallang.type.TypeFactory;
 import io.usethesource.vallang.type.TypeStore;
 import org.junit.Test;
@@ -20,10 +23,12 @@ import org.junit.runners.Parameterized;
 import io.usethesource.vallang.IConstructor;
 import io.usethesource.vallang.IMapWriter;
 import io.usethesource.vallang.INode;
+import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.IValueFactory;
 import io.usethesource.vallang.Setup;
 import io.usethesource.vallang.type.Type;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -227,4 +232,50 @@ public final class EqualitySmokeTest {
       assertTrue(map1.done().match(map2.done()));
       
   }
+  
+  @Test
+  public void testKeywordParameterOrderAndOverflow() {
+      final TypeStore store = new TypeStore();
+      final Type Hello = tf.abstractDataType(store, "Hello");
+      final Type Cons = tf.constructor(store, Hello, "many", tf.integerType(), "i");
+      
+      final IConstructor c = vf.constructor(Cons, vf.integer(0));
+      final Map<String, IValue> params = new HashMap<>();
+      IConstructor forward = c;
+      IConstructor backward = c;
+      
+      // more parameters than fit in a shared layout
+      for (int i = 0; i < 12; i++) {
+          params.put("p" + i, vf.integer(i));
+          forward = forward.asWithKeywordParameters().setParameter("p" + i, vf.integer(i));
+          backward = backward.asWithKeywordParameters().setParameter("p" + (11 - i), vf.integer(11 - i));
+      }
+      
+      final IConstructor bulk = c.asWithKeywordParameters().setParameters(params);
+      
+      for (IConstructor x : new IConstructor[] { forward, backward, bulk }) {
+          for (IConstructor y : new IConstructor[] { forward, backward, bulk }) {
+              assertTrue(x.equals(y));
+              assertTrue(x.isEqual(y));
+              assertEquals(x.hashCode(), y.hashCode());
+          }
+          
+          assertEquals(params, x.asWithKeywordParameters().getParameters());
+          assertEquals(params.keySet(), x.asWithKeywordParameters().getParameterNames());
+          assertEquals(vf.integer(10), x.asWithKeywordParameters().getParameter("p10"));
+          assertFalse(x.asWithKeywordParameters().hasParameter("p12"));
+      }
+      
+      final IConstructor updated = forward.asWithKeywordParameters().setParameter("p3", vf.integer(42));
+      assertEquals(vf.integer(42), updated.asWithKeywordParameters().getParameter("p3"));
+      assertEquals(vf.integer(3), forward.asWithKeywordParameters().getParameter("p3"));
+      assertFalse(updated.isEqual(forward));
+      
+      final IConstructor removed = backward.asWithKeywordParameters().unsetParameter("p0");
+      assertFalse(removed.asWithKeywordParameters().hasParameter("p0"));
+      assertEquals(11, removed.asWithKeywordParameters().getParameters().size());
+      
+      IConstructor single = c.asWithKeywordParameters().setParameter("p0", vf.integer(0));
+      assertTrue(single.asWithKeywordParameters().unsetParameter("p0").isEqual(c));
+  }
 }
@@ -263,6 +263,73 @@ public class ListRelationSmokeTest {
     }
   }
 
+  @Test
+  public void testIndexedOperationsOnLargeRelations() {
+    int n = 100;
+    IListWriter chain = vf.listWriter();
+    IListWriter dups = vf.listWriter();
+    for (int i = 0; i < n; i++) {
+      chain.append(vf.tuple(vf.integer(i), vf.integer(i + 1)));
+      dups.append(vf.integer(i % 3));
+    }
+    IList rel = chain.done();
+
+    IList closure = rel.asRelation().closure();
+    if (closure.length() != n * (n + 1) / 2) {
+      fail("closure of a chain should contain all pairs (i, j) with i < j");
+    }
+    if (!closure.get(0).isEqual(rel.get(0)) || !closure.contains(vf.tuple(vf.integer(0), vf.integer(n)))) {
+      fail("closure should start with the original relation and reach the end of the chain");
+    }
+
+    IList comp = rel.asRelation().compose(rel.asRelation());
+    if (comp.length() != n - 1 || !comp.get(0).isEqual(vf.tuple(vf.integer(0), vf.integer(2)))) {
+      fail("composition of a chain with itself should skip one element, in order");
+    }
+
+    // list subtraction removes one occurrence per element of the second list, from the front
+    IList list = dups.done().sublist(0, 7); // [0,1,2,0,1,2,0]
+    IList subtracted = list.subtract(vf.list(vf.integer(0), vf.integer(2), vf.integer(0)));
+    if (!subtracted.isEqual(vf.list(vf.integer(1), vf.integer(1), vf.integer(2), vf.integer(0)))) {
+      fail("subtract should remove the first occurrences: " + subtracted);
+    }
+
+    IList intersected = list.intersect(vf.list(vf.integer(2), vf.integer(0)));
+    if (!intersected.isEqual(vf.list(vf.integer(0), vf.integer(2), vf.integer(0), vf.integer(2), vf.integer(0)))) {
+      fail("intersect should keep the order and the duplicates of the first list: " + intersected);
+    }
+  }
+
+  @Test
+  public void testRepeatedIndexOnLargeRelation() {
+    IListWriter w = vf.listWriter();
+    for (int i = 0; i < 200; i++) {
+      w.append(vf.tuple(vf.integer(i % 20), vf.integer(i)));
+    }
+    w.append(vf.tuple(vf.integer(0), vf.integer(0)));
+    IList rel = w.done();
+
+    for (int round = 0; round < 2; round++) {
+      for (int k = 0; k < 20; k++) {
+        IListWriter expected = vf.listWriter();
+        for (int i = k; i < 200; i += 20) {
+          expected.append(vf.integer(i));
+        }
+        if (k == 0) {
+          expected.append(vf.integer(0));
+        }
+
+        if (!rel.asRelation().index(vf.integer(k)).isEqual(expected.done())) {
+          fail("index should return all values for a key, in order and with duplicates");
+        }
+      }
+    }
+
+    if (!rel.asRelation().index(vf.integer(20)).isEmpty()) {
+      fail("index of an absent key should be empty");
+    }
+  }
+
   @Test
   public void testContains() {
     try {
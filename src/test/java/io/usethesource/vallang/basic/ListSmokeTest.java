@@ -229,6 +229,39 @@ public final class ListSmokeTest {
     }
   }
 
+  @Test
+  public void testPositionLookups() {
+    IListWriter w = vf.listWriter();
+    for (int i = 0; i < 100; i++) {
+      w.append(vf.integer(i % 7));
+    }
+    IList longList = w.done();
+
+    for (IList list : new IList[] { longList, longList.sublist(10, 50), integerList, emptyIntegerList }) {
+      // the first lookups scan, later ones may use an index
+      for (int round = 0; round < 3; round++) {
+        for (int k = -1; k < 8; k++) {
+          IValue e = vf.integer(k);
+          int first = -1, last = -1, count = 0;
+          for (int i = 0; i < list.length(); i++) {
+            if (list.get(i).isEqual(e)) {
+              first = first == -1 ? i : first;
+              last = i;
+              count++;
+            }
+          }
+
+          if (list.contains(e) != (count > 0)) {
+            fail("contains is broken for " + e);
+          }
+          if (list.indexOf(e) != first || list.lastIndexOf(e) != last || list.occurrences(e) != count) {
+            fail("position lookups are broken for " + e + " in " + list);
+          }
+        }
+      }
+    }
+  }
+
   // NOTE: This is not a very good test, but sufficient for it's purpose.
   @Test
   public void testSubList() {
@@ -27,6 +27,9 @@ import io.usethesource.vallang.IString;
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.IValueFactory;
 import io.usethesource.vallang.Setup;
+import io.usethesource.vallang.impl.persistent.MapDiff;
+import io.usethesource.vallang.impl.persistent.PersistentHashMap;
+import io.usethesource.vallang.impl.persistent.PersistentSortedMap;
 import io.usethesource.vallang.impl.reference.ValueFactory;
 import io.usethesource.vallang.type.Type;
 import io.usethesource.vallang.type.TypeFactory;
@@ -378,6 +381,154 @@ public final class MapSmokeTest {
     }
   }
 
+  @Test
+  public void testBulkOperationsOnDerivedMaps() {
+    IMapWriter w = vf.mapWriter();
+    for (int i = 0; i < 1000; i++) {
+      w.put(vf.integer(i), vf.integer(i % 100));
+    }
+    final IMap large = w.done();
+
+    // a few changes to a large map, as in successive versions of a symbol table
+    IMap derived = large;
+    for (int i = 0; i < 1000; i += 97) {
+      derived = derived.removeKey(vf.integer(i)).put(vf.integer(-i - 1), vf.string("new"));
+    }
+    derived = derived.put(vf.integer(500), vf.real(0.5));
+    final IMap small = vf.mapWriter().done().put(vf.integer(3), vf.integer(3)).put(vf.integer(5), vf.integer(1000));
+
+    IMap[] maps = new IMap[] {large, derived, small, vf.mapWriter().done()};
+    for (IMap map1 : maps) {
+      for (IMap map2 : maps) {
+        IMapWriter join = vf.mapWriter();
+        IMapWriter common = vf.mapWriter();
+        IMapWriter remove = vf.mapWriter();
+        IMapWriter compose = vf.mapWriter();
+        boolean isSubMap = true;
+
+        join.putAll(map1);
+        join.putAll(map2);
+        for (IValue key : map1) {
+          IValue value = map1.get(key);
+          IValue other = map2.get(key);
+          if (other != null && other.isEqual(value)) {
+            common.put(key, value);
+          } else {
+            isSubMap = false;
+          }
+          if (other == null) {
+            remove.put(key, value);
+          }
+          if (map2.containsKey(value)) {
+            compose.put(key, map2.get(value));
+          }
+        }
+
+        assertTrue(join.done().isEqual(map1.join(map2)));
+        assertTrue(common.done().isEqual(map1.common(map2)));
+        assertTrue(remove.done().isEqual(map1.remove(map2)));
+        assertTrue(compose.done().isEqual(map1.compose(map2)));
+        assertEquals(isSubMap, map1.isSubMap(map2));
+      }
+    }
+  }
+
+  @Test
+  public void testDiffAndPatch() {
+    // diffs are computed by persistent maps, against maps of any factory
+    IValueFactory pvf = io.usethesource.vallang.impl.persistent.ValueFactory.getInstance();
+    IMapWriter w = pvf.mapWriter();
+    for (int i = 0; i < 200; i++) {
+      w.put(vf.integer(i), vf.integer(i));
+    }
+    final PersistentHashMap from = (PersistentHashMap) w.done();
+    IMap to = from;
+    for (int i = 0; i < 10; i++) {
+      to = to.removeKey(vf.integer(i)).put(vf.integer(-i - 1), vf.integer(i)).put(vf.integer(100 + i), vf.string("changed"));
+    }
+    // an equal value is not a change
+    to = to.put(vf.integer(150), vf.integer(150));
+
+    MapDiff diff = from.diff(to);
+    assertEquals(10, diff.getAdded().size());
+    assertEquals(10, diff.getRemoved().size());
+    assertEquals(10, diff.getChanged().size());
+    assertEquals(vf.integer(100), diff.getChangedFrom().get(vf.integer(100)));
+    assertTrue(to.isEqual(diff.applyTo(from)));
+    assertTrue(from.isEqual(diff.inverse().applyTo(to)));
+
+    IMapWriter copy = vf.mapWriter();
+    copy.putAll(to);
+    assertTrue(to.isEqual(from.diff(copy.done()).applyTo(from)));
+
+    assertTrue(from.diff(from).isEmpty());
+    assertTrue(from.diff(pvf.mapWriter().done()).applyTo(from).isEmpty());
+  }
+
+  @Test
+  public void testSortedMapRangeQueries() {
+    IMapWriter w = vf.mapWriter();
+    for (int i = 0; i < 100; i++) {
+      w.put(vf.datetime((i * 37) % 100 * 1000L), vf.integer(i));
+    }
+    IMap map = w.done();
+    PersistentSortedMap sorted = PersistentSortedMap.of(map);
+
+    assertTrue(sorted.isEqual(map));
+    long expected = 0;
+    for (IValue key : sorted) {
+      assertEquals(vf.datetime(expected), key);
+      assertEquals(map.get(key), sorted.get(key));
+      expected += 1000;
+    }
+
+    assertEquals(vf.datetime(0), sorted.firstKey());
+    assertEquals(vf.datetime(99000), sorted.lastKey());
+    assertEquals(vf.datetime(10000), sorted.floorKey(vf.datetime(10500)));
+    assertEquals(vf.datetime(11000), sorted.ceilingKey(vf.datetime(10500)));
+    assertEquals(11, sorted.rank(vf.datetime(10500)));
+    assertEquals(vf.datetime(11000), sorted.getKey(11));
+
+    IMap window = sorted.range(vf.datetime(10000), vf.datetime(20000));
+    assertEquals(10, window.size());
+    assertTrue(window.containsKey(vf.datetime(10000)) && !window.containsKey(vf.datetime(20000)));
+
+    IMap updated = sorted.put(vf.datetime(500), vf.string("new")).removeKey(vf.datetime(0)).put(vf.datetime(1000), vf.integer(-1));
+    assertTrue(updated instanceof PersistentSortedMap);
+    assertEquals(vf.datetime(500), ((PersistentSortedMap) updated).firstKey());
+    assertEquals(vf.integer(-1), updated.get(vf.datetime(1000)));
+    assertEquals(100, updated.size());
+    assertTrue(updated.put(vf.datetime(1000), map.get(vf.datetime(1000))).removeKey(vf.datetime(500)).put(vf.datetime(0), map.get(vf.datetime(0))).isEqual(map));
+
+    // an empty map has no key type to order on
+    try {
+      PersistentSortedMap.of(vf.mapWriter().done());
+      Assert.fail("an empty map should not be ordered on void");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    IMap fromEmpty = PersistentSortedMap.empty(tf.dateTimeType()).put(vf.datetime(2000), vf.integer(2)).put(vf.datetime(1000), vf.integer(1));
+    assertTrue(fromEmpty instanceof PersistentSortedMap);
+    assertEquals(vf.datetime(1000), ((PersistentSortedMap) fromEmpty).firstKey());
+  }
+
+  @Test
+  public void testRepeatedLookupsOnLargeMap() {
+    IMapWriter w = vf.mapWriter();
+    for (int i = 0; i < 40000; i += 2) {
+      w.put(vf.integer(i), vf.integer(-i));
+    }
+    IMap map = w.done();
+
+    // enough lookups for the large map to be worth filtering
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 40000; i++) {
+        assertEquals(i % 2 == 0, map.containsKey(vf.integer(i)));
+        assertEquals(i % 2 == 0 ? vf.integer(-i) : null, map.get(vf.integer(i)));
+      }
+    }
+  }
+
   @Test
   public void testPutReplaceGet() {
     final IMap m1 =
@@ -434,6 +585,26 @@ public final class MapSmokeTest {
     assertEquals(tf.integerType(), m1.getType().getValueType());
   }
 
+  @Test
+  public void testLookupsOnLargeMaps() {
+    // enough lookups on a large map to build its bloom filter
+    IValueFactory pvf = io.usethesource.vallang.impl.persistent.ValueFactory.getInstance();
+    int size = 1 << 14;
+    IMapWriter w = pvf.mapWriter();
+    for (int i = 0; i < size; i++) {
+      w.put(pvf.integer(2 * i), pvf.integer(i));
+    }
+    IMap map = w.done();
+
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < size; i++) {
+        assertTrue(map.containsKey(pvf.integer(2 * i)));
+        assertTrue(!map.containsKey(pvf.integer(2 * i + 1)));
+        assertTrue(map.get(pvf.integer(2 * i + 1)) == null);
+      }
+    }
+  }
+
   @Test
   public void testPutReplaceWithAnnotations_Map() {
       if (vf.getClass() == ValueFactory.class) {
@@ -13,12 +13,18 @@
 package io.usethesource.vallang.basic;
 
 import java.util.Iterator;
+import java.util.Map.Entry;
 
+import io.usethesource.vallang.IMap;
 import io.usethesource.vallang.ISet;
 import io.usethesource.vallang.ISetWriter;
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.Setup;
 import io.usethesource.vallang.exceptions.FactTypeUseException;
+import io.usethesource.vallang.impl.DictionaryEncodedRelation;
+import io.usethesource.vallang.impl.OffHeapRelation;
+import io.usethesource.vallang.impl.persistent.PersistentHashSetMultimap;
+import io.usethesource.vallang.impl.persistent.ValueFactory;
 import io.usethesource.vallang.type.TypeFactory;
 import org.junit.Before;
 import org.junit.Test;
@@ -591,6 +597,161 @@ public final class RelationSmokeTest {
       assertTrue(integerRelation.asRelation().index(vf.integer(integers.length +  1)).isEmpty());
   }
 
+  @Test
+  public void testRepeatedIndexOnLargeRelation() {
+    ISetWriter w = vf.setWriter();
+    for (int i = 0; i < 200; i++) {
+      w.insert(vf.tuple(vf.integer(i % 20), vf.integer(i), vf.string("s" + i)));
+    }
+    ISet rel = w.done();
+
+    for (int round = 0; round < 2; round++) {
+      for (int k = 0; k < 20; k++) {
+        ISet values = rel.asRelation().index(vf.integer(k));
+        assertTrue(values.size() == 10);
+        for (IValue v : values) {
+          ITuple rest = (ITuple) v;
+          assertTrue(rel.contains(vf.tuple(vf.integer(k), rest.get(0), rest.get(1))));
+        }
+      }
+    }
+    assertTrue(rel.asRelation().index(vf.integer(20)).isEmpty());
+    assertTrue(rel.asRelation().index(vf.string("0")).isEmpty());
+  }
+
+  @Test
+  public void testSetMultimapConversions() {
+    ISetWriter w = vf.setWriter();
+    for (int i = 0; i < 100; i++) {
+      w.insert(vf.tuple(vf.integer(i % 10), vf.integer(i)));
+    }
+    ISet rel = w.done();
+
+    PersistentHashSetMultimap map = PersistentHashSetMultimap.of(rel);
+    assertTrue(map.size() == 10);
+    for (int k = 0; k < 10; k++) {
+      assertTrue(map.get(vf.integer(k)).isEqual(rel.asRelation().index(vf.integer(k))));
+    }
+    assertTrue(map.toRelation().isEqual(rel));
+    assertTrue(PersistentHashSetMultimap.of(map.toRelation()).isEqual(map));
+
+    PersistentHashSetMultimap updated = map.insert(vf.integer(0), vf.string("0")).delete(vf.integer(1), vf.integer(1));
+    assertTrue(updated.get(vf.integer(0)).size() == 11);
+    assertTrue(updated.get(vf.integer(1)).size() == 9);
+    assertTrue(updated.getType().equals(tf.mapType(tf.integerType(), tf.setType(tf.valueType()))));
+    assertTrue(updated.toRelation().isEqual(rel.insert(vf.tuple(vf.integer(0), vf.string("0"))).delete(vf.tuple(vf.integer(1), vf.integer(1)))));
+    assertTrue(updated.delete(vf.integer(0), vf.string("0")).insert(vf.integer(1), vf.integer(1)).equals(map));
+
+    // the conversion accepts relations of any factory, but maps are compared with persistent ones
+    IMap copy = ValueFactory.getInstance().mapWriter().done();
+    for (Iterator<Entry<IValue, IValue>> it = map.entryIterator(); it.hasNext();) {
+      Entry<IValue, IValue> entry = it.next();
+      copy = copy.put(entry.getKey(), entry.getValue());
+    }
+    assertTrue(map.isEqual(copy) && copy.isEqual(map));
+    assertTrue(map.hashCode() == copy.hashCode());
+    assertTrue(updated.delete(vf.integer(0), vf.string("0")).insert(vf.integer(1), vf.integer(1)).hashCode() == copy.hashCode());
+    assertTrue(map.removeKey(vf.integer(2)).isEqual(copy.removeKey(vf.integer(2))));
+    assertTrue(map.put(vf.integer(3), vf.set(vf.integer(3))).isEqual(copy.put(vf.integer(3), vf.set(vf.integer(3)))));
+    assertTrue(map.put(vf.integer(3), vf.set()).isEqual(copy.put(vf.integer(3), vf.set())));
+  }
+
+  @Test
+  public void testOffHeapRelation() {
+    ISetWriter w = vf.setWriter();
+    for (int i = 0; i < 1000; i++) {
+      w.insert(vf.tuple(vf.integer(i % 10), vf.string("s" + (i % 7)), vf.integer(Long.MAX_VALUE).add(vf.integer(i))));
+    }
+    w.insert(vf.tuple(vf.integer(-3), vf.string(""), vf.integer(Long.MIN_VALUE)));
+    ISet rel = w.done();
+
+    OffHeapRelation offHeap = OffHeapRelation.of(vf, rel);
+    assertTrue(offHeap.size() == rel.size());
+    assertTrue(offHeap.getType() == rel.getType());
+    assertTrue(offHeap.isEqual(rel));
+
+    for (IValue t : rel) {
+      assertTrue(offHeap.contains(t));
+    }
+    assertTrue(!offHeap.contains(vf.tuple(vf.integer(0), vf.string("s0"), vf.integer(0))));
+    assertTrue(!offHeap.contains(vf.tuple(vf.integer(0), vf.string("absent"), vf.integer(0))));
+
+    for (int k = -3; k < 11; k++) {
+      assertTrue(offHeap.asRelation().index(vf.integer(k)).isEqual(rel.asRelation().index(vf.integer(k))));
+    }
+    assertTrue(offHeap.asRelation().project(2, 0).isEqual(rel.asRelation().project(2, 0)));
+    assertTrue(offHeap.asRelation().domain().isEqual(rel.asRelation().domain()));
+    assertTrue(offHeap.asRelation().range().isEqual(rel.asRelation().range()));
+
+    // operations which are not specialized produce ordinary sets
+    ISet extra = vf.set(vf.tuple(vf.integer(1), vf.string("x"), vf.integer(1)));
+    assertTrue(offHeap.union(extra).isEqual(rel.union(extra)));
+    assertTrue(OffHeapRelation.of(vf, vf.set()).isEmpty());
+
+    // integers around the bound of the ones which are stored in their code
+    IValueFactory pf = ValueFactory.getInstance();
+    ISetWriter bw = pf.setWriter();
+    for (long bound : new long[] { 1L << 55, -(1L << 55) }) {
+      for (int d = -1; d <= 1; d++) {
+        bw.insert(pf.tuple(pf.integer(bound + d), pf.integer(d)));
+      }
+    }
+    ISet bounds = bw.done();
+    OffHeapRelation offHeapBounds = OffHeapRelation.of(pf, bounds);
+    for (IValue t : bounds) {
+      assertTrue(offHeapBounds.contains(t));
+    }
+    assertTrue(offHeapBounds.dictionarySize() == 3);
+    assertTrue(offHeapBounds.equals(bounds) && bounds.equals(offHeapBounds));
+    assertTrue(offHeapBounds.hashCode() == bounds.hashCode());
+  }
+
+  @Test
+  public void testDictionaryEncodedRelation() {
+    ISetWriter w1 = vf.setWriter();
+    ISetWriter w2 = vf.setWriter();
+    for (int i = 0; i < 500; i++) {
+      w1.insert(vf.tuple(vf.integer(i), vf.string("kind" + (i % 5)), vf.bool(i % 2 == 0)));
+      w2.insert(vf.tuple(vf.string("kind" + (i % 7)), vf.integer(i % 11)));
+    }
+    ISet rel1 = w1.done();
+    ISet rel2 = w2.done();
+
+    DictionaryEncodedRelation encoded1 = DictionaryEncodedRelation.of(vf, rel1);
+    DictionaryEncodedRelation encoded2 = DictionaryEncodedRelation.of(vf, rel2);
+    assertTrue(encoded1.distinctValues(1) == 5 && encoded1.distinctValues(2) == 2);
+    assertTrue(encoded1.getType() == rel1.getType());
+    assertTrue(encoded1.isEqual(rel1) && encoded2.isEqual(rel2));
+    for (IValue t : rel1) {
+      assertTrue(encoded1.contains(t));
+    }
+    assertTrue(!encoded1.contains(vf.tuple(vf.integer(0), vf.string("kind1"), vf.bool(true))));
+    assertTrue(!encoded1.contains(vf.tuple(vf.integer(0), vf.string("absent"), vf.bool(true))));
+
+    ISet pairs = encoded1.asRelation().project(0, 1);
+    ISet expected = rel1.asRelation().project(0, 1);
+    assertTrue(pairs instanceof DictionaryEncodedRelation);
+    assertTrue(pairs.isEqual(expected) && pairs.getType() == expected.getType());
+    assertTrue(encoded1.asRelation().project(2, 1).isEqual(rel1.asRelation().project(2, 1)));
+    assertTrue(encoded1.asRelation().range().isEqual(rel1.asRelation().range()));
+    assertTrue(encoded2.asRelation().index(vf.string("kind3")).isEqual(rel2.asRelation().index(vf.string("kind3"))));
+    assertTrue(encoded2.asRelation().index(vf.string("absent")).isEmpty());
+
+    ISet composed = pairs.asRelation().compose(encoded2.asRelation());
+    ISet expectedComposed = expected.asRelation().compose(rel2.asRelation());
+    assertTrue(composed instanceof DictionaryEncodedRelation);
+    assertTrue(composed.isEqual(expectedComposed) && composed.getType() == expectedComposed.getType());
+    assertTrue(composed.asRelation().compose(rel2.asRelation().project(1, 0).asRelation()).isEqual(
+        expectedComposed.asRelation().compose(rel2.asRelation().project(1, 0).asRelation())));
+    assertTrue(DictionaryEncodedRelation.of(vf, vf.set()).asRelation().compose(encoded2.asRelation()).isEmpty());
+
+    IValueFactory pf = ValueFactory.getInstance();
+    ISet persistent = pf.set(pf.tuple(pf.string("a"), pf.integer(1)), pf.tuple(pf.string("b"), pf.integer(2)));
+    ISet encoded = DictionaryEncodedRelation.of(pf, persistent);
+    assertTrue(encoded.equals(persistent) && persistent.equals(encoded));
+    assertTrue(encoded.hashCode() == persistent.hashCode());
+  }
+
   private void testIndex(ISet targetRel) {
       for (IValue key: targetRel.asRelation().domain()) {
           ISet values = targetRel.asRelation().index(key);
@@ -604,4 +765,29 @@ public final class RelationSmokeTest {
           assertTrue(values.isEmpty());
       }
   }
+
+  @Test
+  public void testTypesOfBulkResults() {
+    ISetWriter w1 = vf.setWriter();
+    ISetWriter w2 = vf.setWriter();
+    for (int i = 0; i < 100; i++) {
+      w1.insert(vf.tuple(vf.integer(i), vf.string("s" + (i % 10))));
+      w2.insert(vf.tuple(vf.string("s" + i), i % 2 == 0 ? vf.integer(i) : vf.real(i)));
+    }
+    ISet r1 = w1.done();
+    ISet r2 = w2.done();
+
+    ISet composed = r1.asRelation().compose(r2.asRelation());
+    assertTrue(composed.getType() == tf.relType(tf.integerType(), tf.numberType()));
+    assertTrue(composed.equals(composed.insert(vf.tuple(vf.integer(0), vf.integer(0)))));
+    assertTrue(composed.insert(vf.tuple(vf.integer(0), vf.string("x"))).getType() == tf.relType(tf.integerType(), tf.valueType()));
+
+    ISet domain = composed.asRelation().domain();
+    assertTrue(domain.getElementType() == tf.integerType());
+    assertTrue(domain.size() == 100);
+    assertTrue(r1.asRelation().range().getElementType() == tf.stringType());
+    assertTrue(r2.asRelation().range().delete(vf.real(1)).size() == 99);
+    assertTrue(r2.asRelation().index(vf.string("s1")).getElementType() == tf.realType());
+    assertTrue(r2.asRelation().index(vf.string("s2")).getElementType() == tf.integerType());
+  }
 }
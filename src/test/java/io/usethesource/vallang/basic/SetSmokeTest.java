@@ -13,8 +13,10 @@
 package io.usethesource.vallang.basic;
 
 import java.util.Iterator;
+import java.util.Random;
 
 import io.usethesource.vallang.ISet;
+import io.usethesource.vallang.ISourceLocation;
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.Setup;
 import io.usethesource.vallang.type.TypeFactory;
@@ -25,8 +27,15 @@ import org.junit.runners.Parameterized;
 import io.usethesource.vallang.ISetWriter;
 import io.usethesource.vallang.IValueFactory;
 import io.usethesource.vallang.exceptions.FactTypeUseException;
+import io.usethesource.vallang.impl.IndexedSourceLocationSet;
+import io.usethesource.vallang.impl.persistent.PersistentHashIndexedBinaryRelation;
+import io.usethesource.vallang.impl.persistent.PersistentHashSet;
+import io.usethesource.vallang.impl.persistent.PersistentSortedSet;
+import io.usethesource.vallang.impl.persistent.SetDiff;
+import io.usethesource.vallang.impl.persistent.ValueFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @RunWith(Parameterized.class)
@@ -369,4 +378,247 @@ public final class SetSmokeTest {
     assertEquals(tf.realType(), set2.getElementType());
   }
 
+  @Test
+  public void testTypeManyElementTypesInsertRemove() {
+    IValue[] values = new IValue[] { integers[0], doubles[1], vf.string("a"), vf.bool(true),
+        vf.tuple(integers[0]), vf.tuple(doubles[0]), vf.list(integers[0]), vf.list(doubles[0]),
+        vf.set(integers[0]), vf.set(doubles[0]), vf.node("n"), vf.sourceLocation("file:///") };
+
+    ISetWriter w = vf.setWriter();
+    ISet set = vf.set();
+    for (IValue v : values) {
+      w.insert(v);
+      set = set.insert(v);
+    }
+    assertEquals(w.done(), set);
+    assertEquals(tf.valueType(), set.getElementType());
+
+    for (int i = 0; i < values.length; i++) {
+      set = set.delete(values[i]);
+      ISet expected = vf.set();
+      for (int j = i + 1; j < values.length; j++) {
+        expected = expected.insert(values[j]);
+      }
+      assertEquals(expected.getElementType(), set.getElementType());
+    }
+    assertEquals(tf.voidType(), set.getElementType());
+    assertEquals(tf.realType(), set.insert(doubles[0]).insert(doubles[1]).delete(doubles[0]).getElementType());
+  }
+
+  @Test
+  public void testIndexedSourceLocationSet() {
+    ISourceLocation[] files = { vf.sourceLocation("/tmp/a.txt"), vf.sourceLocation("/tmp/b.txt") };
+    Random random = new Random(42);
+    ISetWriter w = vf.setWriter();
+    for (ISourceLocation file : files) {
+      w.insert(file);
+      for (int i = 0; i < 500; i++) {
+        w.insert(vf.sourceLocation(file, random.nextInt(1000), random.nextInt(100)));
+      }
+    }
+    ISet plain = w.done();
+    IndexedSourceLocationSet indexed = IndexedSourceLocationSet.of(vf, plain);
+
+    assertEquals(plain, indexed);
+    assertEquals(indexed, plain);
+    assertEquals(plain.hashCode(), indexed.hashCode());
+
+    for (int i = 0; i < 50; i++) {
+      ISourceLocation region = vf.sourceLocation(files[i % 2], random.nextInt(1000), random.nextInt(50));
+      int qb = region.getOffset();
+      int qe = qb + region.getLength();
+      ISetWriter inFile = vf.setWriter(), contained = vf.setWriter(), overlapping = vf.setWriter(), enclosing = vf.setWriter();
+
+      for (IValue v : plain) {
+        ISourceLocation loc = (ISourceLocation) v;
+        if (!loc.top().equals(region.top())) {
+          continue;
+        }
+        inFile.insert(loc);
+        if (!loc.hasOffsetLength()) {
+          overlapping.insert(loc);
+          enclosing.insert(loc);
+          continue;
+        }
+        int b = loc.getOffset();
+        int e = b + loc.getLength();
+        if (b >= qb && e <= qe) {
+          contained.insert(loc);
+        }
+        if (b < qe && e > qb) {
+          overlapping.insert(loc);
+        }
+        if (b <= qb && e >= qe) {
+          enclosing.insert(loc);
+        }
+      }
+
+      assertEquals(inFile.done(), indexed.inFile(region));
+      assertEquals(contained.done(), indexed.containedIn(region));
+      assertEquals(overlapping.done(), indexed.overlapping(region));
+      assertEquals(enclosing.done(), indexed.enclosing(region));
+    }
+
+    assertEquals(vf.set(files[0]), indexed.enclosing(files[0], 5000));
+    assertEquals(vf.set(), indexed.inFile(vf.sourceLocation("/tmp/c.txt")));
+
+    try {
+      IndexedSourceLocationSet.of(vf, vf.set(integers[0]));
+      fail("only source locations can be indexed");
+    } catch (FactTypeUseException e) {
+      // this should happen
+    }
+  }
+
+  @Test
+  public void testDiffAndPatch() {
+    // diffs are computed by persistent sets, against sets of any factory
+    IValueFactory pvf = ValueFactory.getInstance();
+    ISetWriter w = pvf.setWriter();
+    ISetWriter copy = vf.setWriter();
+    for (int i = 0; i < 200; i++) {
+      w.insert(pvf.integer(i));
+      copy.insert(vf.integer(i >= 10 ? i : -i));
+    }
+    PersistentHashSet from = (PersistentHashSet) w.done();
+    ISet to = from;
+    for (int i = 0; i < 10; i++) {
+      to = to.delete(pvf.integer(i)).insert(pvf.string("s" + i));
+    }
+
+    SetDiff diff = from.diff(to);
+    assertEquals(10, diff.getAdded().size());
+    assertEquals(10, diff.getRemoved().size());
+    assertEquals(to, diff.applyTo(from));
+    assertEquals(from, diff.inverse().applyTo(to));
+
+    SetDiff other = from.diff(copy.done());
+    assertEquals(9, other.getAdded().size());
+    assertEquals(9, other.getRemoved().size());
+    assertTrue(other.applyTo(from).isEqual(copy.done()));
+
+    assertTrue(from.diff(from).isEmpty());
+    assertTrue(from.diff(pvf.set()).applyTo(from).isEmpty());
+
+    // relations, and a first version which is empty
+    ISetWriter r1 = pvf.setWriter();
+    ISetWriter r2 = pvf.setWriter();
+    for (int i = 0; i < 100; i++) {
+      r1.insert(pvf.tuple(pvf.integer(i % 10), pvf.string("v" + i)));
+      r2.insert(pvf.tuple(pvf.integer(i % 10 + (i < 10 ? 10 : 0)), pvf.string("v" + (i < 90 ? i : -i))));
+    }
+    ISet rel1 = r1.done();
+    ISet rel2 = r2.done();
+    assertTrue(rel1 instanceof PersistentHashIndexedBinaryRelation);
+
+    SetDiff relDiff = SetDiff.between(rel1, rel2);
+    assertEquals(20, relDiff.getAdded().size());
+    assertEquals(20, relDiff.getRemoved().size());
+    assertTrue(relDiff.getAdded().isEqual(rel2.subtract(rel1)));
+    assertTrue(relDiff.getRemoved().isEqual(rel1.subtract(rel2)));
+    assertTrue(relDiff.applyTo(rel1).isEqual(rel2));
+    assertTrue(relDiff.inverse().applyTo(rel2).isEqual(rel1));
+    assertTrue(SetDiff.between(rel1, rel1).isEmpty());
+
+    SetDiff fromEmpty = SetDiff.between(pvf.set(), rel1);
+    assertTrue(fromEmpty.getAdded().isEqual(rel1) && fromEmpty.getRemoved().isEmpty());
+    assertTrue(fromEmpty.applyTo(pvf.set()).isEqual(rel1));
+    assertTrue(SetDiff.between(rel1, pvf.set()).applyTo(rel1).isEmpty());
+  }
+
+  @Test
+  public void testLookupsOnLargeSets() {
+    // enough lookups on a large set or relation to build its bloom filter
+    IValueFactory pvf = ValueFactory.getInstance();
+    int size = 1 << 14;
+    ISetWriter w = pvf.setWriter();
+    ISetWriter r = pvf.setWriter();
+    for (int i = 0; i < size; i++) {
+      w.insert(pvf.integer(2 * i));
+      r.insert(pvf.tuple(pvf.integer(2 * i), pvf.integer(i)));
+    }
+    ISet set = w.done();
+    ISet rel = r.done();
+
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < size; i++) {
+        assertTrue(set.contains(pvf.integer(2 * i)));
+        assertTrue(!set.contains(pvf.integer(2 * i + 1)));
+        assertTrue(rel.contains(pvf.tuple(pvf.integer(2 * i), pvf.integer(i))));
+        assertTrue(!rel.contains(pvf.tuple(pvf.integer(2 * i + 1), pvf.integer(i))));
+        assertTrue(rel.asRelation().index(pvf.integer(2 * i + 1)).isEmpty());
+      }
+    }
+  }
+
+  @Test
+  public void testSortedSet() {
+    ISetWriter w = vf.setWriter();
+    for (int i = 0; i < 100; i++) {
+      w.insert(vf.integer((i * 37) % 100 * 2));
+    }
+    ISet set = w.done();
+    PersistentSortedSet sorted = PersistentSortedSet.of(set);
+
+    assertTrue(sorted.isEqual(set) && set.isEqual(sorted));
+    assertEquals(set.getType(), sorted.getType());
+    int expected = 0;
+    for (IValue elem : sorted) {
+      assertEquals(vf.integer(expected), elem);
+      expected += 2;
+    }
+
+    assertEquals(vf.integer(0), sorted.first());
+    assertEquals(vf.integer(198), sorted.last());
+    assertEquals(vf.integer(10), sorted.floor(vf.integer(11)));
+    assertEquals(vf.integer(12), sorted.ceiling(vf.integer(11)));
+    assertEquals(null, sorted.ceiling(vf.integer(199)));
+    assertEquals(6, sorted.rank(vf.integer(11)));
+    assertEquals(vf.integer(12), sorted.get(6));
+    assertEquals(5, sorted.range(vf.integer(10), vf.integer(20)).size());
+    assertTrue(sorted.range(vf.integer(10), vf.integer(20)).isEqual(vf.set(vf.integer(10), vf.integer(12), vf.integer(14), vf.integer(16), vf.integer(18))));
+
+    ISet updated = sorted.insert(vf.integer(11)).delete(vf.integer(0));
+    assertTrue(updated instanceof PersistentSortedSet);
+    assertEquals(vf.integer(2), ((PersistentSortedSet) updated).first());
+    assertEquals(6, ((PersistentSortedSet) updated).rank(vf.integer(12)));
+    assertTrue(updated.delete(vf.integer(11)).insert(vf.integer(0)).isEqual(set));
+
+    ISet mixed = sorted.insert(vf.string("a"));
+    assertTrue(mixed.contains(vf.string("a")) && mixed.contains(vf.integer(0)));
+    assertEquals(101, mixed.size());
+
+    // an empty set has no element type to order on
+    try {
+      PersistentSortedSet.of(vf.set());
+      fail("an empty set should not be ordered on void");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    ISet fromEmpty = PersistentSortedSet.empty(tf.numberType()).insert(vf.integer(3)).insert(vf.real(1.5));
+    assertTrue(fromEmpty instanceof PersistentSortedSet);
+    assertEquals(vf.real(1.5), ((PersistentSortedSet) fromEmpty).first());
+  }
+
+  @Test
+  public void testRepeatedLookupsOnLargeSets() {
+    ISetWriter w = vf.setWriter();
+    ISetWriter rw = vf.setWriter();
+    for (int i = 0; i < 40000; i += 2) {
+      w.insert(vf.integer(i));
+      rw.insert(vf.tuple(vf.integer(i), vf.string("" + i)));
+    }
+    ISet set = w.done();
+    ISet rel = rw.done();
+
+    // enough lookups for the large collections to be worth filtering
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 40000; i++) {
+        assertEquals(i % 2 == 0, set.contains(vf.integer(i)));
+        assertEquals(i % 2 == 0, rel.contains(vf.tuple(vf.integer(i), vf.string("" + i))));
+        assertEquals(i % 2 == 0 ? 1 : 0, rel.asRelation().index(vf.integer(i)).size());
+      }
+    }
+    assertTrue(!set.contains(vf.string("0")) && !rel.contains(vf.tuple(vf.integer(0), vf.string("1"))));
+  }
 }
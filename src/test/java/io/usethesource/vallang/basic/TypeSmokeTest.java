@@ -390,6 +390,71 @@ public final class TypeSmokeTest {
     }
   }
 
+  @Test
+  public void testLatticeCache() {
+    Type left = ft.tupleType(ft.integerType(), ft.setType(ft.stringType()));
+    Type right = ft.tupleType(ft.realType(), ft.setType(ft.voidType()));
+    Type expected = ft.tupleType(ft.numberType(), ft.setType(ft.stringType()));
+
+    long requests = ft.getLatticeCacheRequestCount();
+    for (int i = 0; i < 10; i++) {
+      assertTrue(left.lub(right) == expected);
+      assertTrue(right.lub(left) == expected);
+      assertTrue(right.glb(left) == ft.tupleType(ft.voidType(), ft.setType(ft.voidType())));
+      assertFalse(left.isSubtypeOf(right));
+      assertTrue(left.isSubtypeOf(expected));
+    }
+    assertTrue(ft.getLatticeCacheRequestCount() > requests);
+    assertTrue(ft.getLatticeCacheHitRate() > 0);
+  }
+
+  @Test
+  public void testTypeIdsAndConstructorLookup() {
+    TypeStore store = new TypeStore();
+    Type exp = ft.abstractDataType(store, "IdExp");
+    Type other = ft.abstractDataType(store, "IdOther");
+    Type num = ft.constructor(store, exp, "num", ft.integerType());
+    Type add = ft.constructor(store, exp, "add", exp, exp);
+    Type otherNum = ft.constructor(store, other, "num", ft.realType());
+
+    assertTrue(exp.getTypeId() >= 0);
+    assertTrue(num.getTypeId() != add.getTypeId());
+    assertEquals(num.getTypeId(), ft.constructor(store, exp, "num", ft.integerType()).getTypeId());
+    assertEquals(-1, ft.integerType().getTypeId());
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(num.isSubtypeOf(exp));
+      assertTrue(add.isSubtypeOf(exp));
+      assertFalse(otherNum.isSubtypeOf(exp));
+      assertFalse(num.isSubtypeOf(add));
+      assertFalse(exp.isSubtypeOf(num));
+      assertTrue(exp.isSubtypeOf(ft.nodeType()));
+    }
+
+    assertEquals(2, store.lookupConstructors("num").size());
+    assertEquals(1, store.lookupConstructor(exp, "num").size());
+    assertTrue(store.lookupConstructor(exp, "num").contains(num));
+    assertTrue(store.lookupConstructor(other, "add").isEmpty());
+    assertTrue(store.lookupConstructor(exp, "num", ft.tupleType(ft.integerType())) == num);
+
+    TypeStore importing = new TypeStore(store);
+    assertEquals(2, importing.lookupConstructors("num").size());
+    TypeStore extending = new TypeStore();
+    extending.extendStore(store);
+    assertTrue(extending.lookupConstructor(exp, "add").contains(add));
+
+    // many distinct candidates grow the subtype rows of exp and num
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 100; i++) {
+        Type adt = ft.abstractDataType(store, "IdMany" + i);
+        Type cons = ft.constructor(store, i % 2 == 0 ? exp : adt, "many" + i, ft.integerType());
+        assertEquals(i % 2 == 0, cons.isSubtypeOf(exp));
+        assertFalse(adt.isSubtypeOf(exp));
+        assertFalse(cons.isSubtypeOf(num));
+      }
+    }
+  }
+
   @Test
   public void testGetTypeDescriptor() {
     int count = 0;
@@ -16,11 +16,14 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
 
 import io.usethesource.vallang.IList;
 import io.usethesource.vallang.IReal;
 import io.usethesource.vallang.ISet;
 import io.usethesource.vallang.ISetWriter;
+import io.usethesource.vallang.ISourceLocation;
 import io.usethesource.vallang.IValueFactory;
 import io.usethesource.vallang.io.StandardTextReader;
 import io.usethesource.vallang.type.TypeStore;
@@ -36,7 +39,12 @@ import io.usethesource.vallang.exceptions.FactTypeUseException;
 import io.usethesource.vallang.io.StandardTextWriter;
 import io.usethesource.vallang.type.Type;
 import io.usethesource.vallang.type.TypeFactory;
+import io.usethesource.vallang.util.SourceLocationComparator;
+import io.usethesource.vallang.util.SourceLocationTable;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -380,6 +388,127 @@ public final class ValueFactorySmokeTest {
     }
   }
 
+  @Test
+  public void testConstructorFactory() {
+    TypeStore ts = new TypeStore();
+    Type exp = ft.abstractDataType(ts, "FactoryExp");
+    Type[] conses = new Type[10];
+    for (int arity = 0; arity < conses.length; arity++) {
+      Type[] fields = new Type[arity];
+      java.util.Arrays.fill(fields, ft.integerType());
+      conses[arity] = ft.constructor(ts, exp, "cons" + arity, fields);
+    }
+
+    for (Type cons : conses) {
+      IValue[] children = new IValue[cons.getArity()];
+      for (int i = 0; i < children.length; i++) {
+        children[i] = vf.integer(i);
+      }
+
+      IValue expected = vf.constructor(cons, children);
+      assertTrue(expected.isEqual(vf.constructorFactory(cons, false).make(children)));
+      assertTrue(expected.isEqual(vf.constructorFactory(cons, true).make(children.clone())));
+    }
+
+    IValue withParams = vf.constructorFactory(conses[1], false).make(new IValue[] { integers[0] }, 
+        java.util.Collections.singletonMap("x", integers[1]));
+    assertTrue(withParams.asWithKeywordParameters().getParameter("x").isEqual(integers[1]));
+
+    try {
+      vf.constructorFactory(conses[1], false).make(vf.string("no int"));
+      fail("child should be checked against the field type");
+    } catch (FactTypeUseException e) {
+      // this should happen
+    }
+
+    try {
+      vf.constructorFactory(conses[2], false).make(integers[0]);
+      fail("arity should be checked");
+    } catch (FactTypeUseException e) {
+      // this should happen
+    }
+  }
+
+  @Test
+  public void testSourceLocationTable() {
+    ISourceLocation file = vf.sourceLocation("/tmp/table.txt");
+    SourceLocationTable table = SourceLocationTable.of(vf, vf.sourceLocation(file, 0, 1));
+
+    int first = table.addAll(new int[] { 0, 10, 100000 }, new int[] { 5, 20, 1 << 20 },
+        new int[] { 1, 2, 5000000 }, new int[] { 1, 200000, 5000001 },
+        new int[] { 0, 4095, 3 }, new int[] { 5, 10, 4096 });
+    int noLines = table.add(7, 3);
+    int existing = table.add(vf.sourceLocation(file, 1, 2, 3, 4, 5, 6));
+
+    assertEquals(0, first);
+    assertEquals(5, table.size());
+    assertEquals(file, table.getFile());
+    assertEquals(vf.sourceLocation(file, 0, 5, 1, 1, 0, 5), table.get(0));
+    assertEquals(vf.sourceLocation(file, 10, 20, 2, 200000, 4095, 10), table.get(1));
+    assertEquals(vf.sourceLocation(file, 100000, 1 << 20, 5000000, 5000001, 3, 4096), table.get(2));
+    assertEquals(vf.sourceLocation(file, 7, 3), table.get(noLines));
+    assertEquals(vf.sourceLocation(file, 1, 2, 3, 4, 5, 6), table.get(existing));
+    assertFalse(table.hasLineColumn(noLines));
+
+    int count = 0;
+    for (ISourceLocation loc : table) {
+      assertEquals(table.get(count++), loc);
+    }
+    assertEquals(table.size(), count);
+
+    try {
+      table.add(vf.sourceLocation("/tmp/other.txt"));
+      fail("locations of other files should be rejected");
+    } catch (IllegalArgumentException e) {
+      // this should happen
+    }
+  }
+
+  @Test
+  public void testSourceLocationURIsAreShared() throws URISyntaxException {
+    ISourceLocation a = vf.sourceLocation("file", "", "/tmp/shared.txt");
+    ISourceLocation b = vf.sourceLocation("file", "", "/tmp/" + "shared.txt");
+
+    assertSame(a, b);
+    assertSame(vf.sourceLocation(a, 0, 1).top(), vf.sourceLocation(b, 2, 3).top());
+    assertEquals(a, vf.sourceLocation("file", "", "/tmp//shared.txt"));
+  }
+
+  @Test
+  public void testSourceLocationComparator() throws URISyntaxException {
+    // differently written, so not the same interned object
+    ISourceLocation a = vf.sourceLocation("file", "", "/tmp/compared.txt");
+    ISourceLocation a2 = vf.sourceLocation("file", "", "/tmp//compared.txt");
+    ISourceLocation b = vf.sourceLocation("file", "", "/tmp/compared.txt", "q", "f");
+    ISourceLocation c = vf.sourceLocation("std", "lib", "/tmp/compared.txt");
+    assertEquals(a, a2);
+    assertEquals(a.hashCode(), a2.hashCode());
+    assertFalse(a.equals(b));
+
+    ISourceLocation[] locs = new ISourceLocation[] { a, b, c,
+        vf.sourceLocation(a, 10, 5), vf.sourceLocation(a2, 10, 5), vf.sourceLocation(a, 10, 6), vf.sourceLocation(b, 2, 1),
+        vf.sourceLocation(a, 10, 5, 1, 1, 3, 8), vf.sourceLocation(a, 10, 5, 1, 2, 3, 8), vf.sourceLocation(c, 100000, 70000, 1000, 70000, 1, 200) };
+
+    SourceLocationComparator cmp = SourceLocationComparator.getInstance();
+    for (ISourceLocation x : locs) {
+      for (ISourceLocation y : locs) {
+        assertEquals(x + " and " + y, x.equals(y), cmp.compare(x, y) == 0);
+        assertEquals(Integer.signum(cmp.compare(x, y)), -Integer.signum(cmp.compare(y, x)));
+        if (x.equals(y)) {
+          assertEquals(x.hashCode(), y.hashCode());
+        }
+      }
+    }
+
+    Arrays.sort(locs, cmp);
+    for (int i = 1; i < locs.length; i++) {
+      assertTrue(cmp.compare(locs[i - 1], locs[i]) <= 0);
+      if (locs[i - 1].top().equals(locs[i].top()) && locs[i - 1].hasOffsetLength() && locs[i].hasOffsetLength()) {
+        assertTrue(locs[i - 1].getOffset() <= locs[i].getOffset());
+      }
+    }
+  }
+
   private ISetWriter createSomeValues() throws FactTypeUseException, MalformedURLException {
     ISetWriter basicW = vf.setWriter(ft.valueType());
 